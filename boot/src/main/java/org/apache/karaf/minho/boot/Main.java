@@ -18,49 +18,66 @@
 package org.apache.karaf.minho.boot;
 
 import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.loader.IndexedClassLoader;
+import org.apache.karaf.minho.boot.loader.NestedJarClassLoader;
 
-import java.io.File;
-import java.io.IOException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.Optional;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 @Log
 public class Main {
 
+    public static final String LAYOUT_ATTRIBUTE = "Minho-Layout";
+    public static final String LIB_ATTRIBUTE = "Minho-Lib";
+
     public static final void main(String[] args) throws Exception {
         boolean minhoJar = false;
         minhoJar = (System.getenv("MINHO_JAR") != null) ? System.getenv("MINHO_JAR").equalsIgnoreCase("true") : minhoJar;
         minhoJar = (System.getProperty("minho.jar") != null) ? System.getProperty("minho.jar").equalsIgnoreCase("true") : minhoJar;
 
-        if (!minhoJar) {
+        // uber jar using the nested layout
+        CodeSource codeSource = Main.class.getProtectionDomain().getCodeSource();
+        Path jar = (codeSource != null) ? Paths.get(codeSource.getLocation().toURI()) : null;
+        String nested = null;
+        if (jar != null && Files.isRegularFile(jar)) {
+            try (JarFile jarFile = new JarFile(jar.toFile())) {
+                Manifest manifest = jarFile.getManifest();
+                if (manifest != null && "nested".equals(manifest.getMainAttributes().getValue(LAYOUT_ATTRIBUTE))) {
+                    nested = Optional.ofNullable(manifest.getMainAttributes().getValue(LIB_ATTRIBUTE)).orElse("lib/");
+                }
+            }
+        }
+
+        if (nested != null) {
+            log.info("Starting runtime in nested jar mode");
+            NestedJarClassLoader classLoader = NestedJarClassLoader.create(jar, nested, Main.class.getClassLoader());
+            log.fine("Loaded libraries: " + classLoader.getJars());
+            Thread.currentThread().setContextClassLoader(classLoader);
+        } else if (!minhoJar) {
             log.info("Starting runtime in exploded mode");
             // try to load classpath
             String minhoLib = (System.getProperty("minho.lib") != null) ? System.getProperty("minho.lib") : System.getProperty("user.dir");
-            System.out.println("Minho lib: " + minhoLib);
+            log.info("Minho lib: " + minhoLib);
             Path libFolder = Paths.get(minhoLib);
-            ArrayList<URL> urls = new ArrayList<URL>();
-            System.out.print("Loaded libraries: ");
-            System.out.print(libFolder.toFile().toURI().toURL() + ":");
-            urls.add(libFolder.toFile().toURI().toURL());
-            Files.walkFileTree(libFolder, new SimpleFileVisitor<>() {
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
-                    if (!Files.isDirectory(file)) {
-                        System.out.print(file.toFile().toURI().toURL() + ":");
-                        urls.add(file.toFile().toURI().toURL());
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-            System.out.println();
-            URLClassLoader classLoader = new URLClassLoader(urls.toArray(new URL[]{}));
+            Path indexFile = (System.getProperty("minho.index") != null) ? Paths.get(System.getProperty("minho.index")) : libFolder.resolve(".minho.index");
+            IndexedClassLoader classLoader = IndexedClassLoader.create(libFolder, indexFile, Main.class.getClassLoader());
+            log.fine("Loaded libraries: " + classLoader.getJars());
             Thread.currentThread().setContextClassLoader(classLoader);
         } else {
             log.info("Starting runtime in uber jar mode");
         }
-        Minho.builder().build().start();
+        Minho minho = Minho.builder().build().start();
+        if (Boolean.getBoolean("minho.cds.training")) {
+            // training run (used to create the CDS archive): the loaded classes are dumped when the JVM exits
+            log.info("CDS training run done, stopping runtime");
+            minho.close();
+            System.exit(0);
+        }
     }
 
 }
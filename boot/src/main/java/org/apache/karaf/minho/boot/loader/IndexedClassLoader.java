@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.boot.loader;
+
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.zip.ZipFile;
+
+/**
+ * Class loader for the exploded runtime, resolving classes and resources through a package to jars index.
+ * The index is built on first start and persisted in a cache file, reused while the jars (path, size, modification
+ * time) don't change. The lib folder itself is part of the class path (for resources like minho.json).
+ */
+@Log
+public class IndexedClassLoader extends URLClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final static String INDEX_HEADER = "# Minho class loader index";
+
+    private final List<Path> jars;
+    private final List<URL> jarUrls = new ArrayList<>();
+    private final Map<String, int[]> index;
+    private final JarFile[] jarFiles;
+
+    private IndexedClassLoader(Path libFolder, List<Path> jars, Map<String, int[]> index, ClassLoader parent) throws MalformedURLException {
+        super(new URL[]{ libFolder.toUri().toURL() }, parent);
+        this.jars = jars;
+        this.index = index;
+        this.jarFiles = new JarFile[jars.size()];
+        for (Path jar : jars) {
+            jarUrls.add(jar.toUri().toURL());
+        }
+    }
+
+    /**
+     * Create the class loader for a lib folder.
+     *
+     * @param libFolder the lib folder, containing the runtime jars (recursively).
+     * @param indexFile the index cache file, rebuilt if the jars have changed.
+     * @param parent the parent class loader.
+     * @return the indexed class loader.
+     */
+    public static IndexedClassLoader create(Path libFolder, Path indexFile, ClassLoader parent) throws IOException {
+        long begin = System.nanoTime();
+        List<Path> jars = new ArrayList<>();
+        Files.walkFileTree(libFolder, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && file.getFileName().toString().endsWith(".jar")) {
+                    jars.add(file.toAbsolutePath());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(jars);
+        List<String> keys = new ArrayList<>();
+        for (Path jar : jars) {
+            // relative path, the index stays valid if the runtime folder is moved
+            keys.add(Files.size(jar) + "\t" + Files.getLastModifiedTime(jar).toMillis() + "\t" + libFolder.toAbsolutePath().relativize(jar));
+        }
+
+        Map<String, int[]> index = (indexFile != null) ? load(indexFile, keys) : null;
+        if (index == null) {
+            index = build(jars);
+            if (indexFile != null) {
+                store(indexFile, keys, index);
+            }
+            log.info("Class loader index built for " + jars.size() + " jars in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        } else {
+            log.info("Class loader index reused for " + jars.size() + " jars in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        }
+        return new IndexedClassLoader(libFolder, jars, index, parent);
+    }
+
+    private static Map<String, int[]> build(List<Path> jars) throws IOException {
+        Map<String, Set<Integer>> packages = new HashMap<>();
+        for (int i = 0; i < jars.size(); i++) {
+            final int position = i;
+            try (JarFile jarFile = new JarFile(jars.get(i).toFile(), false, ZipFile.OPEN_READ, JarFile.runtimeVersion())) {
+                jarFile.versionedStream().filter(entry -> !entry.isDirectory())
+                        .forEach(entry -> packages.computeIfAbsent(directory(entry.getName()), key -> new TreeSet<>()).add(position));
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Can't index " + jars.get(i), e);
+            }
+        }
+        Map<String, int[]> index = new HashMap<>();
+        packages.forEach((directory, positions) -> index.put(directory, positions.stream().mapToInt(Integer::intValue).toArray()));
+        return index;
+    }
+
+    private static Map<String, int[]> load(Path indexFile, List<String> keys) {
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!INDEX_HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            for (String key : keys) {
+                if (!key.equals(reader.readLine())) {
+                    return null;
+                }
+            }
+            if (!"".equals(reader.readLine())) {
+                return null;
+            }
+            Map<String, int[]> index = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf('\t');
+                index.put(line.substring(0, separator), Arrays.stream(line.substring(separator + 1).split(",")).mapToInt(Integer::parseInt).toArray());
+            }
+            return index;
+        } catch (Exception e) {
+            log.log(Level.FINE, "Can't read class loader index " + indexFile, e);
+            return null;
+        }
+    }
+
+    private static void store(Path indexFile, List<String> keys, Map<String, int[]> index) {
+        try {
+            Path temp = Files.createTempFile(indexFile.toAbsolutePath().getParent(), "minho", ".index");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(INDEX_HEADER);
+                writer.newLine();
+                for (String key : keys) {
+                    writer.write(key);
+                    writer.newLine();
+                }
+                writer.newLine();
+                for (Map.Entry<String, int[]> entry : index.entrySet()) {
+                    StringJoiner positions = new StringJoiner(",");
+                    Arrays.stream(entry.getValue()).forEach(position -> positions.add(Integer.toString(position)));
+                    writer.write(entry.getKey() + "\t" + positions);
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Can't store class loader index " + indexFile, e);
+        }
+    }
+
+    private static String directory(String name) {
+        int separator = name.lastIndexOf('/');
+        return (separator == -1) ? "" : name.substring(0, separator);
+    }
+
+    private JarFile jarFile(int position) throws IOException {
+        synchronized (jarFiles) {
+            if (jarFiles[position] == null) {
+                jarFiles[position] = new JarFile(jars.get(position).toFile(), true, ZipFile.OPEN_READ, JarFile.runtimeVersion());
+            }
+            return jarFiles[position];
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        int[] positions = index.get(directory(path));
+        if (positions != null) {
+            for (int position : positions) {
+                try {
+                    JarFile jarFile = jarFile(position);
+                    JarEntry entry = jarFile.getJarEntry(path);
+                    if (entry != null) {
+                        return defineClass(name, position, jarFile, entry);
+                    }
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }
+        return super.findClass(name);
+    }
+
+    private Class<?> defineClass(String name, int position, JarFile jarFile, JarEntry entry) throws IOException {
+        byte[] bytes;
+        try (InputStream inputStream = jarFile.getInputStream(entry)) {
+            bytes = inputStream.readAllBytes();
+        }
+        int separator = name.lastIndexOf('.');
+        if (separator != -1) {
+            String packageName = name.substring(0, separator);
+            if (getDefinedPackage(packageName) == null) {
+                try {
+                    Manifest manifest = jarFile.getManifest();
+                    if (manifest != null) {
+                        definePackage(packageName, manifest, jarUrls.get(position));
+                    } else {
+                        definePackage(packageName, null, null, null, null, null, null, null);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // package defined concurrently
+                }
+            }
+        }
+        return defineClass(name, bytes, 0, bytes.length, new CodeSource(jarUrls.get(position), entry.getCodeSigners()));
+    }
+
+    @Override
+    public URL findResource(String name) {
+        URL url = super.findResource(name);
+        if (url != null) {
+            return url;
+        }
+        int[] positions = index.get(directory(name));
+        if (positions != null) {
+            for (int position : positions) {
+                URL resource = resource(position, name);
+                if (resource != null) {
+                    return resource;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> urls = Collections.list(super.findResources(name));
+        int[] positions = index.get(directory(name));
+        if (positions != null) {
+            for (int position : positions) {
+                URL resource = resource(position, name);
+                if (resource != null) {
+                    urls.add(resource);
+                }
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    private URL resource(int position, String name) {
+        try {
+            if (jarFile(position).getJarEntry(name) != null) {
+                return new URL("jar:" + jarUrls.get(position) + "!/" + name);
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Can't get resource " + name + " from " + jars.get(position), e);
+        }
+        return null;
+    }
+
+    /**
+     * Retrieve the jars indexed by this class loader.
+     *
+     * @return the jar paths.
+     */
+    public List<Path> getJars() {
+        return Collections.unmodifiableList(jars);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        synchronized (jarFiles) {
+            for (int i = 0; i < jarFiles.length; i++) {
+                if (jarFiles[i] != null) {
+                    try {
+                        jarFiles[i].close();
+                    } catch (IOException e) {
+                        exception = e;
+                    }
+                    jarFiles[i] = null;
+                }
+            }
+        }
+        super.close();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.boot.loader;
+
+import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Class loader for the nested uber jar layout: the runtime jars are stored (not compressed) in the uber jar, and read
+ * in place from the memory mapped uber jar, without extraction.
+ * Classes and resources are resolved through a package to nested jars index, and the resources URLs use the
+ * {@code minho-nested} protocol (handled by this class loader). The protocol handler is registered in the
+ * {@link URLHandlerService} registry, so the URLs can be created again from their string form (resolved by the last
+ * created nested jar class loader).
+ * <p>
+ * The uber jar is mapped at once: it's limited to 2 GB, and the zip64 format is not supported.
+ */
+@Log
+public class NestedJarClassLoader extends URLClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    public final static String PROTOCOL = "minho-nested";
+
+    private final static int LOCAL_HEADER = 0x04034b50;
+    private final static int CENTRAL_HEADER = 0x02014b50;
+    private final static int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private final static int STORED = 0;
+    private final static int DEFLATED = 8;
+
+    private final FileChannel channel;
+    private final List<NestedJar> jars = new ArrayList<>();
+    private final Map<String, NestedJar> names = new HashMap<>();
+    private final Map<String, int[]> index = new HashMap<>();
+    private final URLStreamHandler handler = new NestedUrlHandler();
+    private final URLHandlerService urlHandlerService = new URLHandlerService();
+
+    private NestedJarClassLoader(Path jar, String prefix, ClassLoader parent) throws IOException {
+        super(new URL[0], parent);
+        channel = FileChannel.open(jar, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ZipException("Uber jar " + jar + " is larger than 2 GB, not supported by the nested layout");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Map<String, List<Integer>> packages = new HashMap<>();
+            for (Map.Entry<String, Entry> nested : entries(buffer).entrySet()) {
+                if (!nested.getKey().startsWith(prefix) || !nested.getKey().endsWith(".jar")) {
+                    continue;
+                }
+                if (nested.getValue().method != STORED) {
+                    throw new ZipException("Nested jar " + nested.getKey() + " is compressed, it must be stored");
+                }
+                ByteBuffer content = slice(buffer, data(buffer, nested.getValue()), nested.getValue().compressedSize);
+                NestedJar nestedJar = new NestedJar(nested.getKey(), content, entries(content),
+                        new URL(PROTOCOL, null, -1, "/" + nested.getKey(), handler));
+                int position = jars.size();
+                jars.add(nestedJar);
+                names.put(nestedJar.name, nestedJar);
+                nestedJar.entries.keySet().stream().filter(name -> !name.endsWith("/")).map(NestedJarClassLoader::directory).distinct()
+                        .forEach(directory -> packages.computeIfAbsent(directory, key -> new ArrayList<>()).add(position));
+            }
+            packages.forEach((directory, positions) -> index.put(directory, positions.stream().mapToInt(Integer::intValue).toArray()));
+            urlHandlerService.register(PROTOCOL, handler);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create the class loader for an uber jar using the nested layout.
+     *
+     * @param jar the uber jar.
+     * @param prefix the location of the nested jars in the uber jar (e.g. {@code lib/}).
+     * @param parent the parent class loader.
+     * @return the nested jar class loader.
+     */
+    public static NestedJarClassLoader create(Path jar, String prefix, ClassLoader parent) throws IOException {
+        long begin = System.nanoTime();
+        NestedJarClassLoader classLoader = new NestedJarClassLoader(jar, prefix, parent);
+        log.info("Nested jars (" + classLoader.jars.size() + ") opened in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        return classLoader;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Read the zip central directory.
+     */
+    private static Map<String, Entry> entries(ByteBuffer buffer) throws ZipException {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int end = -1;
+        for (int i = buffer.limit() - 22; i >= Math.max(0, buffer.limit() - 22 - 0xFFFF); i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new ZipException("End of central directory not found");
+        }
+        int count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        int offset = buffer.getInt(end + 16);
+        if (count == 0xFFFF || offset == -1) {
+            throw new ZipException("Zip64 format is not supported by the nested layout");
+        }
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(offset) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory");
+            }
+            int nameLength = Short.toUnsignedInt(buffer.getShort(offset + 28));
+            byte[] name = new byte[nameLength];
+            buffer.duplicate().position(offset + 46).get(name);
+            Entry entry = new Entry(Short.toUnsignedInt(buffer.getShort(offset + 10)), Integer.toUnsignedLong(buffer.getInt(offset + 16)), buffer.getInt(offset + 20), buffer.getInt(offset + 24), buffer.getInt(offset + 42));
+            entries.put(new String(name, StandardCharsets.UTF_8), entry);
+            offset += 46 + nameLength + Short.toUnsignedInt(buffer.getShort(offset + 30)) + Short.toUnsignedInt(buffer.getShort(offset + 32));
+        }
+        return entries;
+    }
+
+    /**
+     * Get the entry data offset (after the local header).
+     */
+    private static int data(ByteBuffer buffer, Entry entry) throws ZipException {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(entry.localHeader) != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header");
+        }
+        return entry.localHeader + 30 + Short.toUnsignedInt(buffer.getShort(entry.localHeader + 26)) + Short.toUnsignedInt(buffer.getShort(entry.localHeader + 28));
+    }
+
+    private static byte[] read(NestedJar jar, Entry entry) throws IOException {
+        ByteBuffer data = slice(jar.content, data(jar.content, entry), entry.compressedSize);
+        byte[] bytes = new byte[entry.size];
+        if (entry.method == STORED) {
+            data.get(bytes);
+        } else if (entry.method == DEFLATED) {
+            byte[] compressed = new byte[entry.compressedSize];
+            data.get(compressed);
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                int count = 0;
+                while (count < bytes.length && !inflater.finished()) {
+                    int read = inflater.inflate(bytes, count, bytes.length - count);
+                    if (read == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    count += read;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new ZipException("Unsupported compression method " + entry.method);
+        }
+        return bytes;
+    }
+
+    private static String directory(String name) {
+        int separator = name.lastIndexOf('/');
+        return (separator == -1) ? "" : name.substring(0, separator);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        int[] positions = index.get(directory(path));
+        if (positions != null) {
+            for (int position : positions) {
+                NestedJar jar = jars.get(position);
+                Entry entry = jar.entries.get(path);
+                if (entry != null) {
+                    try {
+                        byte[] bytes = read(jar, entry);
+                        definePackage(name, jar);
+                        return defineClass(name, bytes, 0, bytes.length, new CodeSource(jar.url, (java.security.cert.Certificate[]) null));
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    private void definePackage(String className, NestedJar jar) throws IOException {
+        int separator = className.lastIndexOf('.');
+        if (separator == -1) {
+            return;
+        }
+        String packageName = className.substring(0, separator);
+        if (getDefinedPackage(packageName) != null) {
+            return;
+        }
+        try {
+            Manifest manifest = jar.manifest();
+            if (manifest != null) {
+                definePackage(packageName, manifest, jar.url);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // package defined concurrently
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        int[] positions = index.get(directory(name));
+        if (positions != null) {
+            for (int position : positions) {
+                URL url = resource(jars.get(position), name);
+                if (url != null) {
+                    return url;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) {
+        List<URL> urls = new ArrayList<>();
+        int[] positions = index.get(directory(name));
+        if (positions != null) {
+            for (int position : positions) {
+                URL url = resource(jars.get(position), name);
+                if (url != null) {
+                    urls.add(url);
+                }
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    private URL resource(NestedJar jar, String name) {
+        if (!jar.entries.containsKey(name)) {
+            return null;
+        }
+        try {
+            return new URL(PROTOCOL, null, -1, "/" + jar.name + "!/" + name, handler);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * List the resources (files) of a folder in the nested jars, the first nested jar containing a resource wins.
+     *
+     * @param folder the folder (e.g. {@code static/}).
+     * @return the resources by name, relative to the folder.
+     */
+    public Map<String, Resource> listResources(String folder) {
+        String prefix = (folder.isEmpty() || folder.endsWith("/")) ? folder : folder + "/";
+        Map<String, Resource> resources = new TreeMap<>();
+        for (NestedJar jar : jars) {
+            jar.entries.forEach((name, entry) -> {
+                if (name.startsWith(prefix) && !name.endsWith("/") && !resources.containsKey(name.substring(prefix.length()))) {
+                    URL url = resource(jar, name);
+                    if (url != null) {
+                        resources.put(name.substring(prefix.length()), new Resource(url, entry.size, entry.crc));
+                    }
+                }
+            });
+        }
+        return resources;
+    }
+
+    /**
+     * Retrieve the nested jars.
+     *
+     * @return the nested jar names in the uber jar.
+     */
+    public List<String> getJars() {
+        List<String> names = new ArrayList<>();
+        jars.forEach(jar -> names.add(jar.name));
+        return names;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            urlHandlerService.close();
+            channel.close();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Resource of a nested jar: {@code minho-nested} URL, size and CRC.
+     */
+    public static class Resource {
+
+        private final URL url;
+        private final long size;
+        private final long crc;
+
+        Resource(URL url, long size, long crc) {
+            this.url = url;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+    }
+
+    private static class Entry {
+
+        private final int method;
+        private final long crc;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeader;
+
+        Entry(int method, long crc, int compressedSize, int size, int localHeader) {
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeader = localHeader;
+        }
+
+    }
+
+    private interface Content {
+
+        byte[] read() throws IOException;
+
+    }
+
+    private static class NestedJar {
+
+        private final String name;
+        private final ByteBuffer content;
+        private final Map<String, Entry> entries;
+        private final URL url;
+        private volatile Optional<Manifest> manifest;
+
+        NestedJar(String name, ByteBuffer content, Map<String, Entry> entries, URL url) {
+            this.name = name;
+            this.content = content;
+            this.entries = entries;
+            this.url = url;
+        }
+
+        Manifest manifest() throws IOException {
+            if (manifest == null) {
+                Entry entry = entries.get("META-INF/MANIFEST.MF");
+                manifest = (entry == null) ? Optional.empty() : Optional.of(new Manifest(new ByteArrayInputStream(read(this, entry))));
+            }
+            return manifest.orElse(null);
+        }
+
+    }
+
+    /**
+     * Handler for the {@code minho-nested:/<nested jar>!/<entry>} URLs (and the {@code minho-nested:/<nested jar>} code
+     * source URLs, reading the nested jar itself).
+     */
+    private class NestedUrlHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            String path = url.getPath().substring(1);
+            int separator = path.indexOf("!/");
+            if (separator == -1) {
+                NestedJar jar = names.get(path);
+                if (jar == null) {
+                    throw new IOException("Nested jar " + path + " not found");
+                }
+                return connection(url, jar.content.capacity(), () -> {
+                    byte[] bytes = new byte[jar.content.capacity()];
+                    jar.content.duplicate().get(bytes);
+                    return bytes;
+                });
+            }
+            String jarName = path.substring(0, separator);
+            String entryName = path.substring(separator + 2);
+            NestedJar jar = names.get(jarName);
+            Entry entry = (jar != null) ? jar.entries.get(entryName) : null;
+            if (entry == null) {
+                throw new IOException("Entry " + entryName + " not found in " + jarName);
+            }
+            return connection(url, entry.size, () -> read(jar, entry));
+        }
+
+        private URLConnection connection(URL url, long size, Content content) {
+            return new URLConnection(url) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new ByteArrayInputStream(content.read());
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    return size;
+                }
+            };
+        }
+
+    }
+
+}
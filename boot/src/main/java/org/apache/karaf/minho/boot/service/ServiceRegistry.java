@@ -19,9 +19,11 @@ package org.apache.karaf.minho.boot.service;
 
 import lombok.extern.java.Log;
 import org.apache.karaf.minho.boot.spi.Service;
+import org.apache.karaf.minho.boot.spi.ServiceLookup;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Stream;
 
 import static java.util.Optional.ofNullable;
@@ -34,9 +36,17 @@ import static java.util.stream.Collectors.toList;
 public class ServiceRegistry implements AutoCloseable {
 
     private final Map<Class<?>, Service> registry = new ConcurrentHashMap<>();
+    private final Map<Class<?>, List<Service>> typeIndex = new ConcurrentHashMap<>();
+    private final List<ServiceLookup> lookups = new CopyOnWriteArrayList<>();
 
+    /**
+     * Retrieve all services from the registry.
+     *
+     * @return all services from the registry (read-only view, use {@link #add(Service)} or {@link #remove(Service)} to
+     * update the registry).
+     */
     public Map<Class<?>, Service> getAll() {
-        return registry;
+        return Collections.unmodifiableMap(registry);
     }
 
     /**
@@ -47,12 +57,13 @@ public class ServiceRegistry implements AutoCloseable {
      * @return the service instance from the registry.
      */
     public <T> T get(final Class<T> serviceClass) {
-        return serviceClass.cast(ofNullable(registry.get(serviceClass)) // direct lookup, faster
+        return serviceClass.cast(ofNullable((Object) registry.get(serviceClass)) // direct lookup, faster
                 .orElseGet(() -> { // fallback (hierarchy)
-                    final var selected = findByType(serviceClass).collect(toList());
+                    final var selected = index(serviceClass);
                     switch (selected.size()) {
                         case 0:
-                            return null;
+                            // fallback (external lookups)
+                            return lookups.stream().flatMap(lookup -> lookup.lookup(serviceClass)).findFirst().orElse(null);
                         case 1:
                             return selected.iterator().next();
                         default:
@@ -69,7 +80,34 @@ public class ServiceRegistry implements AutoCloseable {
      * @return the instances matching the requested type.
      */
     public <T> Stream<Service> findByType(final Class<T> serviceClass) {
-        return registry.values().stream().filter(serviceClass::isInstance);
+        final Stream<Service> services = index(serviceClass).stream();
+        if (lookups.isEmpty()) {
+            return services;
+        }
+        return Stream.concat(services, lookups.stream().flatMap(lookup -> lookup.lookup(serviceClass))
+                .filter(Service.class::isInstance).map(Service.class::cast));
+    }
+
+    private List<Service> index(final Class<?> serviceClass) {
+        return typeIndex.computeIfAbsent(serviceClass, type -> registry.values().stream().filter(type::isInstance).collect(toList()));
+    }
+
+    /**
+     * Add an external service lookup, used when a service is not found in the registry.
+     *
+     * @param lookup the service lookup.
+     */
+    public void addLookup(final ServiceLookup lookup) {
+        lookups.add(lookup);
+    }
+
+    /**
+     * Remove an external service lookup.
+     *
+     * @param lookup the service lookup.
+     */
+    public void removeLookup(final ServiceLookup lookup) {
+        lookups.remove(lookup);
     }
 
     /**
@@ -81,6 +119,7 @@ public class ServiceRegistry implements AutoCloseable {
     public boolean add(final Service service) {
         boolean added = registry.putIfAbsent(service.getClass(), service) == null;
         if (added) {
+            typeIndex.clear();
             log.info("Adding " + service.name() + " service (" + service.priority() + ")");
             try {
                 service.onRegister(this);
@@ -97,7 +136,9 @@ public class ServiceRegistry implements AutoCloseable {
      * @param service the service to remove.
      */
     public void remove(final Service service) {
-        registry.remove(service.getClass(), service);
+        if (registry.remove(service.getClass(), service)) {
+            typeIndex.clear();
+        }
     }
 
     /**
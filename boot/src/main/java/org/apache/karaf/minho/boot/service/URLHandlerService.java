@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.boot.service;
+
+import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.spi.Service;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the URL stream handlers contributed by the services ({@code classpath:}, ...).
+ * <p>
+ * The JVM accepts only one {@link URLStreamHandlerFactory}: the registry installs a single factory (once, when the service
+ * is registered, before the frameworks like OSGi try to install their own), multiplexing the registered handlers. The JVM caches the handler of a protocol forever: the
+ * factory returns a handler delegating to the currently registered handler, so the handlers can be registered and
+ * unregistered (the lookup is a lock-free map read).
+ */
+@Log
+public class URLHandlerService implements Service, AutoCloseable {
+
+    private final static Map<String, URLStreamHandler> HANDLERS = new ConcurrentHashMap<>();
+    private final static Map<String, URLStreamHandler> DELEGATES = new ConcurrentHashMap<>();
+    private static volatile Boolean installed;
+
+    private final Map<String, URLStreamHandler> registered = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return "minho-url-handler-service";
+    }
+
+    @Override
+    public int priority() {
+        return -DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public void onRegister(ServiceRegistry serviceRegistry) {
+        install();
+    }
+
+    /**
+     * Register a URL stream handler.
+     *
+     * @param protocol the URL protocol (scheme).
+     * @param handler the URL stream handler of the protocol.
+     */
+    public void register(String protocol, URLStreamHandler handler) {
+        install();
+        URLStreamHandler previous = HANDLERS.put(protocol, handler);
+        if (previous != null && previous != handler) {
+            log.warning("URL handler for protocol " + protocol + " replaced");
+        }
+        registered.put(protocol, handler);
+        log.fine("URL handler for protocol " + protocol + " registered");
+    }
+
+    /**
+     * Unregister a URL stream handler.
+     *
+     * @param protocol the URL protocol (scheme).
+     * @param handler the URL stream handler to unregister (not removed if another handler has been registered since).
+     */
+    public void unregister(String protocol, URLStreamHandler handler) {
+        HANDLERS.remove(protocol, handler);
+        registered.remove(protocol, handler);
+    }
+
+    /**
+     * Retrieve the URL stream handler registered for a protocol.
+     *
+     * @param protocol the URL protocol (scheme).
+     * @return the URL stream handler, null if no handler is registered for the protocol.
+     */
+    public URLStreamHandler getHandler(String protocol) {
+        return HANDLERS.get(protocol);
+    }
+
+    /**
+     * Create a URL using the registered handler of the protocol (even if the JVM factory can't be installed).
+     *
+     * @param spec the URL.
+     * @return the URL.
+     * @throws MalformedURLException if the URL is not valid.
+     */
+    public URL createURL(String spec) throws MalformedURLException {
+        int index = spec.indexOf(':');
+        URLStreamHandler handler = index > 0 ? HANDLERS.get(spec.substring(0, index)) : null;
+        return new URL(null, spec, handler);
+    }
+
+    /**
+     * @return true if the multiplexing URL stream handler factory is installed in the JVM.
+     */
+    public static boolean isInstalled() {
+        return installed != null && installed;
+    }
+
+    private static void install() {
+        if (installed != null) {
+            return;
+        }
+        synchronized (URLHandlerService.class) {
+            if (installed == null) {
+                try {
+                    URL.setURLStreamHandlerFactory(new Factory());
+                    installed = true;
+                } catch (Error e) {
+                    log.warning("A URL stream handler factory is already installed, the Minho URL handlers are only available via URLHandlerService.createURL()");
+                    installed = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregister the handlers registered via this service.
+     */
+    @Override
+    public void close() {
+        registered.forEach(HANDLERS::remove);
+        registered.clear();
+    }
+
+    private static class Factory implements URLStreamHandlerFactory {
+
+        @Override
+        public URLStreamHandler createURLStreamHandler(String protocol) {
+            if (!HANDLERS.containsKey(protocol)) {
+                // the JVM looks for its own handler
+                return null;
+            }
+            return DELEGATES.computeIfAbsent(protocol, Delegate::new);
+        }
+
+    }
+
+    private static class Delegate extends URLStreamHandler {
+
+        private final String protocol;
+
+        Delegate(String protocol) {
+            this.protocol = protocol;
+        }
+
+        private URL delegate(URL url) throws IOException {
+            URLStreamHandler handler = HANDLERS.get(protocol);
+            if (handler == null) {
+                throw new IOException("No URL handler registered for protocol " + protocol);
+            }
+            return new URL(null, url.toExternalForm(), handler);
+        }
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            return delegate(url).openConnection();
+        }
+
+        @Override
+        protected URLConnection openConnection(URL url, Proxy proxy) throws IOException {
+            return delegate(url).openConnection(proxy);
+        }
+
+    }
+
+}
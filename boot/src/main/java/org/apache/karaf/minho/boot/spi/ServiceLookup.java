@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.boot.spi;
+
+import java.util.stream.Stream;
+
+/**
+ * Lookup of services managed outside of the Minho service registry (OSGi service registry for instance).
+ */
+public interface ServiceLookup {
+
+    /**
+     * Lookup the services matching the given type.
+     *
+     * @param serviceClass the looked up type.
+     * @param <T>          the expected type.
+     * @return the service instances matching the requested type.
+     */
+    <T> Stream<T> lookup(Class<T> serviceClass);
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.boot.minho;
+
+import org.apache.karaf.minho.boot.loader.IndexedClassLoader;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.ToolProvider;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexedClassLoaderTest {
+
+    private static void createJar(Path jar, Map<String, byte[]> entries) throws Exception {
+        Files.createDirectories(jar.getParent());
+        try (JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(jar.toFile()))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jarOutputStream.putNextEntry(new JarEntry(entry.getKey()));
+                jarOutputStream.write(entry.getValue());
+                jarOutputStream.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    void loadClassesAndResources() throws Exception {
+        Path lib = Files.createTempDirectory(Paths.get("target"), "indexed");
+        Files.writeString(lib.resolve("minho.json"), "{}");
+        createJar(lib.resolve("a.jar"), Map.of("foo/a.txt", "a".getBytes(StandardCharsets.UTF_8), "META-INF/services/test", "a".getBytes(StandardCharsets.UTF_8)));
+        createJar(lib.resolve("sub/b.jar"), Map.of("foo/b.txt", "b".getBytes(StandardCharsets.UTF_8), "META-INF/services/test", "b".getBytes(StandardCharsets.UTF_8)));
+
+        Path source = lib.resolve("src/indexed/Hello.java");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, "package indexed; public class Hello { public String toString() { return \"hello\"; } }");
+        Path classes = lib.resolve("classes");
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classes.toString(), source.toString()));
+        createJar(lib.resolve("c.jar"), Map.of("indexed/Hello.class", Files.readAllBytes(classes.resolve("indexed/Hello.class"))));
+
+        Path index = lib.resolve(".minho.index");
+        try (IndexedClassLoader classLoader = IndexedClassLoader.create(lib, index, getClass().getClassLoader())) {
+            assertEquals(3, classLoader.getJars().size());
+            assertNotNull(classLoader.getResource("minho.json"));
+            assertNotNull(classLoader.getResource("foo/a.txt"));
+            assertNotNull(classLoader.getResource("foo/b.txt"));
+            assertNull(classLoader.getResource("foo/c.txt"));
+            List<URL> services = Collections.list(classLoader.getResources("META-INF/services/test"));
+            assertEquals(2, services.size());
+
+            Class<?> hello = classLoader.loadClass("indexed.Hello");
+            assertSame(classLoader, hello.getClassLoader());
+            assertNotNull(hello.getPackage());
+            assertEquals("hello", hello.getDeclaredConstructor().newInstance().toString());
+            assertThrows(ClassNotFoundException.class, () -> classLoader.loadClass("indexed.Missing"));
+        }
+        assertTrue(Files.exists(index));
+
+        // index is reused while the jars don't change
+        String content = Files.readString(index);
+        try (IndexedClassLoader classLoader = IndexedClassLoader.create(lib, index, getClass().getClassLoader())) {
+            assertNotNull(classLoader.getResource("foo/b.txt"));
+        }
+        assertEquals(content, Files.readString(index));
+
+        // index is rebuilt when a jar is added
+        createJar(lib.resolve("d.jar"), Map.of("bar/d.txt", "d".getBytes(StandardCharsets.UTF_8)));
+        try (IndexedClassLoader classLoader = IndexedClassLoader.create(lib, index, getClass().getClassLoader())) {
+            assertNotNull(classLoader.getResource("bar/d.txt"));
+        }
+        assertTrue(Files.readString(index).contains("d.jar"));
+    }
+
+}
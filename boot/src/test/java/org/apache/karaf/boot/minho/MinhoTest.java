@@ -21,6 +21,9 @@ import org.apache.karaf.minho.boot.Minho;
 import org.apache.karaf.minho.boot.config.Config;
 import org.apache.karaf.minho.boot.service.ConfigService;
 import org.apache.karaf.minho.boot.service.LifeCycleService;
+import org.apache.karaf.minho.boot.service.ServiceRegistry;
+import org.apache.karaf.minho.boot.spi.Service;
+import org.apache.karaf.minho.boot.spi.ServiceLookup;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -64,4 +67,38 @@ class MinhoTest {
         Assertions.assertNotNull(instance.getServiceRegistry().get(ConfigService.class));
     }
 
+    @Test
+    void lookup() {
+        try (final var minho = Minho.builder()
+                .loader(() -> Stream.of(new ConfigService(), new LifeCycleService()))
+                .build()
+                .start()) {
+            final ServiceRegistry serviceRegistry = minho.getServiceRegistry();
+            assertEquals(2, serviceRegistry.findByType(Service.class).count());
+            assertEquals(null, serviceRegistry.get(Runnable.class));
+
+            final Runnable runnable = () -> {};
+            final ServiceLookup lookup = new ServiceLookup() {
+                @Override
+                public <T> Stream<T> lookup(Class<T> serviceClass) {
+                    return serviceClass.isInstance(runnable) ? Stream.of(serviceClass.cast(runnable)) : Stream.empty();
+                }
+            };
+            serviceRegistry.addLookup(lookup);
+            Assertions.assertSame(runnable, serviceRegistry.get(Runnable.class));
+            serviceRegistry.removeLookup(lookup);
+            assertEquals(null, serviceRegistry.get(Runnable.class));
+
+            final Service service = new Service() {};
+            serviceRegistry.add(service);
+            assertEquals(3, serviceRegistry.findByType(Service.class).count());
+            // the registry can't be updated behind the type index
+            assertEquals(3, serviceRegistry.getAll().size());
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> serviceRegistry.getAll().remove(service.getClass()));
+            serviceRegistry.remove(service);
+            assertEquals(2, serviceRegistry.findByType(Service.class).count());
+            assertEquals(2, serviceRegistry.getAll().size());
+        }
+    }
+
 }
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.boot.minho;
+
+import org.apache.karaf.minho.boot.loader.NestedJarClassLoader;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NestedJarClassLoaderTest {
+
+    private static byte[] jar(Map<String, byte[]> entries) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream jarOutputStream = new JarOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jarOutputStream.putNextEntry(new JarEntry(entry.getKey()));
+                jarOutputStream.write(entry.getValue());
+                jarOutputStream.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void loadFromNestedJars() throws Exception {
+        Path base = Files.createTempDirectory(Paths.get("target"), "nested");
+        Path source = base.resolve("src/nested/Hello.java");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, "package nested; public class Hello { public String toString() { return \"hello\"; } }");
+        Path classes = base.resolve("classes");
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classes.toString(), source.toString()));
+
+        Map<String, byte[]> nested = new LinkedHashMap<>();
+        nested.put("lib/a.jar", jar(Map.of("nested/Hello.class", Files.readAllBytes(classes.resolve("nested/Hello.class")),
+                "META-INF/services/test", "a".getBytes(StandardCharsets.UTF_8))));
+        nested.put("lib/b.jar", jar(Map.of("foo/b.txt", "b".repeat(1000).getBytes(StandardCharsets.UTF_8),
+                "META-INF/services/test", "b".getBytes(StandardCharsets.UTF_8))));
+        Path uberJar = base.resolve("uber.jar");
+        try (JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(uberJar.toFile()))) {
+            jarOutputStream.putNextEntry(new JarEntry("root.txt"));
+            jarOutputStream.write("root".getBytes(StandardCharsets.UTF_8));
+            jarOutputStream.closeEntry();
+            for (Map.Entry<String, byte[]> entry : nested.entrySet()) {
+                JarEntry jarEntry = new JarEntry(entry.getKey());
+                jarEntry.setMethod(ZipEntry.STORED);
+                jarEntry.setSize(entry.getValue().length);
+                CRC32 crc = new CRC32();
+                crc.update(entry.getValue());
+                jarEntry.setCrc(crc.getValue());
+                jarOutputStream.putNextEntry(jarEntry);
+                jarOutputStream.write(entry.getValue());
+                jarOutputStream.closeEntry();
+            }
+        }
+
+        try (NestedJarClassLoader classLoader = NestedJarClassLoader.create(uberJar, "lib/", getClass().getClassLoader())) {
+            assertEquals(2, classLoader.getJars().size());
+
+            Class<?> hello = classLoader.loadClass("nested.Hello");
+            assertSame(classLoader, hello.getClassLoader());
+            assertEquals("hello", hello.getDeclaredConstructor().newInstance().toString());
+            assertThrows(ClassNotFoundException.class, () -> classLoader.loadClass("nested.Missing"));
+
+            URL resource = classLoader.getResource("foo/b.txt");
+            assertNotNull(resource);
+            assertEquals(NestedJarClassLoader.PROTOCOL, resource.getProtocol());
+            try (InputStream inputStream = resource.openStream()) {
+                assertEquals("b".repeat(1000), new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            // the URL can be created again from its string form
+            try (InputStream inputStream = new URL(resource.toString()).openStream()) {
+                assertEquals("b".repeat(1000), new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            try (InputStream inputStream = resource.toURI().toURL().openStream()) {
+                assertEquals("b".repeat(1000), new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            URL codeSource = hello.getProtectionDomain().getCodeSource().getLocation();
+            try (JarInputStream jarInputStream = new JarInputStream(new URL(codeSource.toString()).openStream())) {
+                List<String> names = new ArrayList<>();
+                for (JarEntry entry = jarInputStream.getNextJarEntry(); entry != null; entry = jarInputStream.getNextJarEntry()) {
+                    names.add(entry.getName());
+                }
+                assertTrue(names.contains("nested/Hello.class"));
+            }
+            assertNull(classLoader.getResource("root.txt"));
+            assertEquals(2, Collections.list(classLoader.getResources("META-INF/services/test")).size());
+
+            // folder listing, the first nested jar wins
+            Map<String, NestedJarClassLoader.Resource> services = classLoader.listResources("META-INF/services");
+            assertEquals(Collections.singleton("test"), services.keySet());
+            try (InputStream inputStream = services.get("test").getUrl().openStream()) {
+                assertEquals("a", new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            NestedJarClassLoader.Resource b = classLoader.listResources("foo/").get("b.txt");
+            assertEquals(1000, b.getSize());
+            CRC32 crc = new CRC32();
+            crc.update("b".repeat(1000).getBytes(StandardCharsets.UTF_8));
+            assertEquals(crc.getValue(), b.getCrc());
+        }
+    }
+
+}
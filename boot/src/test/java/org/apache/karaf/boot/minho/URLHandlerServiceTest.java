@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.boot.minho;
+
+import org.apache.karaf.minho.boot.Minho;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+class URLHandlerServiceTest {
+
+    @Test
+    void registry() throws Exception {
+        URLHandlerService urlHandlerService = new URLHandlerService();
+        try (Minho minho = Minho.builder().loader(() -> Stream.of(urlHandlerService)).build().start()) {
+            Assertions.assertSame(urlHandlerService, minho.getServiceRegistry().get(URLHandlerService.class));
+            URLStreamHandler foo = handler("foo");
+            urlHandlerService.register("minho-test", foo);
+            Assertions.assertTrue(URLHandlerService.isInstalled());
+            Assertions.assertSame(foo, urlHandlerService.getHandler("minho-test"));
+            Assertions.assertEquals("foo", read(new URL("minho-test:resource")));
+            Assertions.assertEquals("foo", read(urlHandlerService.createURL("minho-test:resource")));
+
+            // the handler of the protocol can be replaced, even if the JVM cached the protocol handler
+            URLStreamHandler bar = handler("bar");
+            urlHandlerService.unregister("minho-test", foo);
+            Assertions.assertThrows(IOException.class, () -> read(new URL("minho-test:resource")));
+            urlHandlerService.register("minho-test", bar);
+            Assertions.assertEquals("bar", read(new URL("minho-test:resource")));
+
+            // the JVM handlers are still used for the other protocols
+            Assertions.assertEquals("file", new URL("file:/tmp").getProtocol());
+        }
+        // the handlers are unregistered when the service is closed
+        Assertions.assertNull(urlHandlerService.getHandler("minho-test"));
+    }
+
+    private static String read(URL url) throws IOException {
+        try (InputStream inputStream = url.openStream()) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static URLStreamHandler handler(String content) {
+        return new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new URLConnection(url) {
+                    @Override
+                    public void connect() {
+                        connected = true;
+                    }
+
+                    @Override
+                    public InputStream getInputStream() {
+                        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+                    }
+                };
+            }
+        };
+    }
+
+}
@@ -21,14 +21,49 @@ import lombok.extern.java.Log;
 import org.apache.camel.CamelContext;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.spi.StreamCachingStrategy;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.camel.util.concurrent.ThreadPoolRejectedPolicy;
+import org.apache.karaf.minho.boot.config.Config;
 import org.apache.karaf.minho.boot.service.LifeCycleService;
 import org.apache.karaf.minho.boot.service.ServiceRegistry;
 import org.apache.karaf.minho.boot.spi.Service;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Camel service, running the {@link RouteBuilder} services in Camel contexts.
+ * <p>
+ * The {@code default-camel-context} Camel context is always created. Additional isolated Camel contexts (with their
+ * own thread pools and lifecycle) are declared with the {@code camel.contexts} property, and a {@link RouteBuilder}
+ * service selects its Camel context with the {@code camelContext} service property.
+ * <p>
+ * The Camel contexts are configured with the {@code camel.*} properties (from the {@code Config} service), overridden
+ * per context with the {@code camel.context.<name>.*} properties: thread pool profiles, stream caching, message
+ * history, tracing and debugging, routes metrics.
+ * <p>
+ * The routes can be added, replaced and removed at runtime (without restarting the Camel context), with the service
+ * methods or with route files (XML or YAML) in the {@code camel.routes.directory} directory, watched for changes.
+ */
 @Log
 public class CamelService implements Service {
 
-    private DefaultCamelContext camelContext;
+    public final static String DEFAULT_CAMEL_CONTEXT = "default-camel-context";
+    public final static String CAMEL_CONTEXT_PROPERTY = "camelContext";
+
+    private final Map<String, DefaultCamelContext> camelContexts = new LinkedHashMap<>();
+    private final Map<String, MetricsRoutePolicyFactory> metrics = new ConcurrentHashMap<>();
+    private final Map<String, RouteFilesWatcher> watchers = new ConcurrentHashMap<>();
+    private Config config;
 
     @Override
     public String name() {
@@ -42,28 +77,351 @@ public class CamelService implements Service {
 
     @Override
     public void onRegister(ServiceRegistry serviceRegistry) {
-        log.info("Creating default CamelContext");
-        camelContext = new DefaultCamelContext();
-        camelContext.setName("default-camel-context");
+        config = serviceRegistry.get(Config.class);
+        List<String> names = new ArrayList<>();
+        names.add(DEFAULT_CAMEL_CONTEXT);
+        if (config != null && config.getProperty("camel.contexts") != null) {
+            for (String name : config.getProperty("camel.contexts").split(",")) {
+                if (!name.isBlank() && !names.contains(name.trim())) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        for (String name : names) {
+            log.info("Creating " + name + " CamelContext");
+            DefaultCamelContext camelContext = new DefaultCamelContext();
+            camelContext.setName(name);
+            if (config != null) {
+                configure(camelContext, config);
+            }
+            camelContexts.put(name, camelContext);
+        }
         log.info("Looking for RouteBuilder in the registry");
         serviceRegistry.findByType(RouteBuilder.class).forEach(routeBuilder -> {
+            String name = ((Service) routeBuilder).properties().getProperty(CAMEL_CONTEXT_PROPERTY, DEFAULT_CAMEL_CONTEXT);
+            DefaultCamelContext camelContext = camelContexts.get(name);
+            if (camelContext == null) {
+                log.warning("Can't add route " + ((Service) routeBuilder).name() + ": CamelContext " + name + " is not declared in camel.contexts");
+                return;
+            }
             try {
                 camelContext.addRoutes((RouteBuilder) routeBuilder);
             } catch (Exception e) {
-                log.warning("Can't add route in the default CamelContext: " + e.getMessage());
+                log.warning("Can't add route in the " + name + " CamelContext: " + e.getMessage());
             }
         });
+        if (config != null) {
+            camelContexts.values().forEach(camelContext -> {
+                String directory = property(config, camelContext.getName(), "routes.directory");
+                if (directory != null) {
+                    log.info("Loading routes from " + directory + " in " + camelContext.getName() + " CamelContext");
+                    RouteFilesWatcher watcher = new RouteFilesWatcher(this, camelContext, Paths.get(directory));
+                    watcher.scan();
+                    watchers.put(camelContext.getName(), watcher);
+                }
+            });
+        }
         LifeCycleService lifeCycleService = serviceRegistry.get(LifeCycleService.class);
         lifeCycleService.onStart(() -> {
-            camelContext.start();
+            camelContexts.values().forEach(camelContext -> {
+                if (config == null || Boolean.parseBoolean(property(config, camelContext.getName(), "autoStartup", "true"))) {
+                    camelContext.start();
+                }
+            });
+            watchers.forEach((name, watcher) -> {
+                if (Boolean.parseBoolean(property(config, name, "routes.watch", "true"))) {
+                    watcher.watch(Long.parseLong(property(config, name, "routes.interval", "1000")));
+                }
+            });
         });
         lifeCycleService.onShutdown(() -> {
-            camelContext.stop();
+            watchers.values().forEach(RouteFilesWatcher::close);
+            watchers.clear();
+            List<DefaultCamelContext> reverse = new ArrayList<>(camelContexts.values());
+            Collections.reverse(reverse);
+            reverse.forEach(camelContext -> {
+                camelContext.stop();
+                MetricsRoutePolicyFactory routeMetrics = metrics.remove(camelContext.getName());
+                if (routeMetrics != null) {
+                    routeMetrics.close(camelContext.getName());
+                }
+            });
         });
     }
 
+    /**
+     * Retrieve a property for a Camel context: {@code camel.context.<name>.<key>}, falling back to {@code camel.<key>}.
+     */
+    private static String property(Config config, String camelContext, String key, String defaultValue) {
+        String value = config.getProperty("camel.context." + camelContext + "." + key);
+        return value != null ? value : config.getProperty("camel." + key, defaultValue);
+    }
+
+    private static String property(Config config, String camelContext, String key) {
+        return property(config, camelContext, key, null);
+    }
+
+    /**
+     * Configure the Camel context with the {@code camel.*} and {@code camel.context.<name>.*} properties.
+     */
+    private void configure(DefaultCamelContext camelContext, Config config) {
+        String name = camelContext.getName();
+        Function<String, String> property = key -> property(config, name, key);
+
+        // thread pools: the default profile (threadPool.*) and the named profiles (threadPool.profiles)
+        ThreadPoolProfile defaultProfile = camelContext.getExecutorServiceManager().getDefaultThreadPoolProfile();
+        configure(defaultProfile, property, "threadPool.");
+        camelContext.getExecutorServiceManager().setDefaultThreadPoolProfile(defaultProfile);
+        if (property.apply("threadPool.profiles") != null) {
+            for (String id : property.apply("threadPool.profiles").split(",")) {
+                ThreadPoolProfile profile = defaultProfile.clone();
+                profile.setId(id.trim());
+                profile.setDefaultProfile(false);
+                configure(profile, property, "threadPool." + id.trim() + ".");
+                camelContext.getExecutorServiceManager().registerThreadPoolProfile(profile);
+                log.info("Thread pool profile " + profile + " in " + name + " CamelContext");
+            }
+        }
+
+        // virtual threads (if supported by the JDK) instead of the bounded platform thread pools
+        if (Boolean.parseBoolean(property(config, name, "virtualThreads", "false"))) {
+            if (VirtualThreadPoolFactory.isSupported()) {
+                VirtualThreadPoolFactory threadPoolFactory = new VirtualThreadPoolFactory(name);
+                threadPoolFactory.setCamelContext(camelContext);
+                camelContext.getExecutorServiceManager().setThreadPoolFactory(threadPoolFactory);
+                log.info("Using virtual threads in " + name + " CamelContext");
+            } else {
+                log.warning("Virtual threads are not supported by the JDK, using thread pools in " + name + " CamelContext");
+            }
+        }
+
+        // bounded concurrency per route (route.<routeId>.maxConcurrency, falling back to maxConcurrency)
+        camelContext.addRoutePolicyFactory((context, routeId, route) -> {
+            String maxConcurrency = property(config, name, "route." + routeId + ".maxConcurrency", property.apply("maxConcurrency"));
+            if (maxConcurrency == null || Integer.parseInt(maxConcurrency) <= 0) {
+                return null;
+            }
+            return new ConcurrencyRoutePolicy(routeId, Integer.parseInt(maxConcurrency));
+        });
+
+        // stream caching
+        if (property.apply("streamCaching") != null) {
+            camelContext.setStreamCaching(Boolean.parseBoolean(property.apply("streamCaching")));
+        }
+        StreamCachingStrategy streamCaching = camelContext.getStreamCachingStrategy();
+        if (property.apply("streamCaching.spoolEnabled") != null) {
+            streamCaching.setSpoolEnabled(Boolean.parseBoolean(property.apply("streamCaching.spoolEnabled")));
+        }
+        if (property.apply("streamCaching.spoolThreshold") != null) {
+            streamCaching.setSpoolThreshold(Long.parseLong(property.apply("streamCaching.spoolThreshold")));
+        }
+        if (property.apply("streamCaching.spoolDirectory") != null) {
+            streamCaching.setSpoolDirectory(property.apply("streamCaching.spoolDirectory"));
+        }
+        if (property.apply("streamCaching.bufferSize") != null) {
+            streamCaching.setBufferSize(Integer.parseInt(property.apply("streamCaching.bufferSize")));
+        }
+
+        // observability features, costing throughput (disabled by default)
+        camelContext.setMessageHistory(Boolean.parseBoolean(property(config, name, "messageHistory", "false")));
+        camelContext.setTracing(Boolean.parseBoolean(property(config, name, "tracing", "false")));
+        camelContext.setBacklogTracing(Boolean.parseBoolean(property(config, name, "backlogTracing", "false")));
+        camelContext.setDebugging(Boolean.parseBoolean(property(config, name, "debug", "false")));
+
+        // routes metrics (enabled by default), published as MBeans (enabled by default)
+        if (Boolean.parseBoolean(property(config, name, "metrics", "true"))) {
+            MetricsRoutePolicyFactory routeMetrics = new MetricsRoutePolicyFactory(Boolean.parseBoolean(property(config, name, "metrics.jmx", "true")));
+            camelContext.addRoutePolicyFactory(routeMetrics);
+            metrics.put(name, routeMetrics);
+        }
+    }
+
+    private static void configure(ThreadPoolProfile profile, Function<String, String> property, String prefix) {
+        if (property.apply(prefix + "poolSize") != null) {
+            profile.setPoolSize(Integer.parseInt(property.apply(prefix + "poolSize")));
+        }
+        if (property.apply(prefix + "maxPoolSize") != null) {
+            profile.setMaxPoolSize(Integer.parseInt(property.apply(prefix + "maxPoolSize")));
+        }
+        if (property.apply(prefix + "maxQueueSize") != null) {
+            profile.setMaxQueueSize(Integer.parseInt(property.apply(prefix + "maxQueueSize")));
+        }
+        if (property.apply(prefix + "keepAliveTime") != null) {
+            profile.setKeepAliveTime(Long.parseLong(property.apply(prefix + "keepAliveTime")));
+        }
+        if (property.apply(prefix + "allowCoreThreadTimeOut") != null) {
+            profile.setAllowCoreThreadTimeOut(Boolean.parseBoolean(property.apply(prefix + "allowCoreThreadTimeOut")));
+        }
+        if (property.apply(prefix + "rejectedPolicy") != null) {
+            profile.setRejectedPolicy(ThreadPoolRejectedPolicy.valueOf(property.apply(prefix + "rejectedPolicy")));
+        }
+    }
+
+    /**
+     * Retrieve the default Camel context.
+     *
+     * @return the {@code default-camel-context} Camel context.
+     */
     public CamelContext getCamelContext() {
+        return getCamelContext(DEFAULT_CAMEL_CONTEXT);
+    }
+
+    /**
+     * Retrieve a Camel context.
+     *
+     * @param name the Camel context name.
+     * @return the Camel context, or {@code null} if the Camel context is not declared.
+     */
+    public CamelContext getCamelContext(String name) {
+        return camelContexts.get(name);
+    }
+
+    /**
+     * Retrieve all Camel contexts.
+     *
+     * @return the Camel contexts, by name.
+     */
+    public Map<String, CamelContext> getCamelContexts() {
+        return Collections.unmodifiableMap(camelContexts);
+    }
+
+    /**
+     * Start a Camel context (and its routes), independently of the other Camel contexts.
+     *
+     * @param name the Camel context name.
+     */
+    public void startCamelContext(String name) {
+        lookup(name).start();
+    }
+
+    /**
+     * Stop a Camel context (and its routes, waiting for the inflight exchanges), independently of the other Camel contexts.
+     *
+     * @param name the Camel context name.
+     */
+    public void stopCamelContext(String name) {
+        lookup(name).stop();
+    }
+
+    /**
+     * Add or replace routes in a running Camel context, without restarting the Camel context (the other routes keep
+     * running). A route with the ID of an existing route replaces the existing route, after the inflight exchanges of
+     * the existing route are completed (drain, up to the {@code camel.routes.drainTimeout} seconds). If the new version
+     * of a route can't be created, the existing route is restored (the routes before it in the builder stay replaced).
+     *
+     * @param camelContext the Camel context name.
+     * @param routeBuilder the routes to add or replace.
+     * @throws Exception if the routes can't be added.
+     */
+    public void updateRoutes(String camelContext, RouteBuilder routeBuilder) throws Exception {
+        DefaultCamelContext context = lookup(camelContext);
+        updateRoutes(context, routeBuilder.configureRoutes(context).getRoutes());
+    }
+
+    /**
+     * Remove a route from a running Camel context, after the inflight exchanges of the route are completed (drain, up
+     * to the {@code camel.routes.drainTimeout} seconds).
+     *
+     * @param camelContext the Camel context name.
+     * @param routeId the route ID.
+     * @return true if the route has been removed, false if the route doesn't exist.
+     * @throws Exception if the route can't be removed.
+     */
+    public boolean removeRoute(String camelContext, String routeId) throws Exception {
+        return removeRoute(lookup(camelContext), routeId);
+    }
+
+    void updateRoutes(DefaultCamelContext camelContext, List<RouteDefinition> definitions) throws Exception {
+        // one route at a time, limiting the unavailability of each route to its own drain
+        for (RouteDefinition definition : definitions) {
+            RouteDefinition current = null;
+            if (definition.getId() != null) {
+                // drain and remove the current version of the route
+                current = camelContext.getRouteDefinition(definition.getId());
+                removeRoute(camelContext, definition.getId());
+            }
+            try {
+                camelContext.addRouteDefinition(definition);
+            } catch (Exception e) {
+                // the new version can't be created (invalid endpoint, ...): restore the current version of the route
+                if (current != null) {
+                    try {
+                        removeRoute(camelContext, definition.getId());
+                        camelContext.addRouteDefinition(current);
+                        log.warning("Can't replace route " + definition.getId() + ", the current version is restored: " + e.getMessage());
+                    } catch (Exception restore) {
+                        e.addSuppressed(restore);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    boolean removeRoute(DefaultCamelContext camelContext, String routeId) throws Exception {
+        RouteDefinition definition = camelContext.getRouteDefinition(routeId);
+        if (camelContext.getRoute(routeId) == null && definition == null) {
+            return false;
+        }
+        if (camelContext.getRoute(routeId) != null) {
+            long timeout = config != null ? Long.parseLong(property(config, camelContext.getName(), "routes.drainTimeout", "30")) : 30;
+            camelContext.getRouteController().stopRoute(routeId, timeout, TimeUnit.SECONDS);
+        }
+        if (definition != null) {
+            camelContext.removeRouteDefinition(definition);
+        } else {
+            camelContext.removeRoute(routeId);
+        }
+        return true;
+    }
+
+    private DefaultCamelContext lookup(String name) {
+        DefaultCamelContext camelContext = camelContexts.get(name);
+        if (camelContext == null) {
+            throw new IllegalArgumentException("CamelContext " + name + " doesn't exist");
+        }
         return camelContext;
     }
 
+    /**
+     * Metrics of the routes of the default Camel context (empty if the metrics are disabled with {@code camel.metrics=false}).
+     *
+     * @return the routes metrics, by route ID.
+     */
+    public Map<String, RouteMetrics> getRouteMetrics() {
+        return getContextRouteMetrics(DEFAULT_CAMEL_CONTEXT);
+    }
+
+    /**
+     * Metrics of a route of the default Camel context.
+     *
+     * @param routeId the route ID.
+     * @return the route metrics, or {@code null} if the route doesn't exist or the metrics are disabled.
+     */
+    public RouteMetrics getRouteMetrics(String routeId) {
+        return getRouteMetrics(DEFAULT_CAMEL_CONTEXT, routeId);
+    }
+
+    /**
+     * Metrics of a route.
+     *
+     * @param camelContext the Camel context name.
+     * @param routeId the route ID.
+     * @return the route metrics, or {@code null} if the route doesn't exist or the metrics are disabled.
+     */
+    public RouteMetrics getRouteMetrics(String camelContext, String routeId) {
+        return getContextRouteMetrics(camelContext).get(routeId);
+    }
+
+    /**
+     * Metrics of the routes of a Camel context (empty if the metrics are disabled).
+     *
+     * @param camelContext the Camel context name.
+     * @return the routes metrics, by route ID.
+     */
+    public Map<String, RouteMetrics> getContextRouteMetrics(String camelContext) {
+        MetricsRoutePolicyFactory routeMetrics = metrics.get(camelContext);
+        return routeMetrics != null ? Collections.unmodifiableMap(routeMetrics.getMetrics()) : Collections.emptyMap();
+    }
+
 }
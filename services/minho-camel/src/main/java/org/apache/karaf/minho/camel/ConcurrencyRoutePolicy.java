@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.camel;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Route;
+import org.apache.camel.support.RoutePolicySupport;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Route policy bounding the number of exchanges concurrently processed by a route.
+ * <p>
+ * The exchange creator (the route consumer or the caller for a {@code direct} route) waits for a permit, providing
+ * backpressure when the route can't keep up (with virtual threads, the waiting threads are cheap).
+ */
+class ConcurrencyRoutePolicy extends RoutePolicySupport {
+
+    private final Semaphore semaphore;
+    private final int maxConcurrency;
+    private final String property;
+
+    ConcurrencyRoutePolicy(String routeId, int maxConcurrency) {
+        this.semaphore = new Semaphore(maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+        this.property = "MinhoRouteConcurrency" + routeId;
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    int getAvailablePermits() {
+        return semaphore.availablePermits();
+    }
+
+    @Override
+    public void onExchangeBegin(Route route, Exchange exchange) {
+        try {
+            semaphore.acquire();
+            exchange.setProperty(property, Boolean.TRUE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.setException(e);
+        }
+    }
+
+    @Override
+    public void onExchangeDone(Route route, Exchange exchange) {
+        if (exchange.removeProperty(property) != null) {
+            semaphore.release();
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.camel;
+
+import lombok.extern.java.Log;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.NamedNode;
+import org.apache.camel.Route;
+import org.apache.camel.spi.RoutePolicy;
+import org.apache.camel.spi.RoutePolicyFactory;
+import org.apache.camel.support.RoutePolicySupport;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Route policy factory collecting the {@link RouteMetrics} of the routes, optionally published as MBeans
+ * ({@code org.apache.karaf.minho:type=camel,context=<context>,route=<route>}).
+ */
+@Log
+class MetricsRoutePolicyFactory implements RoutePolicyFactory {
+
+    private final static String START_PROPERTY = "MinhoRouteMetricsStart";
+
+    private final Map<String, RouteMetrics> metrics = new ConcurrentHashMap<>();
+    private final boolean jmx;
+
+    MetricsRoutePolicyFactory(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    Map<String, RouteMetrics> getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public RoutePolicy createRoutePolicy(CamelContext camelContext, String routeId, NamedNode route) {
+        RouteMetrics routeMetrics = new RouteMetrics(camelContext.getName(), routeId);
+        metrics.put(routeId, routeMetrics);
+        ObjectName objectName = jmx ? register(routeMetrics) : null;
+        return new RoutePolicySupport() {
+            @Override
+            public void onExchangeBegin(Route route, Exchange exchange) {
+                exchange.setProperty(START_PROPERTY + routeId, System.nanoTime());
+                routeMetrics.begin();
+            }
+
+            @Override
+            public void onExchangeDone(Route route, Exchange exchange) {
+                Long start = exchange.getProperty(START_PROPERTY + routeId, Long.class);
+                exchange.removeProperty(START_PROPERTY + routeId);
+                routeMetrics.done(start != null ? System.nanoTime() - start : 0, exchange.isFailed());
+            }
+
+            @Override
+            public void onRemove(Route route) {
+                metrics.remove(routeId, routeMetrics);
+                if (objectName != null) {
+                    unregister(objectName);
+                }
+            }
+        };
+    }
+
+    private ObjectName register(RouteMetrics routeMetrics) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.apache.karaf.minho:type=camel,context=" + ObjectName.quote(routeMetrics.getCamelContext())
+                    + ",route=" + ObjectName.quote(routeMetrics.getRouteId()));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(routeMetrics, objectName);
+            return objectName;
+        } catch (Exception e) {
+            log.warning("Can't register route " + routeMetrics.getRouteId() + " metrics MBean: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void unregister(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.fine("Can't unregister " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unregister the MBeans of the routes.
+     */
+    void close(String camelContext) {
+        if (!jmx) {
+            metrics.clear();
+            return;
+        }
+        metrics.values().forEach(routeMetrics -> {
+            try {
+                unregister(new ObjectName("org.apache.karaf.minho:type=camel,context=" + ObjectName.quote(camelContext)
+                        + ",route=" + ObjectName.quote(routeMetrics.getRouteId())));
+            } catch (Exception e) {
+                // ignore
+            }
+        });
+        metrics.clear();
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.camel;
+
+import lombok.extern.java.Log;
+import org.apache.camel.ExtendedCamelContext;
+import org.apache.camel.RoutesBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.model.RoutesDefinition;
+import org.apache.camel.spi.Resource;
+import org.apache.camel.xml.jaxb.JaxbHelper;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Load the routes defined in the files (XML or YAML) of a directory in a Camel context, and reload the routes when the
+ * files are created, updated or deleted (polling the directory).
+ * <p>
+ * The XML files are loaded with {@code camel-xml-jaxb} (if available), the other files with the Camel routes loaders
+ * (for instance, {@code camel-yaml-dsl} for the YAML files).
+ */
+@Log
+class RouteFilesWatcher implements AutoCloseable {
+
+    private final static boolean JAXB = isJaxbAvailable();
+
+    private final CamelService camelService;
+    private final DefaultCamelContext camelContext;
+    private final Path directory;
+    private final Map<Path, RouteFile> files = new HashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    RouteFilesWatcher(CamelService camelService, DefaultCamelContext camelContext, Path directory) {
+        this.camelService = camelService;
+        this.camelContext = camelContext;
+        this.directory = directory;
+    }
+
+    /**
+     * Poll the directory periodically.
+     *
+     * @param interval the polling interval (in milliseconds).
+     */
+    synchronized void watch(long interval) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "minho-camel-routes-" + camelContext.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::scan, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Scan the directory, (re)loading the created or updated files, and removing the routes of the deleted files.
+     */
+    synchronized void scan() {
+        Map<Path, long[]> current = new HashMap<>();
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> stream = Files.list(directory)) {
+                for (Path file : stream.filter(RouteFilesWatcher::isRouteFile).collect(Collectors.toList())) {
+                    current.put(file, new long[]{ Files.getLastModifiedTime(file).toMillis(), Files.size(file) });
+                }
+            } catch (Exception e) {
+                log.warning("Can't scan routes directory " + directory + ": " + e.getMessage());
+                return;
+            }
+        }
+        for (Path file : new ArrayList<>(files.keySet())) {
+            if (!current.containsKey(file)) {
+                log.info("Removing routes from " + file);
+                removeRoutes(files.remove(file).routeIds);
+            }
+        }
+        current.forEach((file, state) -> {
+            RouteFile routeFile = files.get(file);
+            if (routeFile != null && routeFile.lastModified == state[0] && routeFile.size == state[1]) {
+                return;
+            }
+            List<RouteDefinition> definitions;
+            try {
+                definitions = load(file);
+            } catch (Exception e) {
+                // keep the current routes until the file is fixed
+                log.warning("Can't load routes from " + file + ": " + e.getMessage());
+                files.put(file, new RouteFile(state[0], state[1], routeFile != null ? routeFile.routeIds : Collections.emptySet()));
+                return;
+            }
+            log.info((routeFile == null ? "Loading" : "Reloading") + " routes from " + file);
+            // the routes without ID get a stable ID (from the file name), so they are replaced when the file is updated
+            String prefix = file.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+            for (int i = 0; i < definitions.size(); i++) {
+                if (definitions.get(i).getId() == null) {
+                    definitions.get(i).setId(prefix + "-" + (i + 1));
+                }
+            }
+            Set<String> routeIds = definitions.stream().map(RouteDefinition::getId).collect(Collectors.toSet());
+            if (routeFile != null) {
+                // the routes removed from the file (or without ID) are removed first, avoiding consumers conflicts
+                Set<String> stale = new HashSet<>(routeFile.routeIds);
+                definitions.stream().map(RouteDefinition::getId).forEach(stale::remove);
+                removeRoutes(stale);
+            }
+            try {
+                camelService.updateRoutes(camelContext, definitions);
+            } catch (Exception e) {
+                // only track the routes actually in the Camel context (updated or restored)
+                log.warning("Can't update routes from " + file + ": " + e.getMessage());
+                if (routeFile != null) {
+                    routeIds.addAll(routeFile.routeIds);
+                }
+                routeIds.removeIf(routeId -> camelContext.getRouteDefinition(routeId) == null && camelContext.getRoute(routeId) == null);
+            }
+            files.put(file, new RouteFile(state[0], state[1], routeIds));
+        });
+    }
+
+    private void removeRoutes(Set<String> routeIds) {
+        for (String routeId : routeIds) {
+            try {
+                camelService.removeRoute(camelContext, routeId);
+            } catch (Exception e) {
+                log.warning("Can't remove route " + routeId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private List<RouteDefinition> load(Path file) throws Exception {
+        if (JAXB && file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".xml")) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                RoutesDefinition routes = JaxbHelper.loadRoutesDefinition(camelContext, inputStream);
+                return routes != null ? routes.getRoutes() : Collections.emptyList();
+            }
+        }
+        ExtendedCamelContext extendedCamelContext = camelContext.adapt(ExtendedCamelContext.class);
+        Resource resource = extendedCamelContext.getResourceLoader().resolveResource("file:" + file.toAbsolutePath());
+        List<RouteDefinition> definitions = new ArrayList<>();
+        for (RoutesBuilder routesBuilder : extendedCamelContext.getRoutesLoader().findRoutesBuilders(resource)) {
+            if (routesBuilder instanceof RouteBuilder) {
+                definitions.addAll(((RouteBuilder) routesBuilder).configureRoutes(camelContext).getRoutes());
+            }
+        }
+        return definitions;
+    }
+
+    private static boolean isRouteFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return Files.isRegularFile(file) && (name.endsWith(".xml") || name.endsWith(".yaml") || name.endsWith(".yml"));
+    }
+
+    private static boolean isJaxbAvailable() {
+        try {
+            Class.forName("org.apache.camel.xml.jaxb.JaxbHelper", false, RouteFilesWatcher.class.getClassLoader());
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private static class RouteFile {
+
+        private final long lastModified;
+        private final long size;
+        private final Set<String> routeIds;
+
+        RouteFile(long lastModified, long size, Set<String> routeIds) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.routeIds = routeIds;
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.camel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a Camel route: exchanges counts and rates, inflight exchanges, and processing time histogram.
+ * <p>
+ * The processing time histogram is log-linear (8 buckets per power of two of microseconds, so 12.5% precision), lock
+ * free. The one minute rate is an exponentially weighted moving average, updated every 5 seconds.
+ */
+public class RouteMetrics implements RouteMetricsMBean {
+
+    private final static int SUB_BUCKETS = 8;
+    private final static int BUCKETS = (64 - 2) * SUB_BUCKETS;
+    private final static long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private final static double ALPHA = 1 - Math.exp(-5.0 / 60.0);
+
+    private final String camelContext;
+    private final String routeId;
+
+    private final LongAdder total = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder inflight = new LongAdder();
+    private final LongAdder totalTime = new LongAdder();
+    private final AtomicLong minTime = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxTime = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick = new AtomicLong();
+    private volatile double rate = -1;
+    private volatile long start;
+
+    public RouteMetrics(String camelContext, String routeId) {
+        this.camelContext = camelContext;
+        this.routeId = routeId;
+        this.start = System.nanoTime();
+        this.lastTick.set(start);
+    }
+
+    /**
+     * An exchange starts in the route.
+     */
+    public void begin() {
+        inflight.increment();
+    }
+
+    /**
+     * An exchange is done in the route.
+     *
+     * @param nanos the processing time (in nanoseconds).
+     * @param failure true if the exchange failed.
+     */
+    public void done(long nanos, boolean failure) {
+        inflight.decrement();
+        total.increment();
+        if (failure) {
+            failed.increment();
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        totalTime.add(micros);
+        histogram.incrementAndGet(bucket(micros));
+        long min;
+        while (micros < (min = minTime.get()) && !minTime.compareAndSet(min, micros)) {
+            // retry
+        }
+        long max;
+        while (micros > (max = maxTime.get()) && !maxTime.compareAndSet(max, micros)) {
+            // retry
+        }
+        tickIfNecessary();
+        uncounted.increment();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - 2) * SUB_BUCKETS + (int) ((value >> (exponent - 3)) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 2;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+    }
+
+    private void tickIfNecessary() {
+        long now = System.nanoTime();
+        long last = lastTick.get();
+        long age = now - last;
+        if (age > TICK_INTERVAL) {
+            long ticks = age / TICK_INTERVAL;
+            if (lastTick.compareAndSet(last, last + ticks * TICK_INTERVAL)) {
+                synchronized (this) {
+                    for (long i = 0; i < ticks; i++) {
+                        double instant = uncounted.sumThenReset() / (double) TimeUnit.NANOSECONDS.toSeconds(TICK_INTERVAL);
+                        rate = rate < 0 ? instant : rate + ALPHA * (instant - rate);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getCamelContext() {
+        return camelContext;
+    }
+
+    @Override
+    public String getRouteId() {
+        return routeId;
+    }
+
+    @Override
+    public long getExchangesTotal() {
+        return total.sum();
+    }
+
+    @Override
+    public long getExchangesFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getExchangesInflight() {
+        return inflight.sum();
+    }
+
+    @Override
+    public double getMeanRate() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return seconds > 0 ? total.sum() / seconds : 0;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return Math.max(0, rate);
+    }
+
+    @Override
+    public double getMeanProcessingTime() {
+        long count = total.sum();
+        return count > 0 ? totalTime.sum() / (double) count / 1000 : 0;
+    }
+
+    @Override
+    public long getMinProcessingTime() {
+        long min = minTime.get();
+        return min == Long.MAX_VALUE ? 0 : TimeUnit.MICROSECONDS.toMillis(min);
+    }
+
+    @Override
+    public long getMaxProcessingTime() {
+        return TimeUnit.MICROSECONDS.toMillis(maxTime.get());
+    }
+
+    /**
+     * @param percentile the percentile (between 0 and 1).
+     * @return the processing time percentile (in milliseconds).
+     */
+    public double getProcessingTimePercentile(double percentile) {
+        long count = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * count);
+        long cumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulated += counts[i];
+            if (cumulated >= Math.max(1, rank)) {
+                return lowerBound(i) / 1000.0;
+            }
+        }
+        return lowerBound(BUCKETS - 1) / 1000.0;
+    }
+
+    @Override
+    public double getProcessingTime50thPercentile() {
+        return getProcessingTimePercentile(0.5);
+    }
+
+    @Override
+    public double getProcessingTime95thPercentile() {
+        return getProcessingTimePercentile(0.95);
+    }
+
+    @Override
+    public double getProcessingTime99thPercentile() {
+        return getProcessingTimePercentile(0.99);
+    }
+
+    @Override
+    public synchronized void reset() {
+        total.reset();
+        failed.reset();
+        totalTime.reset();
+        minTime.set(Long.MAX_VALUE);
+        maxTime.set(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+        uncounted.reset();
+        rate = -1;
+        start = System.nanoTime();
+        lastTick.set(start);
+    }
+
+}
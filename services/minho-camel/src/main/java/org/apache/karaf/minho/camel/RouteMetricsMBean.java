@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.camel;
+
+/**
+ * Metrics of a Camel route (JMX).
+ */
+public interface RouteMetricsMBean {
+
+    String getCamelContext();
+
+    String getRouteId();
+
+    long getExchangesTotal();
+
+    long getExchangesFailed();
+
+    long getExchangesInflight();
+
+    /**
+     * @return the mean rate (exchanges per second) since the route start.
+     */
+    double getMeanRate();
+
+    /**
+     * @return the one minute exponentially weighted moving average rate (exchanges per second).
+     */
+    double getOneMinuteRate();
+
+    /**
+     * @return the mean processing time (in milliseconds).
+     */
+    double getMeanProcessingTime();
+
+    long getMinProcessingTime();
+
+    long getMaxProcessingTime();
+
+    /**
+     * @return the median processing time (in milliseconds, histogram precision).
+     */
+    double getProcessingTime50thPercentile();
+
+    double getProcessingTime95thPercentile();
+
+    double getProcessingTime99thPercentile();
+
+    void reset();
+
+}
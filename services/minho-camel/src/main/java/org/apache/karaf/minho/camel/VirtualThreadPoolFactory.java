@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.camel;
+
+import lombok.extern.java.Log;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.camel.support.DefaultThreadPoolFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread pool factory creating virtual thread per task executors (when the JDK supports virtual threads), instead of
+ * bounded platform thread pools. The scheduled thread pools still use platform threads.
+ * <p>
+ * The virtual threads API is used by reflection as Minho targets JDKs without virtual threads.
+ */
+@Log
+class VirtualThreadPoolFactory extends DefaultThreadPoolFactory {
+
+    private final static Method OF_VIRTUAL;
+    private final static Method NAME;
+    private final static Method FACTORY;
+    private final static Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // preview API on JDK 19/20: fails if preview features are not enabled
+            ofVirtual.invoke(null);
+        } catch (Throwable t) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private final String name;
+
+    VirtualThreadPoolFactory(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Check if the JDK supports virtual threads.
+     *
+     * @return true if the virtual threads are supported, false else.
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    @Override
+    public ExecutorService newCachedThreadPool(ThreadFactory threadFactory) {
+        return newVirtualThreadPerTaskExecutor();
+    }
+
+    @Override
+    public ExecutorService newThreadPool(ThreadPoolProfile profile, ThreadFactory threadFactory) {
+        return newVirtualThreadPerTaskExecutor();
+    }
+
+    private ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), "minho-camel-" + name + "-virtual-", 0L);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, FACTORY.invoke(builder));
+        } catch (Exception e) {
+            throw new IllegalStateException("Can't create virtual thread executor", e);
+        }
+    }
+
+}
@@ -18,12 +18,32 @@
 package org.apache.karaf.minho.camel;
 
 import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.spi.ThreadPoolProfile;
 import org.apache.karaf.minho.boot.Minho;
 import org.apache.karaf.minho.boot.service.ConfigService;
 import org.apache.karaf.minho.boot.service.LifeCycleService;
+import org.apache.karaf.minho.boot.spi.Service;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
 public class CamelServiceTest {
@@ -46,4 +66,294 @@ public class CamelServiceTest {
         karaf.close();
     }
 
+    @Test
+    public void tuningAndMetricsTest() throws Exception {
+        ConfigService config = new ConfigService();
+        config.getProperties().put("camel.threadPool.poolSize", "4");
+        config.getProperties().put("camel.threadPool.maxPoolSize", "8");
+        config.getProperties().put("camel.threadPool.maxQueueSize", "100");
+        config.getProperties().put("camel.threadPool.rejectedPolicy", "CallerRuns");
+        config.getProperties().put("camel.threadPool.profiles", "bulk");
+        config.getProperties().put("camel.threadPool.bulk.maxPoolSize", "32");
+        config.getProperties().put("camel.streamCaching", "true");
+        config.getProperties().put("camel.streamCaching.spoolThreshold", "1048576");
+        config.getProperties().put("camel.messageHistory", "true");
+        CamelService camelService = new CamelService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), new MyRouteBuilder(), camelService)).build().start();
+
+        ThreadPoolProfile defaultProfile = camelService.getCamelContext().getExecutorServiceManager().getDefaultThreadPoolProfile();
+        Assertions.assertEquals(4, defaultProfile.getPoolSize());
+        Assertions.assertEquals(8, defaultProfile.getMaxPoolSize());
+        Assertions.assertEquals(100, defaultProfile.getMaxQueueSize());
+        ThreadPoolProfile bulkProfile = camelService.getCamelContext().getExecutorServiceManager().getThreadPoolProfile("bulk");
+        Assertions.assertEquals(4, bulkProfile.getPoolSize());
+        Assertions.assertEquals(32, bulkProfile.getMaxPoolSize());
+        Assertions.assertTrue(camelService.getCamelContext().isStreamCaching());
+        Assertions.assertEquals(1048576, camelService.getCamelContext().getStreamCachingStrategy().getSpoolThreshold());
+        Assertions.assertTrue(camelService.getCamelContext().isMessageHistory());
+        Assertions.assertFalse(camelService.getCamelContext().isDebugging());
+
+        MockEndpoint mockEndpoint = camelService.getCamelContext().getEndpoint("mock:test", MockEndpoint.class);
+        mockEndpoint.expectedMessageCount(10);
+        ProducerTemplate producerTemplate = camelService.getCamelContext().createProducerTemplate();
+        for (int i = 0; i < 10; i++) {
+            producerTemplate.sendBody("direct:test", "Hello " + i);
+        }
+        mockEndpoint.assertIsSatisfied();
+
+        RouteMetrics metrics = camelService.getRouteMetrics("test-route");
+        Assertions.assertNotNull(metrics);
+        Assertions.assertEquals(10, metrics.getExchangesTotal());
+        Assertions.assertEquals(0, metrics.getExchangesFailed());
+        Assertions.assertEquals(0, metrics.getExchangesInflight());
+        Assertions.assertTrue(metrics.getMaxProcessingTime() >= metrics.getMinProcessingTime());
+        Assertions.assertTrue(metrics.getProcessingTime99thPercentile() >= metrics.getProcessingTime50thPercentile());
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.apache.karaf.minho:type=camel,context=" + ObjectName.quote("default-camel-context") + ",route=" + ObjectName.quote("test-route"));
+        Assertions.assertEquals(10L, mBeanServer.getAttribute(name, "ExchangesTotal"));
+
+        minho.close();
+
+        Assertions.assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void multipleContextsTest() throws Exception {
+        ConfigService config = new ConfigService();
+        config.getProperties().put("camel.contexts", "bulk");
+        config.getProperties().put("camel.threadPool.maxPoolSize", "8");
+        config.getProperties().put("camel.context.bulk.threadPool.maxPoolSize", "64");
+        CamelService camelService = new CamelService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), new MyRouteBuilder(), new BulkRouteBuilder(), camelService)).build().start();
+
+        Assertions.assertEquals(2, camelService.getCamelContexts().size());
+        Assertions.assertEquals(8, camelService.getCamelContext().getExecutorServiceManager().getDefaultThreadPoolProfile().getMaxPoolSize());
+        Assertions.assertEquals(64, camelService.getCamelContext("bulk").getExecutorServiceManager().getDefaultThreadPoolProfile().getMaxPoolSize());
+        Assertions.assertNotNull(camelService.getCamelContext().getRoute("test-route"));
+        Assertions.assertNull(camelService.getCamelContext().getRoute("bulk-route"));
+        Assertions.assertNotNull(camelService.getCamelContext("bulk").getRoute("bulk-route"));
+
+        MockEndpoint bulkEndpoint = camelService.getCamelContext("bulk").getEndpoint("mock:bulk", MockEndpoint.class);
+        bulkEndpoint.expectedMessageCount(1);
+        camelService.getCamelContext("bulk").createProducerTemplate().sendBody("direct:bulk", "bulk");
+        bulkEndpoint.assertIsSatisfied();
+        Assertions.assertEquals(1, camelService.getRouteMetrics("bulk", "bulk-route").getExchangesTotal());
+
+        // stopping the bulk context doesn't impact the default one
+        camelService.stopCamelContext("bulk");
+        Assertions.assertTrue(camelService.getCamelContext("bulk").isStopped());
+        Assertions.assertTrue(camelService.getCamelContext().isStarted());
+        MockEndpoint mockEndpoint = camelService.getCamelContext().getEndpoint("mock:test", MockEndpoint.class);
+        mockEndpoint.expectedMessageCount(1);
+        camelService.getCamelContext().createProducerTemplate().sendBody("direct:test", "test");
+        mockEndpoint.assertIsSatisfied();
+
+        camelService.startCamelContext("bulk");
+        Assertions.assertTrue(camelService.getCamelContext("bulk").isStarted());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> camelService.stopCamelContext("unknown"));
+
+        minho.close();
+    }
+
+    public static class BulkRouteBuilder extends RouteBuilder implements Service {
+
+        @Override
+        public String name() {
+            return "bulk-route";
+        }
+
+        @Override
+        public Properties properties() {
+            Properties properties = new Properties();
+            properties.put(CamelService.CAMEL_CONTEXT_PROPERTY, "bulk");
+            return properties;
+        }
+
+        @Override
+        public void configure() throws Exception {
+            from("direct:bulk").id(name()).to("mock:bulk");
+        }
+
+    }
+
+    @Test
+    public void maxConcurrencyTest() throws Exception {
+        ConfigService config = new ConfigService();
+        config.getProperties().put("camel.virtualThreads", "true");
+        config.getProperties().put("camel.route.blocking-route.maxConcurrency", "2");
+        CamelService camelService = new CamelService();
+        BlockingRouteBuilder routeBuilder = new BlockingRouteBuilder(20);
+        Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), routeBuilder, camelService)).build().start();
+
+        ProducerTemplate producerTemplate = camelService.getCamelContext().createProducerTemplate();
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(producerTemplate.asyncSendBody("direct:blocking", i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+        Assertions.assertEquals(10, routeBuilder.processed.get());
+        Assertions.assertTrue(routeBuilder.maxConcurrent.get() <= 2, "Max concurrent exchanges " + routeBuilder.maxConcurrent.get());
+        Assertions.assertEquals(VirtualThreadPoolFactory.isSupported(), camelService.getCamelContext().getExecutorServiceManager().getThreadPoolFactory() instanceof VirtualThreadPoolFactory);
+
+        minho.close();
+    }
+
+    /**
+     * Compare the throughput of a blocking route (the stub endpoint is called after a 10ms blocking call) with thread
+     * pools and with virtual threads (when supported by the JDK). The exchanges are sent asynchronously, using the
+     * Camel context executor service.
+     * Run with {@code mvn test -Dtest=CamelServiceTest#blockingRouteBenchmark -Dminho.benchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "minho.benchmark", matches = "true")
+    public void blockingRouteBenchmark() throws Exception {
+        int exchanges = Integer.parseInt(System.getProperty("minho.benchmark.exchanges", "5000"));
+        System.out.println("Thread pools: " + blockingRouteThroughput(false, exchanges) + " exchanges/s");
+        if (VirtualThreadPoolFactory.isSupported()) {
+            System.out.println("Virtual threads: " + blockingRouteThroughput(true, exchanges) + " exchanges/s");
+        } else {
+            System.out.println("Virtual threads: not supported by the JDK");
+        }
+    }
+
+    private long blockingRouteThroughput(boolean virtualThreads, int exchanges) throws Exception {
+        ConfigService config = new ConfigService();
+        config.getProperties().put("camel.virtualThreads", Boolean.toString(virtualThreads));
+        config.getProperties().put("camel.metrics", "false");
+        config.getProperties().put("camel.threadPool.maxQueueSize", "-1");
+        config.getProperties().put("camel.route.blocking-route.maxConcurrency", "1000");
+        CamelService camelService = new CamelService();
+        BlockingRouteBuilder routeBuilder = new BlockingRouteBuilder(10);
+        Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), routeBuilder, camelService)).build().start();
+        try {
+            ProducerTemplate producerTemplate = camelService.getCamelContext().createProducerTemplate();
+            List<CompletableFuture<Object>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < exchanges; i++) {
+                futures.add(producerTemplate.asyncSendBody("direct:blocking", i));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            return exchanges * 1_000_000_000L / (System.nanoTime() - start);
+        } finally {
+            minho.close();
+        }
+    }
+
+    public static class BlockingRouteBuilder extends RouteBuilder implements Service {
+
+        private final long blockingTime;
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+
+        public BlockingRouteBuilder(long blockingTime) {
+            this.blockingTime = blockingTime;
+        }
+
+        @Override
+        public String name() {
+            return "blocking-route";
+        }
+
+        @Override
+        public void configure() throws Exception {
+            from("direct:blocking").id(name())
+                    .process(exchange -> {
+                        // simulate a blocking call (HTTP, JDBC, ...)
+                        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                        Thread.sleep(blockingTime);
+                        concurrent.decrementAndGet();
+                        processed.incrementAndGet();
+                    })
+                    .to("stub:result?discardWhenFull=true");
+        }
+
+    }
+
+    @Test
+    public void hotReloadTest() throws Exception {
+        CamelService camelService = new CamelService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(new ConfigService(), new LifeCycleService(), new MyRouteBuilder(), new BlockingRouteBuilder(500), camelService)).build().start();
+
+        // replace a route while an exchange is inflight: the exchange completes on the old version
+        CompletableFuture<Object> inflight = camelService.getCamelContext().createProducerTemplate().asyncRequestBody("direct:blocking", "old");
+        await(() -> camelService.getRouteMetrics("blocking-route").getExchangesInflight() == 1);
+        camelService.updateRoutes(CamelService.DEFAULT_CAMEL_CONTEXT, new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:blocking").id("blocking-route").setBody(constant("new"));
+            }
+        });
+        Assertions.assertTrue(inflight.isDone());
+        Assertions.assertEquals("old", inflight.get());
+        Assertions.assertEquals("new", camelService.getCamelContext().createProducerTemplate().requestBody("direct:blocking", "old"));
+
+        // a broken new version restores the current version of the route
+        Assertions.assertThrows(Exception.class, () -> camelService.updateRoutes(CamelService.DEFAULT_CAMEL_CONTEXT, new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:blocking").id("blocking-route").to("unknown:endpoint");
+            }
+        }));
+        Assertions.assertTrue(camelService.getCamelContext().getRouteController().getRouteStatus("blocking-route").isStarted());
+        Assertions.assertEquals("new", camelService.getCamelContext().createProducerTemplate().requestBody("direct:blocking", "old"));
+
+        // the other routes are not impacted
+        Assertions.assertTrue(camelService.getCamelContext().getRouteController().getRouteStatus("test-route").isStarted());
+
+        Assertions.assertTrue(camelService.removeRoute(CamelService.DEFAULT_CAMEL_CONTEXT, "blocking-route"));
+        Assertions.assertNull(camelService.getCamelContext().getRoute("blocking-route"));
+        Assertions.assertFalse(camelService.removeRoute(CamelService.DEFAULT_CAMEL_CONTEXT, "blocking-route"));
+
+        minho.close();
+    }
+
+    @Test
+    public void routeFilesTest() throws Exception {
+        Path directory = Paths.get("target/routes");
+        Files.createDirectories(directory);
+        Path file = directory.resolve("routes.xml");
+        Files.write(file, xmlRoute("v1").getBytes(StandardCharsets.UTF_8));
+
+        ConfigService config = new ConfigService();
+        config.getProperties().put("camel.routes.directory", directory.toString());
+        config.getProperties().put("camel.routes.interval", "100");
+        CamelService camelService = new CamelService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), camelService)).build().start();
+
+        ProducerTemplate producerTemplate = camelService.getCamelContext().createProducerTemplate();
+        Assertions.assertEquals("v1", producerTemplate.requestBody("direct:file", ""));
+
+        Files.write(file, xmlRoute("v2").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+        await(() -> "v2".equals(producerTemplate.requestBody("direct:file", "")));
+
+        // a broken new version doesn't replace the running route
+        Files.write(file, xmlRoute("v3").replace("direct:file", "unknown:file").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 4000));
+        Thread.sleep(500);
+        Assertions.assertEquals("v2", producerTemplate.requestBody("direct:file", ""));
+
+        Files.delete(file);
+        await(() -> camelService.getCamelContext().getRoute("file-route") == null);
+
+        minho.close();
+    }
+
+    private static String xmlRoute(String body) {
+        return "<routes xmlns=\"http://camel.apache.org/schema/spring\">"
+                + "<route id=\"file-route\"><from uri=\"direct:file\"/><setBody><constant>" + body + "</constant></setBody></route>"
+                + "</routes>";
+    }
+
+    private static void await(BooleanSupplier condition) throws Exception {
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < timeout, "Timeout");
+            Thread.sleep(50);
+        }
+    }
+
 }
@@ -18,7 +18,9 @@
 package org.apache.karaf.minho.classpathprotocolhandler;
 
 import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.config.Config;
 import org.apache.karaf.minho.boot.service.ServiceRegistry;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
 import org.apache.karaf.minho.boot.spi.Service;
 
 import java.net.URL;
@@ -33,7 +35,25 @@ public class ClasspathProtocolService implements Service {
 
     @Override
     public void onRegister(final ServiceRegistry serviceRegistry) throws Exception {
-        URL.setURLStreamHandlerFactory(new ClasspathURLStreamHandlerFactory());
+        Config config = serviceRegistry.get(Config.class);
+        if (config != null) {
+            long cacheSize = 0;
+            if (config.getProperty("classpath.cache.size") != null) {
+                cacheSize = Long.parseLong(config.getProperty("classpath.cache.size"));
+            }
+            long maxEntrySize = 64 * 1024;
+            if (config.getProperty("classpath.cache.maxEntrySize") != null) {
+                maxEntrySize = Long.parseLong(config.getProperty("classpath.cache.maxEntrySize"));
+            }
+            ClasspathResources.configure(cacheSize, maxEntrySize);
+        }
+        URLHandlerService urlHandlerService = serviceRegistry.get(URLHandlerService.class);
+        if (urlHandlerService != null) {
+            urlHandlerService.register("classpath", new ClasspathURLStreamHandler());
+        } else {
+            log.warning("URL handler service is not registered, installing the classpath URL stream handler factory");
+            URL.setURLStreamHandlerFactory(new ClasspathURLStreamHandlerFactory());
+        }
     }
 
 }
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.classpathprotocolhandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the {@code classpath:} resources: the resolved location (file or jar entry) and metadata of the resources
+ * (per class loader), and optionally the content of the small resources (bounded LRU cache).
+ */
+class ClasspathResources {
+
+    private static final Map<ClassLoader, Map<String, Resource>> RESOLVED = new WeakHashMap<>();
+    private static final LinkedHashMap<Resource, byte[]> CONTENT = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static volatile long cacheSize = 0;
+    private static volatile long maxEntrySize = 64 * 1024;
+    private static long cached;
+
+    /**
+     * Configure the content cache.
+     *
+     * @param size the maximum size (in bytes) of the cached content, 0 to disable the content cache.
+     * @param maxEntry the maximum size (in bytes) of a cached resource.
+     */
+    static void configure(long size, long maxEntry) {
+        cacheSize = size;
+        maxEntrySize = maxEntry;
+        synchronized (CONTENT) {
+            evict();
+        }
+    }
+
+    /**
+     * Resolve a resource in the class loader, the resolution is cached.
+     *
+     * @return the resource, null if not found.
+     */
+    static Resource resolve(ClassLoader classLoader, String location) throws IOException {
+        Map<String, Resource> resolved;
+        synchronized (RESOLVED) {
+            resolved = RESOLVED.computeIfAbsent(classLoader, key -> new ConcurrentHashMap<>());
+        }
+        Resource resource = resolved.get(location);
+        if (resource != null && resource.isValid()) {
+            return resource;
+        }
+        URL url = classLoader.getResource(location);
+        if (url == null) {
+            resolved.remove(location);
+            return null;
+        }
+        resource = new Resource(url);
+        resolved.put(location, resource);
+        return resource;
+    }
+
+    static void clear() {
+        synchronized (RESOLVED) {
+            RESOLVED.clear();
+        }
+        synchronized (CONTENT) {
+            CONTENT.clear();
+            cached = 0;
+        }
+    }
+
+    static long cached() {
+        synchronized (CONTENT) {
+            return cached;
+        }
+    }
+
+    private static void evict() {
+        Iterator<byte[]> iterator = CONTENT.values().iterator();
+        while (cached > cacheSize && iterator.hasNext()) {
+            cached -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Resolved resource: file or URL (jar entry, ...) with its metadata.
+     */
+    static class Resource {
+
+        private final URL url;
+        private final Path file;
+        private final long length;
+        private final long lastModified;
+
+        Resource(URL url) throws IOException {
+            this.url = url;
+            Path path = null;
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    path = Paths.get(url.toURI());
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    // not a file path
+                }
+            }
+            this.file = path;
+            if (file != null) {
+                length = Files.size(file);
+                lastModified = Files.getLastModifiedTime(file).toMillis();
+            } else {
+                URLConnection connection = url.openConnection();
+                if (connection instanceof JarURLConnection && ((JarURLConnection) connection).getJarEntry() != null) {
+                    length = ((JarURLConnection) connection).getJarEntry().getSize();
+                    lastModified = ((JarURLConnection) connection).getJarEntry().getTime();
+                } else {
+                    length = connection.getContentLengthLong();
+                    lastModified = connection.getLastModified();
+                }
+            }
+        }
+
+        URL getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the file containing the resource, null if the resource is not a file (jar entry, ...).
+         */
+        Path getFile() {
+            return file;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * A file resource is valid while the file is not modified, other resources (in jar files) are immutable.
+         */
+        boolean isValid() {
+            if (file == null) {
+                return true;
+            }
+            try {
+                return Files.size(file) == length && Files.getLastModifiedTime(file).toMillis() == lastModified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Open the resource, from the content cache if enabled and the resource is small enough.
+         */
+        InputStream open() throws IOException {
+            if (cacheSize <= 0 || length < 0 || length > Math.min(maxEntrySize, cacheSize)) {
+                return file != null ? Files.newInputStream(file) : url.openStream();
+            }
+            byte[] content;
+            synchronized (CONTENT) {
+                content = CONTENT.get(this);
+            }
+            if (content == null) {
+                try (InputStream inputStream = file != null ? Files.newInputStream(file) : url.openStream()) {
+                    content = inputStream.readAllBytes();
+                }
+                synchronized (CONTENT) {
+                    if (CONTENT.put(this, content) == null) {
+                        cached += content.length;
+                    }
+                    evict();
+                }
+            }
+            return new ByteArrayInputStream(content);
+        }
+
+    }
+
+}
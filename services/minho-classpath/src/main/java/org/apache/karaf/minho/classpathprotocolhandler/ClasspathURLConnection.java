@@ -23,29 +23,87 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 @Log
 public class ClasspathURLConnection extends URLConnection {
 
+    private ClasspathResources.Resource resource;
+
     protected ClasspathURLConnection(URL url) {
         super(url);
     }
 
     @Override
     public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
         log.fine("Connecting to " + url);
+        String location = url.toString().substring("classpath:".length());
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = ClasspathURLConnection.class.getClassLoader();
+        }
+        resource = ClasspathResources.resolve(classLoader, location);
+        if (resource == null) {
+            throw new IOException(location + " not found in classpath");
+        }
+        connected = true;
     }
 
     @Override
     public InputStream getInputStream() throws IOException {
-        log.info("Reading from " + url);
-        String location = url.toString().substring("classpath:".length());
-        log.info("Location: " + location);
-        InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(location);
-        if (inputStream == null) {
-            throw new IOException(location + " not found in classpath");
+        connect();
+        return resource.open();
+    }
+
+    /**
+     * Read-only channel on the resource, if the resource is a file (the channel can be mapped in memory).
+     *
+     * @return the file channel, null if the resource is not a file (jar entry, ...).
+     */
+    public FileChannel getChannel() throws IOException {
+        connect();
+        if (resource.getFile() == null) {
+            return null;
         }
-        return inputStream;
+        return FileChannel.open(resource.getFile(), StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the resolved URL of the resource (file or jar entry).
+     */
+    public URL getResolvedURL() throws IOException {
+        connect();
+        return resource.getUrl();
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        try {
+            connect();
+            return resource.getLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public long getLastModified() {
+        try {
+            connect();
+            return resource.getLastModified();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        String contentType = guessContentTypeFromName(url.getPath());
+        return contentType != null ? contentType : "content/unknown";
     }
 
 }
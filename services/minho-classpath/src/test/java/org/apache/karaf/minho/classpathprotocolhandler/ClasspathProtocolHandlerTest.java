@@ -23,9 +23,12 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
 public class ClasspathProtocolHandlerTest {
 
@@ -49,6 +52,43 @@ public class ClasspathProtocolHandlerTest {
         Assertions.assertEquals("This is a test!", builder.toString());
     }
 
+    @Test
+    public void metadata() throws Exception {
+        URL url = new URL("classpath:foo/bar.txt");
+        ClasspathURLConnection connection = (ClasspathURLConnection) url.openConnection();
+        Assertions.assertEquals(15, connection.getContentLengthLong());
+        Assertions.assertTrue(connection.getLastModified() > 0);
+        Assertions.assertEquals("text/plain", connection.getContentType());
+        try (FileChannel channel = connection.getChannel()) {
+            Assertions.assertNotNull(channel);
+            Assertions.assertEquals(15, channel.size());
+        }
+        // the resolution is cached
+        ClasspathURLConnection other = (ClasspathURLConnection) url.openConnection();
+        Assertions.assertSame(connection.getResolvedURL(), other.getResolvedURL());
+
+        Assertions.assertEquals(-1, new URL("classpath:foo/missing.txt").openConnection().getContentLengthLong());
+    }
+
+    @Test
+    public void contentCache() throws Exception {
+        ClasspathResources.clear();
+        ClasspathResources.configure(1024, 64);
+        try {
+            URL url = new URL("classpath:foo/bar.txt");
+            for (int i = 0; i < 2; i++) {
+                try (InputStream inputStream = url.openStream()) {
+                    Assertions.assertEquals("This is a test!", new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+            Assertions.assertEquals(15, ClasspathResources.cached());
+            ClasspathResources.configure(10, 64);
+            Assertions.assertEquals(0, ClasspathResources.cached());
+        } finally {
+            ClasspathResources.configure(0, 64 * 1024);
+        }
+    }
+
     @Test
     public void nonManagedURL() {
         try {
@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.eventbus;
+
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Default {@link Topic}: each subscription has its own bounded queue, drained by at most one task at a time on the
+ * topic executor (keeping the events order for the subscriber).
+ */
+@Log
+class DefaultTopic<T> implements Topic<T> {
+
+    /**
+     * Max number of events delivered by a drain task before giving the thread back to the other subscriptions.
+     */
+    private final static int THROUGHPUT = 1024;
+
+    private final String name;
+    private final Class<T> type;
+    private final TopicConfig config;
+    private final Executor executor;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    // copy on write (the publishers iterate without lock)
+    private volatile List<DefaultSubscription> subscriptions = Collections.emptyList();
+    private volatile boolean closed;
+
+    /**
+     * @param executor the executor dispatching the events, null for a {@code SYNC} dispatch.
+     */
+    DefaultTopic(String name, Class<T> type, TopicConfig config, Executor executor) {
+        this.name = name;
+        this.type = type;
+        this.config = config;
+        this.executor = executor;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Class<T> getType() {
+        return type;
+    }
+
+    TopicConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public boolean publish(T event) {
+        Objects.requireNonNull(event, "event");
+        if (!type.isInstance(event)) {
+            throw new IllegalArgumentException("Topic " + name + " accepts " + type.getName() + " events, not " + event.getClass().getName());
+        }
+        if (closed) {
+            throw new IllegalStateException("Topic " + name + " is closed");
+        }
+        published.increment();
+        boolean accepted = true;
+        List<DefaultSubscription> current = subscriptions;
+        for (int i = 0; i < current.size(); i++) {
+            accepted &= current.get(i).offer(event);
+        }
+        return accepted;
+    }
+
+    @Override
+    public Subscription subscribe(Consumer<? super T> consumer) {
+        return add(new DefaultSubscription(Objects.requireNonNull(consumer, "consumer"), null));
+    }
+
+    @Override
+    public Subscription subscribeBatch(Consumer<List<T>> consumer) {
+        return add(new DefaultSubscription(null, Objects.requireNonNull(consumer, "consumer")));
+    }
+
+    private synchronized Subscription add(DefaultSubscription subscription) {
+        if (closed) {
+            throw new IllegalStateException("Topic " + name + " is closed");
+        }
+        List<DefaultSubscription> updated = new ArrayList<>(subscriptions);
+        updated.add(subscription);
+        subscriptions = updated;
+        return subscription;
+    }
+
+    private synchronized void remove(DefaultSubscription subscription) {
+        List<DefaultSubscription> updated = new ArrayList<>(subscriptions);
+        if (updated.remove(subscription)) {
+            subscriptions = updated;
+        }
+    }
+
+    @Override
+    public long getPublished() {
+        return published.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Close the topic: the publications are rejected, the pending events are delivered until the deadline.
+     *
+     * @param deadline the deadline ({@link System#nanoTime()}) for the pending events delivery.
+     */
+    void close(long deadline) {
+        closed = true;
+        for (DefaultSubscription subscription : subscriptions) {
+            while (subscription.isBusy() && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            subscription.close();
+        }
+    }
+
+    class DefaultSubscription implements Subscription, Runnable {
+
+        private final Consumer<? super T> consumer;
+        private final Consumer<List<T>> batchConsumer;
+        private final EventQueue<T> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        DefaultSubscription(Consumer<? super T> consumer, Consumer<List<T>> batchConsumer) {
+            this.consumer = consumer;
+            this.batchConsumer = batchConsumer;
+            if (executor == null) {
+                this.queue = null;
+            } else if (config.getQueue() == TopicConfig.Queue.BLOCKING) {
+                this.queue = new BlockingEventQueue<>(config.getCapacity());
+            } else {
+                this.queue = new RingBufferQueue<>(config.getCapacity());
+            }
+        }
+
+        boolean offer(T event) {
+            if (closed) {
+                return true;
+            }
+            if (queue == null) {
+                deliver(event);
+                return true;
+            }
+            if (!queue.offer(event) && !backpressure(event)) {
+                dropped.increment();
+                return false;
+            }
+            schedule();
+            return true;
+        }
+
+        private boolean backpressure(T event) {
+            switch (config.getBackpressure()) {
+                case DROP_NEWEST:
+                    return false;
+                case DROP_OLDEST:
+                    do {
+                        if (queue.poll() != null) {
+                            dropped.increment();
+                        }
+                    } while (!queue.offer(event));
+                    return true;
+                case FAIL:
+                    throw new IllegalStateException("Topic " + name + " subscription queue is full");
+                default:
+                    // BLOCK: wait for the consumer, with an exponential backoff
+                    long backoff = 1000;
+                    do {
+                        schedule();
+                        if (closed || DefaultTopic.this.closed) {
+                            return false;
+                        }
+                        LockSupport.parkNanos(backoff);
+                        if (Thread.interrupted()) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("Interrupted while publishing on topic " + name);
+                        }
+                        backoff = Math.min(backoff * 2, TimeUnit.MILLISECONDS.toNanos(1));
+                    } while (!queue.offer(event));
+                    return true;
+            }
+        }
+
+        private void schedule() {
+            if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    log.warning("Can't dispatch events on topic " + name + ": " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Drain the queue, delivering the events to the subscriber.
+         */
+        @Override
+        public void run() {
+            int delivered = 0;
+            try {
+                while (!closed && delivered < THROUGHPUT) {
+                    T event = queue.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    if (batchConsumer != null) {
+                        List<T> batch = new ArrayList<>(Math.min(config.getBatchSize(), queue.size() + 1));
+                        batch.add(event);
+                        queue.drain(batch, config.getBatchSize() - 1);
+                        deliver(batch);
+                        delivered += batch.size();
+                    } else {
+                        deliver(event);
+                        delivered++;
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                if (!closed && !queue.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        private void deliver(T event) {
+            try {
+                if (batchConsumer != null) {
+                    batchConsumer.accept(Collections.singletonList(event));
+                } else {
+                    consumer.accept(event);
+                }
+            } catch (Throwable t) {
+                failed.increment();
+                log.log(Level.WARNING, "Subscriber failed on topic " + name, t);
+            }
+        }
+
+        private void deliver(List<T> batch) {
+            try {
+                batchConsumer.accept(batch);
+            } catch (Throwable t) {
+                failed.add(batch.size());
+                log.log(Level.WARNING, "Subscriber failed on topic " + name, t);
+            }
+        }
+
+        boolean isBusy() {
+            return !closed && queue != null && (scheduled.get() || !queue.isEmpty());
+        }
+
+        @Override
+        public int getPending() {
+            return queue != null ? queue.size() : 0;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            remove(this);
+        }
+
+    }
+
+}
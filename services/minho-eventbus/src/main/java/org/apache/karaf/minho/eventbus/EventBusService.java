@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.eventbus;
+
+import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.config.Config;
+import org.apache.karaf.minho.boot.service.ServiceRegistry;
+import org.apache.karaf.minho.boot.spi.Service;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process event bus: the services publish and consume events on typed topics, without knowing each other.
+ * <p>
+ * The topics are configured with the {@code eventbus.*} properties (from the {@code Config} service), overridden per
+ * topic with the {@code eventbus.topic.<name>.*} properties, or programmatically with a {@link TopicConfig}.
+ */
+@Log
+public class EventBusService implements Service, AutoCloseable {
+
+    private final Map<String, DefaultTopic<?>> topics = new ConcurrentHashMap<>();
+    private Config config;
+    private long shutdownTimeout = 10;
+    private volatile ExecutorService pool;
+    private volatile ExecutorService virtual;
+
+    @Override
+    public String name() {
+        return "minho-eventbus-service";
+    }
+
+    @Override
+    public int priority() {
+        // available for the services publishing/subscribing in onRegister
+        return -DEFAULT_PRIORITY / 2;
+    }
+
+    @Override
+    public void onRegister(ServiceRegistry serviceRegistry) {
+        config = serviceRegistry.get(Config.class);
+        if (config != null && config.getProperty("eventbus.shutdownTimeout") != null) {
+            shutdownTimeout = Long.parseLong(config.getProperty("eventbus.shutdownTimeout"));
+        }
+    }
+
+    /**
+     * Get a topic, creating it if it doesn't exist (configured with the {@code eventbus.topic.<name>.*} and
+     * {@code eventbus.*} properties).
+     *
+     * @param name the topic name.
+     * @param type the events type.
+     * @param <T> the events type.
+     * @return the topic.
+     * @throws IllegalArgumentException if the topic exists with another events type.
+     */
+    public <T> Topic<T> topic(String name, Class<T> type) {
+        return topic(name, type, null);
+    }
+
+    /**
+     * Get a topic, creating it with the given configuration if it doesn't exist.
+     *
+     * @param name the topic name.
+     * @param type the events type.
+     * @param topicConfig the topic configuration (used if the topic doesn't exist).
+     * @param <T> the events type.
+     * @return the topic.
+     * @throws IllegalArgumentException if the topic exists with another events type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Topic<T> topic(String name, Class<T> type, TopicConfig topicConfig) {
+        DefaultTopic<?> topic = topics.computeIfAbsent(name, key -> {
+            TopicConfig effective = topicConfig != null ? topicConfig : config(name);
+            log.fine("Creating topic " + name + " (" + effective.getDispatch() + ", " + effective.getQueue() + ")");
+            return new DefaultTopic<>(name, type, effective, executor(effective));
+        });
+        if (topic.getType() != type) {
+            throw new IllegalArgumentException("Topic " + name + " already exists with " + topic.getType().getName() + " events");
+        }
+        return (Topic<T>) topic;
+    }
+
+    /**
+     * @return the names of the existing topics.
+     */
+    public Set<String> getTopics() {
+        return Collections.unmodifiableSet(topics.keySet());
+    }
+
+    private TopicConfig config(String name) {
+        TopicConfig.TopicConfigBuilder builder = TopicConfig.builder();
+        if (property(name, "dispatch") != null) {
+            builder.dispatch(TopicConfig.Dispatch.valueOf(constant(property(name, "dispatch"))));
+        }
+        if (property(name, "queue") != null) {
+            builder.queue(TopicConfig.Queue.valueOf(constant(property(name, "queue"))));
+        }
+        if (property(name, "capacity") != null) {
+            builder.capacity(Integer.parseInt(property(name, "capacity")));
+        }
+        if (property(name, "backpressure") != null) {
+            builder.backpressure(TopicConfig.Backpressure.valueOf(constant(property(name, "backpressure"))));
+        }
+        if (property(name, "batchSize") != null) {
+            builder.batchSize(Integer.parseInt(property(name, "batchSize")));
+        }
+        return builder.build();
+    }
+
+    private String property(String topic, String key) {
+        if (config == null) {
+            return null;
+        }
+        String value = config.getProperty("eventbus.topic." + topic + "." + key);
+        return value != null ? value : config.getProperty("eventbus." + key);
+    }
+
+    /**
+     * Convert a property value (like {@code ringBuffer}, {@code ring-buffer} or {@code RING_BUFFER}) to an enum constant name.
+     */
+    private static String constant(String value) {
+        return value.replaceAll("([a-z])([A-Z])", "$1_$2").replace('-', '_').toUpperCase(Locale.ROOT);
+    }
+
+    private Executor executor(TopicConfig topicConfig) {
+        if (topicConfig.getExecutor() != null) {
+            return topicConfig.getExecutor();
+        }
+        switch (topicConfig.getDispatch()) {
+            case SYNC:
+                return null;
+            case VIRTUAL:
+                if (virtual == null) {
+                    synchronized (this) {
+                        if (virtual == null) {
+                            virtual = newVirtualThreadPerTaskExecutor();
+                        }
+                    }
+                }
+                if (virtual != null) {
+                    return virtual;
+                }
+                log.warning("Virtual threads are not supported by the JDK, using the thread pool");
+                // fall back to the thread pool
+            default:
+                if (pool == null) {
+                    synchronized (this) {
+                        if (pool == null) {
+                            int threads = Runtime.getRuntime().availableProcessors();
+                            if (config != null && config.getProperty("eventbus.threads") != null) {
+                                threads = Integer.parseInt(config.getProperty("eventbus.threads"));
+                            }
+                            pool = Executors.newFixedThreadPool(threads, new EventBusThreadFactory());
+                        }
+                    }
+                }
+                return pool;
+        }
+    }
+
+    /**
+     * Create a virtual thread per task executor (by reflection, as Minho targets JDKs without virtual threads).
+     *
+     * @return the executor, or null if the JDK doesn't support virtual threads.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Close the topics (the pending events are delivered, up to {@code eventbus.shutdownTimeout} seconds) and stop the
+     * dispatch threads.
+     */
+    @Override
+    public void close() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeout);
+        topics.values().forEach(topic -> topic.close(deadline));
+        topics.clear();
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (virtual != null) {
+            virtual.shutdownNow();
+        }
+    }
+
+    private static class EventBusThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "minho-eventbus-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.eventbus;
+
+import java.util.List;
+
+/**
+ * Bounded queue of a subscription, supporting concurrent producers and consumers.
+ */
+interface EventQueue<T> {
+
+    boolean offer(T event);
+
+    T poll();
+
+    /**
+     * Move up to {@code max} events from the queue to the list.
+     *
+     * @return the number of moved events.
+     */
+    int drain(List<T> events, int max);
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.eventbus;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Typed topic of the event bus. Each subscriber receives all the events published after its subscription, in the
+ * publication order (for a given publisher thread).
+ *
+ * @param <T> the events type.
+ */
+public interface Topic<T> {
+
+    String getName();
+
+    Class<T> getType();
+
+    /**
+     * Publish an event to the subscribers.
+     *
+     * @param event the event.
+     * @return true if all the subscribers accepted the event, false if the event has been dropped for a subscriber
+     * (full queue with {@code DROP_NEWEST} backpressure).
+     * @throws IllegalStateException if a subscriber queue is full with {@code FAIL} backpressure, or the topic is closed.
+     */
+    boolean publish(T event);
+
+    /**
+     * Subscribe to the topic, receiving the events one by one.
+     *
+     * @param consumer the events consumer.
+     * @return the subscription (closing it unsubscribes the consumer).
+     */
+    Subscription subscribe(Consumer<? super T> consumer);
+
+    /**
+     * Subscribe to the topic, receiving the events in batches (up to the topic {@code batchSize} events, with the
+     * events available in the queue when the consumer is called).
+     *
+     * @param consumer the events batches consumer.
+     * @return the subscription (closing it unsubscribes the consumer).
+     */
+    Subscription subscribeBatch(Consumer<List<T>> consumer);
+
+    /**
+     * @return the number of events published on the topic.
+     */
+    long getPublished();
+
+    /**
+     * @return the number of events dropped (for a subscriber) because of a full queue.
+     */
+    long getDropped();
+
+    /**
+     * @return the number of events on which a subscriber failed.
+     */
+    long getFailed();
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.eventbus;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Configuration of a topic: dispatch, subscription queues, backpressure and batch size.
+ */
+@Builder
+@Getter
+public class TopicConfig {
+
+    /**
+     * How the events are dispatched to the subscribers.
+     */
+    public enum Dispatch {
+        /** The subscribers are called in the publisher thread (no queue). */
+        SYNC,
+        /** The subscribers are called by the event bus thread pool. */
+        POOLED,
+        /** The subscribers are called by virtual threads (if supported by the JDK, else the thread pool is used). */
+        VIRTUAL
+    }
+
+    /**
+     * Subscription queue implementation.
+     */
+    public enum Queue {
+        /** Lock based bounded queue. */
+        BLOCKING,
+        /** Lock-free bounded ring buffer (the capacity is rounded to a power of two), for the high rate topics. */
+        RING_BUFFER
+    }
+
+    /**
+     * What a publisher does when a subscription queue is full.
+     */
+    public enum Backpressure {
+        /** The publisher waits for room in the queue. */
+        BLOCK,
+        /** The published event is dropped for this subscription ({@code publish()} returns false). */
+        DROP_NEWEST,
+        /** The oldest event of the queue is dropped. */
+        DROP_OLDEST,
+        /** {@code publish()} throws an {@link IllegalStateException}. */
+        FAIL
+    }
+
+    @Builder.Default
+    private final Dispatch dispatch = Dispatch.POOLED;
+
+    @Builder.Default
+    private final Queue queue = Queue.RING_BUFFER;
+
+    @Builder.Default
+    private final int capacity = 1024;
+
+    @Builder.Default
+    private final Backpressure backpressure = Backpressure.BLOCK;
+
+    /**
+     * Max number of events delivered in a batch to the batch subscribers.
+     */
+    @Builder.Default
+    private final int batchSize = 256;
+
+    /**
+     * Custom executor used to dispatch the events (instead of the {@code dispatch} one).
+     */
+    private final Executor executor;
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.eventbus;
+
+import org.apache.karaf.minho.boot.Minho;
+import org.apache.karaf.minho.boot.service.ConfigService;
+import org.apache.karaf.minho.boot.service.LifeCycleService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+public class EventBusServiceTest {
+
+    @Test
+    public void pooledTest() throws Exception {
+        EventBusService eventBus = new EventBusService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(new ConfigService(), new LifeCycleService(), eventBus)).build().start();
+
+        Topic<Integer> topic = minho.getServiceRegistry().get(EventBusService.class).topic("test", Integer.class);
+        AtomicLong sum = new AtomicLong();
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        topic.subscribe(sum::addAndGet);
+        topic.subscribe(received::add);
+
+        ExecutorService producers = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            futures.add(producers.submit(() -> {
+                for (int i = 1; i <= 10000; i++) {
+                    Assertions.assertTrue(topic.publish(i));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        producers.shutdown();
+
+        await(() -> sum.get() == 4 * 50005000L);
+        await(() -> received.size() == 40000);
+        Assertions.assertEquals(40000, topic.getPublished());
+        Assertions.assertEquals(0, topic.getDropped());
+
+        minho.close();
+    }
+
+    @Test
+    public void syncTest() throws Exception {
+        ConfigService config = new ConfigService();
+        config.getProperties().put("eventbus.topic.sync.dispatch", "sync");
+        EventBusService eventBus = new EventBusService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), eventBus)).build().start();
+
+        Topic<String> topic = eventBus.topic("sync", String.class);
+        List<String> threads = new ArrayList<>();
+        Subscription subscription = topic.subscribe(event -> threads.add(Thread.currentThread().getName()));
+        topic.publish("foo");
+        Assertions.assertEquals(Collections.singletonList(Thread.currentThread().getName()), threads);
+
+        subscription.close();
+        topic.publish("bar");
+        Assertions.assertEquals(1, threads.size());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> eventBus.topic("sync", Integer.class));
+
+        minho.close();
+    }
+
+    @Test
+    public void backpressureTest() throws Exception {
+        EventBusService eventBus = new EventBusService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(new ConfigService(), new LifeCycleService(), eventBus)).build().start();
+
+        for (TopicConfig.Queue queue : TopicConfig.Queue.values()) {
+            // the subscriber is blocked on the first event, the queue (capacity 4) is filled
+            CountDownLatch latch = new CountDownLatch(1);
+            List<Integer> received = new CopyOnWriteArrayList<>();
+            Topic<Integer> dropNewest = eventBus.topic("drop-newest-" + queue, Integer.class, TopicConfig.builder().queue(queue).capacity(4).backpressure(TopicConfig.Backpressure.DROP_NEWEST).build());
+            Subscription subscription = dropNewest.subscribe(event -> {
+                await(latch);
+                received.add(event);
+            });
+            dropNewest.publish(0);
+            await(() -> subscription.getPending() == 0);
+            for (int i = 1; i <= 4; i++) {
+                Assertions.assertTrue(dropNewest.publish(i));
+            }
+            Assertions.assertFalse(dropNewest.publish(5));
+            Assertions.assertEquals(1, dropNewest.getDropped());
+            latch.countDown();
+            await(() -> received.size() == 5);
+            Assertions.assertEquals(Arrays.asList(0, 1, 2, 3, 4), received);
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        Topic<Integer> dropOldest = eventBus.topic("drop-oldest", Integer.class, TopicConfig.builder().capacity(4).backpressure(TopicConfig.Backpressure.DROP_OLDEST).build());
+        Subscription subscription = dropOldest.subscribe(event -> {
+            await(latch);
+            received.add(event);
+        });
+        dropOldest.publish(0);
+        await(() -> subscription.getPending() == 0);
+        for (int i = 1; i <= 6; i++) {
+            Assertions.assertTrue(dropOldest.publish(i));
+        }
+        latch.countDown();
+        await(() -> received.size() == 5);
+        Assertions.assertEquals(Arrays.asList(0, 3, 4, 5, 6), received);
+        Assertions.assertEquals(2, dropOldest.getDropped());
+
+        CountDownLatch failLatch = new CountDownLatch(1);
+        Topic<Integer> fail = eventBus.topic("fail", Integer.class, TopicConfig.builder().capacity(2).backpressure(TopicConfig.Backpressure.FAIL).build());
+        Subscription failSubscription = fail.subscribe(event -> await(failLatch));
+        fail.publish(0);
+        await(() -> failSubscription.getPending() == 0);
+        fail.publish(1);
+        fail.publish(2);
+        Assertions.assertThrows(IllegalStateException.class, () -> fail.publish(3));
+        failLatch.countDown();
+
+        // the publisher waits for the subscriber
+        AtomicInteger count = new AtomicInteger();
+        Topic<Integer> block = eventBus.topic("block", Integer.class, TopicConfig.builder().capacity(2).build());
+        block.subscribe(event -> {
+            sleep(1);
+            count.incrementAndGet();
+        });
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertTrue(block.publish(i));
+        }
+        await(() -> count.get() == 100);
+        Assertions.assertEquals(0, block.getDropped());
+
+        minho.close();
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        ConfigService config = new ConfigService();
+        config.getProperties().put("eventbus.batchSize", "10");
+        config.getProperties().put("eventbus.queue", "blocking");
+        EventBusService eventBus = new EventBusService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), eventBus)).build().start();
+
+        Topic<Integer> topic = eventBus.topic("batch", Integer.class);
+        Assertions.assertEquals(TopicConfig.Queue.BLOCKING, ((DefaultTopic<Integer>) topic).getConfig().getQueue());
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        AtomicInteger maxBatchSize = new AtomicInteger();
+        topic.subscribeBatch(batch -> {
+            maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+            received.addAll(batch);
+        });
+        for (int i = 0; i < 1000; i++) {
+            topic.publish(i);
+        }
+        await(() -> received.size() == 1000);
+        Assertions.assertTrue(maxBatchSize.get() <= 10);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(i, received.get(i));
+        }
+
+        minho.close();
+    }
+
+    @Test
+    public void ringBufferTest() throws Exception {
+        RingBufferQueue<Long> queue = new RingBufferQueue<>(100);
+        Assertions.assertEquals(128, queue.capacity());
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        List<Future<Long>> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            producers.add(executor.submit(() -> {
+                for (long i = 1; i <= 100000; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+                return 0L;
+            }));
+        }
+        AtomicInteger consumed = new AtomicInteger();
+        List<Future<Long>> consumers = new ArrayList<>();
+        for (int c = 0; c < 2; c++) {
+            consumers.add(executor.submit(() -> {
+                long sum = 0;
+                while (consumed.get() < 400000) {
+                    Long event = queue.poll();
+                    if (event != null) {
+                        sum += event;
+                        consumed.incrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                return sum;
+            }));
+        }
+        long sum = 0;
+        for (Future<Long> consumer : consumers) {
+            sum += consumer.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        Assertions.assertEquals(4 * 5000050000L, sum);
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Publish/consume throughput and latency, for several producers/subscribers counts and queues (warmup and
+     * measurement iterations, like JMH).
+     * Run with {@code mvn test -Dtest=EventBusServiceTest#publishConsumeBenchmark -Dminho.benchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "minho.benchmark", matches = "true")
+    public void publishConsumeBenchmark() throws Exception {
+        int events = Integer.parseInt(System.getProperty("minho.benchmark.events", "1000000"));
+        System.out.printf("%-12s %9s %11s %14s %12s %12s%n", "queue", "producers", "subscribers", "events/s", "p50 (us)", "p99 (us)");
+        for (TopicConfig.Queue queue : TopicConfig.Queue.values()) {
+            for (int producers : new int[]{ 1, 4 }) {
+                for (int subscribers : new int[]{ 1, 4 }) {
+                    // warmup
+                    benchmark(queue, producers, subscribers, events / 4);
+                    long[] result = benchmark(queue, producers, subscribers, events);
+                    System.out.printf("%-12s %9d %11d %14d %12.1f %12.1f%n", queue, producers, subscribers, result[0], result[1] / 1000.0, result[2] / 1000.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the throughput (delivered events per second), the p50 and p99 latencies (in nanoseconds).
+     */
+    private long[] benchmark(TopicConfig.Queue queue, int producers, int subscribers, int events) throws Exception {
+        EventBusService eventBus = new EventBusService();
+        Topic<Long> topic = eventBus.topic("benchmark", Long.class, TopicConfig.builder().queue(queue).capacity(8192).build());
+        int total = (events / producers) * producers;
+        CountDownLatch done = new CountDownLatch(subscribers);
+        long[][] latencies = new long[subscribers][total / 64 + 1];
+        for (int s = 0; s < subscribers; s++) {
+            long[] samples = latencies[s];
+            int[] count = new int[1];
+            topic.subscribe(event -> {
+                // sample the latency of 1/64 events
+                if ((count[0] & 63) == 0) {
+                    samples[count[0] >> 6] = System.nanoTime() - event;
+                }
+                if (++count[0] == total) {
+                    done.countDown();
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            executor.execute(() -> {
+                for (int i = 0; i < events / producers; i++) {
+                    topic.publish(System.nanoTime());
+                }
+            });
+        }
+        Assertions.assertTrue(done.await(5, TimeUnit.MINUTES));
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        eventBus.close();
+        long[] all = Stream.of(latencies).flatMapToLong(Arrays::stream).filter(latency -> latency > 0).sorted().toArray();
+        return new long[]{ (long) total * subscribers * 1_000_000_000L / elapsed, all[all.length / 2], all[(int) (all.length * 0.99)] };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < timeout, "Timeout");
+            sleep(10);
+        }
+    }
+
+}
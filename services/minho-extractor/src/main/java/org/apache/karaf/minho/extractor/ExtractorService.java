@@ -19,15 +19,42 @@ package org.apache.karaf.minho.extractor;
 
 import lombok.extern.java.Log;
 import org.apache.karaf.minho.boot.config.Config;
+import org.apache.karaf.minho.boot.loader.NestedJarClassLoader;
 import org.apache.karaf.minho.boot.service.ServiceRegistry;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
 import org.apache.karaf.minho.boot.spi.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
 import java.net.URL;
 import java.nio.file.*;
-import java.util.Collections;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
+/**
+ * Extract resources folders (from the classpath) to a target folder.
+ * <p>
+ * The files are extracted in parallel, only when they changed (size and CRC compared with the target file), and written
+ * atomically (temporary file renamed). In background mode, the extraction continues after the service registration:
+ * the services depending on the extracted files wait for {@link #ready()}.
+ * <p>
+ * In virtual mode, nothing is extracted: the resources are read directly from the classpath, via
+ * {@link #getResources()}.
+ */
 @Log
-public class ExtractorService implements Service {
+public class ExtractorService implements Service, AutoCloseable {
+
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private volatile ExecutorService executor;
+    private VirtualResources resources;
+    private URLHandlerService urlHandlerService;
 
     @Override
     public String name() {
@@ -41,47 +68,254 @@ public class ExtractorService implements Service {
         Config config = serviceRegistry.get(Config.class);
         if (config == null) {
             log.warning("Config service is not registered");
+            ready.complete(null);
             return;
         }
         String sources = "resources";
         if (config.getProperty("extractor.sources") != null) {
-            sources = config.getProperty("extractor.sources").toString();
+            sources = config.getProperty("extractor.sources");
         }
         String target = ".";
         if (config.getProperty("extractor.target") != null) {
-            target = config.getProperty("extractor.target").toString();
-        }
-
-        String[] urls = sources.split(",");
-        for (String url : urls) {
-
-            log.info("Extracting " + url + " to " + target);
-
-            URL resource = Thread.currentThread().getContextClassLoader().getResource(url);
-            if (resource != null) {
-                try (FileSystem fs = FileSystems.newFileSystem(resource.toURI(), Collections.emptyMap())) {
-                    String finalTarget = target;
-                    Files.walk(fs.getPath(".")).filter(Files::isRegularFile)
-                            .forEach(path -> {
-                                try {
-                                    String resourceTarget = path.getParent().toAbsolutePath().toString();
-                                    if (resourceTarget.startsWith("/" + url)) {
-                                        resourceTarget = resourceTarget.substring(("/" + url).length());
-                                        Path directory = Paths.get(finalTarget + Paths.get(resourceTarget));
-                                        Files.createDirectories(directory);
-                                        Path copy = Paths.get(directory.toAbsolutePath() + "/" + path.getFileName());
-                                        Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
-                                    }
-                                } catch (Exception e) {
-                                    log.warning("Can't copy " + path.toAbsolutePath() + " to " + finalTarget);
-                                    e.printStackTrace();
-                                }
-                            });
+            target = config.getProperty("extractor.target");
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (config.getProperty("extractor.threads") != null) {
+            threads = Integer.parseInt(config.getProperty("extractor.threads"));
+        }
+        boolean background = config.getProperty("extractor.background") != null && config.getProperty("extractor.background").equalsIgnoreCase("true");
+        String mode = "extract";
+        if (config.getProperty("extractor.mode") != null) {
+            mode = config.getProperty("extractor.mode");
+        }
+
+        List<String> urls = Arrays.stream(sources.split(",")).map(String::trim).filter(url -> !url.isEmpty()).collect(Collectors.toList());
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (mode.equalsIgnoreCase("virtual")) {
+            long cacheSize = 16 * 1024 * 1024;
+            if (config.getProperty("extractor.cache.size") != null) {
+                cacheSize = Long.parseLong(config.getProperty("extractor.cache.size"));
+            }
+            long maxEntrySize = 1024 * 1024;
+            if (config.getProperty("extractor.cache.maxEntrySize") != null) {
+                maxEntrySize = Long.parseLong(config.getProperty("extractor.cache.maxEntrySize"));
+            }
+            resources = new VirtualResources(urls, classLoader, cacheSize, maxEntrySize);
+            log.info("Virtual resources (" + resources.names().size() + " file(s)) from " + sources);
+            // extractor: URLs
+            urlHandlerService = serviceRegistry.get(URLHandlerService.class);
+            if (urlHandlerService != null) {
+                urlHandlerService.register("extractor", resources.getHandler());
+            }
+            ready.complete(null);
+            return;
+        }
+        Path targetFolder = Paths.get(target).toAbsolutePath().normalize();
+        executor = Executors.newFixedThreadPool(Math.max(1, threads), new ExtractorThreadFactory());
+        if (background) {
+            // the extraction is coordinated by a dedicated thread, waiting for the pool threads
+            Thread thread = new Thread(() -> {
+                try {
+                    extract(urls, targetFolder, classLoader);
+                    ready.complete(null);
+                } catch (Throwable e) {
+                    log.warning("Can't extract resources: " + e.getMessage());
+                    ready.completeExceptionally(e);
+                } finally {
+                    executor.shutdown();
                 }
-            } else {
-                log.warning("URL resource '" + url + "' not found!");
+            }, "minho-extractor-background");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            try {
+                extract(urls, targetFolder, classLoader);
+                ready.complete(null);
+            } catch (Exception e) {
+                ready.completeExceptionally(e);
+                throw e;
+            } finally {
+                executor.shutdown();
             }
         }
     }
 
+    /**
+     * Readiness of the extracted resources: completed when the extraction is done (immediately after the registration
+     * if the extraction is not in background mode), exceptionally if the extraction failed.
+     *
+     * @return the readiness future.
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    /**
+     * Read-only view of the resources in virtual mode (null if the resources are extracted).
+     *
+     * @return the virtual resources.
+     */
+    public VirtualResources getResources() {
+        return resources;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        ready.cancel(false);
+        if (resources != null) {
+            if (urlHandlerService != null) {
+                urlHandlerService.unregister("extractor", resources.getHandler());
+            }
+            resources.close();
+        }
+    }
+
+    private void extract(List<String> urls, Path target, ClassLoader classLoader) throws Exception {
+        final IllegalStateException ise = new IllegalStateException("Can't extract resources to " + target);
+        long begin = System.nanoTime();
+        AtomicInteger extracted = new AtomicInteger();
+        AtomicInteger unchanged = new AtomicInteger();
+        List<JarFile> jars = new ArrayList<>();
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (String url : urls) {
+                log.info("Extracting " + url + " to " + target);
+                URL resource = classLoader.getResource(url);
+                String prefix = url.endsWith("/") ? url : url + "/";
+                // nested uber jar layout: the folders are listed from the nested jars
+                Map<String, NestedJarClassLoader.Resource> nested = nestedResources(classLoader, resource, prefix);
+                if (!nested.isEmpty()) {
+                    nested.forEach((name, nestedResource) ->
+                            futures.add(executor.submit(() -> extract(name, nestedResource.getSize(), nestedResource.getCrc(), () -> nestedResource.getUrl().openStream(), target))));
+                    continue;
+                }
+                if (resource == null) {
+                    log.warning("URL resource '" + url + "' not found!");
+                    continue;
+                }
+                if (resource.getProtocol().equals("jar")) {
+                    JarURLConnection connection = (JarURLConnection) resource.openConnection();
+                    connection.setUseCaches(false);
+                    JarFile jar = connection.getJarFile();
+                    jars.add(jar);
+                    jar.stream().filter(entry -> !entry.isDirectory() && entry.getName().startsWith(prefix)).forEach(entry ->
+                            futures.add(executor.submit(() -> extract(entry.getName().substring(prefix.length()), entry.getSize(), entry.getCrc(), () -> jar.getInputStream(entry), target))));
+                } else if (resource.getProtocol().equals("file")) {
+                    Path source = Paths.get(resource.toURI());
+                    try (Stream<Path> stream = Files.walk(source)) {
+                        stream.filter(Files::isRegularFile).forEach(file ->
+                                futures.add(executor.submit(() -> extract(source.relativize(file).toString().replace('\\', '/'), Files.size(file), crc(file), () -> Files.newInputStream(file), target))));
+                    }
+                } else {
+                    ise.addSuppressed(new IllegalArgumentException("Can't extract " + resource + ": unsupported URL protocol " + resource.getProtocol()));
+                }
+            }
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (future.get()) {
+                        extracted.incrementAndGet();
+                    } else {
+                        unchanged.incrementAndGet();
+                    }
+                } catch (ExecutionException e) {
+                    ise.addSuppressed(e.getCause());
+                }
+            }
+        } finally {
+            for (JarFile jar : jars) {
+                try {
+                    jar.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        log.info("Extracted " + extracted.get() + " file(s) (" + unchanged.get() + " unchanged) to " + target + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + "ms");
+        if (ise.getSuppressed().length > 0) {
+            throw ise;
+        }
+    }
+
+    /**
+     * Resources of a folder in the nested jars (nested uber jar layout), empty if the folder is not in nested jars.
+     *
+     * @param classLoader the class loader used to find the folder.
+     * @param resource the folder resource found by the class loader (null if not found, folders entries being optional).
+     * @param prefix the folder.
+     */
+    static Map<String, NestedJarClassLoader.Resource> nestedResources(ClassLoader classLoader, URL resource, String prefix) {
+        if (resource != null && !resource.getProtocol().equals(NestedJarClassLoader.PROTOCOL)) {
+            return Collections.emptyMap();
+        }
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            if (loader instanceof NestedJarClassLoader) {
+                return ((NestedJarClassLoader) loader).listResources(prefix);
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Extract a file, if the target doesn't exist or is different (size or CRC).
+     *
+     * @return true if the file has been extracted, false if it's unchanged.
+     */
+    private boolean extract(String name, long size, long crc, Source source, Path target) throws IOException {
+        Path file = target.resolve(name).normalize();
+        if (!file.startsWith(target)) {
+            throw new IOException("Entry " + name + " is outside of the target folder");
+        }
+        if (Files.isRegularFile(file) && (size < 0 || Files.size(file) == size) && (crc < 0 || crc(file) == crc)) {
+            return false;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+        try {
+            try (InputStream inputStream = source.open(); OutputStream outputStream = Files.newOutputStream(temp)) {
+                inputStream.transferTo(outputStream);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private static class ExtractorThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "minho-extractor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+/**
+ * {@code extractor:} URL stream handler, reading the resources of a {@link VirtualResources}.
+ */
+public class ExtractorURLStreamHandler extends URLStreamHandler {
+
+    private final VirtualResources resources;
+
+    public ExtractorURLStreamHandler(VirtualResources resources) {
+        this.resources = resources;
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        return new URLConnection(url) {
+            @Override
+            public void connect() throws IOException {
+                if (!resources.exists(url.getPath())) {
+                    throw new IOException(url + " not found");
+                }
+                connected = true;
+            }
+
+            @Override
+            public long getContentLengthLong() {
+                return resources.size(url.getPath());
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                connect();
+                return resources.open(url.getPath());
+            }
+        };
+    }
+
+}
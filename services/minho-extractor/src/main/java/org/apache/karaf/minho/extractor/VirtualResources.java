@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.extractor;
+
+import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.loader.NestedJarClassLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Read-only view of resources folders (from the classpath), without extraction on the file system.
+ * <p>
+ * The resources are read directly from the jar files (or folders, or nested jars with the nested uber jar layout). The
+ * small resources are kept in a bounded (LRU) cache once read. The resources are available as stream, {@code extractor:}
+ * URL or {@link Path} (read only, JDK zip file system for jar files, not available for nested jars).
+ */
+@Log
+public class VirtualResources implements Closeable {
+
+    private final Map<String, Location> index = new TreeMap<>();
+    private final List<JarFile> jars = new ArrayList<>();
+    private final Map<JarFile, ReadOnlyFileSystem> fileSystems = new HashMap<>();
+    private final ReadOnlyFileSystem folders = new ReadOnlyFileSystem(FileSystems.getDefault());
+    private final ExtractorURLStreamHandler handler = new ExtractorURLStreamHandler(this);
+
+    private final long cacheSize;
+    private final long maxEntrySize;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cached;
+
+    /**
+     * @param sources the resources folders (in the classpath), the first source containing a resource wins.
+     * @param classLoader the class loader used to find the sources.
+     * @param cacheSize the maximum size (in bytes) of the cached resources.
+     * @param maxEntrySize the maximum size (in bytes) of a cached resource, larger resources are read on each access.
+     */
+    public VirtualResources(List<String> sources, ClassLoader classLoader, long cacheSize, long maxEntrySize) throws Exception {
+        this.cacheSize = cacheSize;
+        this.maxEntrySize = maxEntrySize;
+        for (String source : sources) {
+            URL resource = classLoader.getResource(source);
+            String prefix = source.endsWith("/") ? source : source + "/";
+            Map<String, NestedJarClassLoader.Resource> nested = ExtractorService.nestedResources(classLoader, resource, prefix);
+            if (!nested.isEmpty()) {
+                nested.forEach((name, nestedResource) -> index.putIfAbsent(name, new Location(nestedResource.getUrl(), nestedResource.getSize())));
+                continue;
+            }
+            if (resource == null) {
+                log.warning("URL resource '" + source + "' not found!");
+                continue;
+            }
+            if (resource.getProtocol().equals("jar")) {
+                JarURLConnection connection = (JarURLConnection) resource.openConnection();
+                connection.setUseCaches(false);
+                JarFile jar = connection.getJarFile();
+                jars.add(jar);
+                jar.stream().filter(entry -> !entry.isDirectory() && entry.getName().startsWith(prefix))
+                        .forEach(entry -> index.putIfAbsent(entry.getName().substring(prefix.length()), new Location(jar, entry.getName(), null, entry.getSize())));
+            } else if (resource.getProtocol().equals("file")) {
+                Path folder = Paths.get(resource.toURI());
+                try (Stream<Path> stream = Files.walk(folder)) {
+                    stream.filter(Files::isRegularFile).forEach(file -> {
+                        try {
+                            index.putIfAbsent(folder.relativize(file).toString().replace('\\', '/'), new Location(null, null, file, Files.size(file)));
+                        } catch (IOException e) {
+                            log.warning("Can't read " + file + ": " + e.getMessage());
+                        }
+                    });
+                }
+            } else {
+                throw new IllegalArgumentException("Can't read resources from " + resource + ": unsupported URL protocol " + resource.getProtocol());
+            }
+        }
+    }
+
+    /**
+     * @return the names of the resources (relative to the sources folders).
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public boolean exists(String name) {
+        return index.containsKey(normalize(name));
+    }
+
+    /**
+     * @return the size of the resource, -1 if the resource doesn't exist.
+     */
+    public long size(String name) {
+        Location location = index.get(normalize(name));
+        return location != null ? location.size : -1;
+    }
+
+    /**
+     * Open a resource, from the cache if the resource has already been read.
+     */
+    public InputStream open(String name) throws IOException {
+        name = normalize(name);
+        Location location = index.get(name);
+        if (location == null) {
+            throw new NoSuchFileException(name);
+        }
+        if (location.size < 0 || location.size > Math.min(maxEntrySize, cacheSize)) {
+            return location.open();
+        }
+        return new ByteArrayInputStream(read(name));
+    }
+
+    /**
+     * Read a resource, from the cache if the resource has already been read.
+     */
+    public byte[] read(String name) throws IOException {
+        name = normalize(name);
+        Location location = index.get(name);
+        if (location == null) {
+            throw new NoSuchFileException(name);
+        }
+        synchronized (cache) {
+            byte[] content = cache.get(name);
+            if (content != null) {
+                return content;
+            }
+        }
+        byte[] content;
+        try (InputStream inputStream = location.open()) {
+            content = inputStream.readAllBytes();
+        }
+        if (content.length <= maxEntrySize && content.length <= cacheSize) {
+            synchronized (cache) {
+                if (cache.put(name, content) == null) {
+                    cached += content.length;
+                    Iterator<byte[]> iterator = cache.values().iterator();
+                    while (cached > cacheSize && iterator.hasNext()) {
+                        cached -= iterator.next().length;
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        return content;
+    }
+
+    /**
+     * @return the size (in bytes) of the cached resources.
+     */
+    public long cached() {
+        synchronized (cache) {
+            return cached;
+        }
+    }
+
+    /**
+     * {@code extractor:} URL of a resource (the URL can be opened without URL stream handler factory).
+     */
+    public URL url(String name) throws MalformedURLException {
+        return new URL("extractor", null, -1, "/" + normalize(name), handler);
+    }
+
+    /**
+     * @return the {@code extractor:} URL stream handler of the resources.
+     */
+    public ExtractorURLStreamHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Path of a resource, in the jar file (zip file system) or folder containing the resource.
+     * <p>
+     * The path is read only: any write, creation, deletion or attribute update fails with
+     * {@link java.nio.file.ReadOnlyFileSystemException} (or {@link java.nio.file.AccessDeniedException} on access check).
+     */
+    public Path path(String name) throws IOException {
+        Location location = index.get(normalize(name));
+        if (location == null) {
+            throw new NoSuchFileException(name);
+        }
+        if (location.file != null) {
+            return folders.wrap(location.file);
+        }
+        if (location.url != null) {
+            throw new FileSystemException(name, null, "Resource in a nested jar, use open() or url()");
+        }
+        ReadOnlyFileSystem fileSystem;
+        synchronized (fileSystems) {
+            fileSystem = fileSystems.get(location.jar);
+            if (fileSystem == null) {
+                fileSystem = new ReadOnlyFileSystem(FileSystems.newFileSystem(Paths.get(location.jar.getName()), (ClassLoader) null));
+                fileSystems.put(location.jar, fileSystem);
+            }
+        }
+        return fileSystem.getPath("/" + location.entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (fileSystems) {
+            for (ReadOnlyFileSystem fileSystem : fileSystems.values()) {
+                fileSystem.getDelegate().close();
+            }
+            fileSystems.clear();
+        }
+        for (JarFile jar : jars) {
+            jar.close();
+        }
+        synchronized (cache) {
+            cache.clear();
+            cached = 0;
+        }
+    }
+
+    private static String normalize(String name) {
+        return name.startsWith("/") ? name.substring(1) : name;
+    }
+
+    private static class Location {
+
+        private final JarFile jar;
+        private final String entry;
+        private final Path file;
+        private final URL url;
+        private final long size;
+
+        Location(JarFile jar, String entry, Path file, long size) {
+            this.jar = jar;
+            this.entry = entry;
+            this.file = file;
+            this.url = null;
+            this.size = size;
+        }
+
+        Location(URL url, long size) {
+            this.jar = null;
+            this.entry = null;
+            this.file = null;
+            this.url = url;
+            this.size = size;
+        }
+
+        InputStream open() throws IOException {
+            if (file != null) {
+                return Files.newInputStream(file);
+            }
+            if (url != null) {
+                return url.openStream();
+            }
+            return jar.getInputStream(jar.getEntry(entry));
+        }
+
+    }
+
+}
@@ -18,21 +18,37 @@
 package org.apache.karaf.minho.extractor;
 
 import org.apache.karaf.minho.boot.Minho;
+import org.apache.karaf.minho.boot.loader.NestedJarClassLoader;
 import org.apache.karaf.minho.boot.service.ConfigService;
 import org.apache.karaf.minho.boot.service.LifeCycleService;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
 import org.apache.karaf.minho.extractor.ExtractorService;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 
 public class ExtractorServiceTest {
 
     @Test
-    @Disabled
     public void singleDefault() throws Exception {
         ConfigService config = new ConfigService();
         config.getProperties().put("extractor.target", "./target/extracted/single");
@@ -55,4 +71,192 @@ public class ExtractorServiceTest {
         karaf.close();
     }
 
+    @Test
+    public void parallelUnchanged() throws Exception {
+        Path jar = createJar("target/test-extractor/parallel.jar", Map.of("data/a.txt", "a", "data/sub/b.txt", "b", "other.txt", "other"));
+        Path target = Paths.get("target/extracted/parallel");
+        ConfigService config = new ConfigService();
+        config.getProperties().put("extractor.target", target.toString());
+        config.getProperties().put("extractor.sources", "data");
+        config.getProperties().put("extractor.threads", "2");
+
+        extract(jar, config);
+        Assertions.assertEquals("a", Files.readString(target.resolve("a.txt")));
+        Assertions.assertEquals("b", Files.readString(target.resolve("sub/b.txt")));
+        Assertions.assertFalse(Files.exists(target.resolve("other.txt")));
+        try (Stream<Path> files = Files.list(target)) {
+            Assertions.assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+
+        // unchanged files are not extracted again, changed files are
+        FileTime time = FileTime.fromMillis(System.currentTimeMillis() - 3600000);
+        Files.setLastModifiedTime(target.resolve("a.txt"), time);
+        Files.writeString(target.resolve("sub/b.txt"), "c");
+        Files.setLastModifiedTime(target.resolve("sub/b.txt"), time);
+        extract(jar, config);
+        Assertions.assertEquals(time, Files.getLastModifiedTime(target.resolve("a.txt")));
+        Assertions.assertEquals("b", Files.readString(target.resolve("sub/b.txt")));
+        Assertions.assertNotEquals(time, Files.getLastModifiedTime(target.resolve("sub/b.txt")));
+    }
+
+    @Test
+    public void background() throws Exception {
+        Path jar = createJar("target/test-extractor/background.jar", Map.of("data/a.txt", "a", "data/sub/b.txt", "b"));
+        Path target = Paths.get("target/extracted/background");
+        ConfigService config = new ConfigService();
+        config.getProperties().put("extractor.target", target.toString());
+        config.getProperties().put("extractor.sources", "data");
+        config.getProperties().put("extractor.background", "true");
+        config.getProperties().put("extractor.threads", "1");
+
+        ExtractorService extractor = extract(jar, config);
+        extractor.ready().get(30, java.util.concurrent.TimeUnit.SECONDS);
+        Assertions.assertEquals("a", Files.readString(target.resolve("a.txt")));
+        Assertions.assertEquals("b", Files.readString(target.resolve("sub/b.txt")));
+    }
+
+    @Test
+    public void nestedVirtual() throws Exception {
+        Path uberJar = createUberJar("target/test-extractor/nested-virtual.jar", createJar("target/test-extractor/nested-virtual-resources.jar", Map.of("data/a.txt", "aaaa", "data/sub/b.txt", "bbbb")));
+        ConfigService config = new ConfigService();
+        config.getProperties().put("extractor.sources", "data");
+        config.getProperties().put("extractor.mode", "virtual");
+
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        try (NestedJarClassLoader classLoader = NestedJarClassLoader.create(uberJar, "lib/", null)) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            ExtractorService extractor = new ExtractorService();
+            try (Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), extractor)).build().start()) {
+                VirtualResources resources = extractor.getResources();
+                Assertions.assertEquals(Set.of("a.txt", "sub/b.txt"), resources.names());
+                Assertions.assertEquals(4, resources.size("a.txt"));
+                Assertions.assertEquals("aaaa", new String(resources.read("a.txt"), StandardCharsets.UTF_8));
+                Assertions.assertEquals("bbbb", new String(resources.url("sub/b.txt").openStream().readAllBytes(), StandardCharsets.UTF_8));
+                Assertions.assertThrows(FileSystemException.class, () -> resources.path("a.txt"));
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    @Test
+    public void virtual() throws Exception {
+        Path jar = createJar("target/test-extractor/virtual.jar", Map.of("data/a.txt", "aaaa", "data/sub/b.txt", "bbbb", "data/c.txt", "cccc"));
+        Path target = Paths.get("target/extracted/virtual");
+        ConfigService config = new ConfigService();
+        config.getProperties().put("extractor.target", target.toString());
+        config.getProperties().put("extractor.sources", "data");
+        config.getProperties().put("extractor.mode", "virtual");
+        config.getProperties().put("extractor.cache.size", "8");
+
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{ jar.toUri().toURL() }, null)) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            ExtractorService extractor = new ExtractorService();
+            try (Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), new URLHandlerService(), extractor)).build().start()) {
+                Assertions.assertTrue(extractor.ready().isDone());
+                Assertions.assertEquals("aaaa", new String(new URL("extractor:/a.txt").openStream().readAllBytes(), StandardCharsets.UTF_8));
+                VirtualResources resources = extractor.getResources();
+                Assertions.assertEquals(Set.of("a.txt", "c.txt", "sub/b.txt"), resources.names());
+                Assertions.assertEquals(4, resources.size("sub/b.txt"));
+                Assertions.assertEquals("aaaa", new String(resources.read("a.txt"), StandardCharsets.UTF_8));
+                Assertions.assertEquals("bbbb", new String(resources.url("sub/b.txt").openStream().readAllBytes(), StandardCharsets.UTF_8));
+                Assertions.assertEquals("cccc", Files.readString(resources.path("c.txt")));
+                // the path is read only, the application jar can't be changed
+                Path c = resources.path("c.txt");
+                Assertions.assertTrue(c.getFileSystem().isReadOnly());
+                Assertions.assertFalse(Files.isWritable(c));
+                Assertions.assertThrows(ReadOnlyFileSystemException.class, () -> Files.writeString(c, "xxxx"));
+                Assertions.assertThrows(ReadOnlyFileSystemException.class, () -> Files.delete(c));
+                Assertions.assertThrows(ReadOnlyFileSystemException.class, () -> Files.createFile(c.resolveSibling("d.txt")));
+                Assertions.assertEquals("cccc", Files.readString(resources.path("c.txt")));
+                // the cache is bounded
+                Assertions.assertEquals(8, resources.cached());
+                resources.read("c.txt");
+                Assertions.assertEquals(8, resources.cached());
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+        Assertions.assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void nested() throws Exception {
+        Path uberJar = createUberJar("target/test-extractor/nested.jar", createJar("target/test-extractor/nested-resources.jar", Map.of("data/a.txt", "a", "data/sub/b.txt", "b")));
+        Path target = Paths.get("target/extracted/nested");
+        ConfigService config = new ConfigService();
+        config.getProperties().put("extractor.target", target.toString());
+        config.getProperties().put("extractor.sources", "data");
+
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        try (NestedJarClassLoader classLoader = NestedJarClassLoader.create(uberJar, "lib/", null)) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            ExtractorService extractor = new ExtractorService();
+            try (Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), extractor)).build().start()) {
+                extractor.ready().get(30, java.util.concurrent.TimeUnit.SECONDS);
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+        Assertions.assertEquals("a", Files.readString(target.resolve("a.txt")));
+        Assertions.assertEquals("b", Files.readString(target.resolve("sub/b.txt")));
+    }
+
+    private static ExtractorService extract(Path jar, ConfigService config) throws Exception {
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{ jar.toUri().toURL() }, null)) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            ExtractorService extractor = new ExtractorService();
+            try (Minho minho = Minho.builder().loader(() -> Stream.of(config, new LifeCycleService(), extractor)).build().start()) {
+                extractor.ready().get(30, java.util.concurrent.TimeUnit.SECONDS);
+            }
+            return extractor;
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    /**
+     * Create an uber jar using the nested layout: the jars are stored in the lib/ folder.
+     */
+    private static Path createUberJar(String path, Path... jars) throws Exception {
+        Path uberJar = Paths.get(path);
+        try (JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(uberJar.toFile()))) {
+            for (Path jar : jars) {
+                byte[] content = Files.readAllBytes(jar);
+                JarEntry entry = new JarEntry("lib/" + jar.getFileName());
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(content.length);
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                entry.setCrc(crc.getValue());
+                outputStream.putNextEntry(entry);
+                outputStream.write(content);
+                outputStream.closeEntry();
+            }
+        }
+        return uberJar;
+    }
+
+    private static Path createJar(String path, Map<String, String> entries) throws Exception {
+        Path jar = Paths.get(path);
+        Files.createDirectories(jar.getParent());
+        try (JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(jar.toFile()))) {
+            Set<String> folders = new HashSet<>();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                for (int index = entry.getKey().indexOf('/'); index > 0; index = entry.getKey().indexOf('/', index + 1)) {
+                    if (folders.add(entry.getKey().substring(0, index + 1))) {
+                        outputStream.putNextEntry(new JarEntry(entry.getKey().substring(0, index + 1)));
+                        outputStream.closeEntry();
+                    }
+                }
+                outputStream.putNextEntry(new JarEntry(entry.getKey()));
+                outputStream.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                outputStream.closeEntry();
+            }
+        }
+        return jar;
+    }
+
 }
@@ -17,8 +17,10 @@
  */
 package org.apache.karaf.minho.jmx;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.extern.java.Log;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
@@ -39,7 +41,10 @@ import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Enumeration;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+@Log
 @Getter
 @Setter
 public class ConnectorServerFactory {
@@ -60,10 +65,15 @@ public class ConnectorServerFactory {
     private ObjectName objectName;
     private boolean threaded = false;
     private boolean daemon = false;
+    private boolean lazy = false;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ServerSocket lazyListener;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final CountDownLatch stubReady = new CountDownLatch(1);
 
     public void init() throws Exception {
-        JMXServiceURL url = new JMXServiceURL(this.serviceUrl);
-
         if (registry == null && locate) {
             try {
                 Registry reg = LocateRegistry.getRegistry(host, port);
@@ -73,8 +83,104 @@ public class ConnectorServerFactory {
                 // ignore
             }
         }
+        if (this.lazy && registry == null && create) {
+            bindLazyListener();
+        } else {
+            doInit(null);
+        }
+    }
+
+    /**
+     * Bind a plain server socket on the registry port and defer the creation of the RMI registry and connector
+     * server until the first client connects. The accepted socket is then handed over to the RMI registry.
+     */
+    private void bindLazyListener() throws Exception {
+        lazyListener = new MinhoRMIServerSocketFactory(getHost()).createServerSocket(port);
+        Thread listenerThread = new Thread(() -> {
+            Socket pending;
+            try {
+                pending = lazyListener.accept();
+            } catch (IOException ioe) {
+                if (!lazyListener.isClosed()) {
+                    log.warning("JMX lazy listener failed: " + ioe.getMessage());
+                }
+                return;
+            }
+            try {
+                Thread.currentThread().setContextClassLoader(ConnectorServerFactory.class.getClassLoader());
+                log.info("First JMX client connection, starting JMX connector server");
+                doInit(pending);
+            } catch (Exception e) {
+                log.severe("Can't init JMXConnectorServer: " + e.getMessage());
+                // the lazy listener is not accepted anymore: reset and bind it again for the next client
+                resetLazy();
+                try {
+                    pending.close();
+                } catch (IOException ioe) {
+                    // ignore
+                }
+            }
+        });
+        listenerThread.setName("JMX Lazy Listener [" + this.serviceUrl + "]");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    /**
+     * Reset the partially created registry and connector server after a failed lazy init, and bind a new lazy listener.
+     */
+    private synchronized void resetLazy() {
+        if (rmiConnectorServer != null) {
+            try {
+                rmiConnectorServer.stop();
+            } catch (Exception e) {
+                // ignore
+            }
+            rmiConnectorServer = null;
+        }
+        if (registry != null && locallyCreated) {
+            try {
+                UnicastRemoteObject.unexportObject(registry, true);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        registry = null;
+        locallyCreated = false;
+        if (objectName != null) {
+            doUnregister(objectName);
+        }
+        try {
+            lazyListener.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        // the socket is actually released when the RMI accept thread exits: retry the bind for a while
+        for (int attempt = 1; ; attempt++) {
+            try {
+                bindLazyListener();
+                return;
+            } catch (Exception e) {
+                if (attempt == 50) {
+                    log.severe("Can't bind JMX lazy listener: " + e.getMessage());
+                    return;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void doInit(Socket pending) throws Exception {
+        JMXServiceURL url = new JMXServiceURL(this.serviceUrl);
+
         if (registry == null && create) {
-            registry = new JmxRegistry(port, getBindingName(url));
+            RMIServerSocketFactory registrySocketFactory = (pending == null) ? new MinhoRMIServerSocketFactory(getHost()) : new PreboundRMIServerSocketFactory(lazyListener, pending);
+            registry = new JmxRegistry(port, getBindingName(url), registrySocketFactory);
             locallyCreated = true;
         }
 
@@ -100,12 +206,13 @@ public class ConnectorServerFactory {
         }
 
         try {
-            if (this.threaded) {
+            if (this.threaded && pending == null) {
                 Thread connectorThread = new Thread(() -> {
                     try {
                         Thread.currentThread().setContextClassLoader(ConnectorServerFactory.class.getClassLoader());
                         rmiConnectorServer.start();
                         remoteServerStub = rmiServer.toStub();
+                        stubReady.countDown();
                     } catch (IOException ioe) {
                         if (ioe.getCause() instanceof BindException) {
                             // we want just the port message
@@ -127,6 +234,7 @@ public class ConnectorServerFactory {
             } else {
                 this.rmiConnectorServer.start();
                 remoteServerStub = rmiServer.toStub();
+                stubReady.countDown();
             }
         } catch (Exception e) {
             if (this.objectName != null) {
@@ -138,6 +246,9 @@ public class ConnectorServerFactory {
 
     public void destroy() throws Exception {
         try {
+            if (this.lazyListener != null && registry == null) {
+                this.lazyListener.close();
+            }
             if (this.rmiConnectorServer != null) {
                 this.rmiConnectorServer.stop();
             }
@@ -184,14 +295,23 @@ public class ConnectorServerFactory {
     private class JmxRegistry extends sun.rmi.registry.RegistryImpl {
         private final String lookupName;
 
-        JmxRegistry(final int port, final String lookupName) throws RemoteException {
-            super(port, null, new MinhoRMIServerSocketFactory(getHost()));
+        JmxRegistry(final int port, final String lookupName, final RMIServerSocketFactory serverSocketFactory) throws RemoteException {
+            super(port, null, serverSocketFactory);
             this.lookupName = lookupName;
         }
 
         @Override
         public Remote lookup(String s) throws RemoteException, NotBoundException {
-            return lookupName.equals(s) ? remoteServerStub : null;
+            if (!lookupName.equals(s)) {
+                return null;
+            }
+            // the registry can be reached before the connector server is started (threaded or lazy mode)
+            try {
+                stubReady.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return remoteServerStub;
         }
 
         @Override
@@ -231,11 +351,64 @@ public class ConnectorServerFactory {
         }
     }
 
-    private static class LocalOnlyServerSocket extends ServerSocket {
-
+    /**
+     * RMI server socket factory handing over an already bound server socket, with a connection already accepted.
+     */
+    private static class PreboundRMIServerSocketFactory implements RMIServerSocketFactory {
         private final ServerSocket ss;
+        private Socket pending;
+
+        public PreboundRMIServerSocketFactory(ServerSocket ss, Socket pending) {
+            this.ss = ss;
+            this.pending = pending;
+        }
+
+        public synchronized ServerSocket createServerSocket(int port) throws IOException {
+            ServerSocket serverSocket = new PreboundServerSocket(ss, pending);
+            pending = null;
+            return serverSocket;
+        }
+    }
+
+    private static class PreboundServerSocket extends DelegatingServerSocket {
+
+        private Socket pending;
+
+        public PreboundServerSocket(ServerSocket ss, Socket pending) throws IOException {
+            super(ss);
+            this.pending = pending;
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            synchronized (this) {
+                if (pending != null) {
+                    Socket socket = pending;
+                    pending = null;
+                    return socket;
+                }
+            }
+            return super.accept();
+        }
+    }
+
+    private static class LocalOnlyServerSocket extends DelegatingServerSocket {
 
         public LocalOnlyServerSocket(ServerSocket ss) throws IOException {
+            super(ss);
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            return checkLocal(super.accept());
+        }
+    }
+
+    private static class DelegatingServerSocket extends ServerSocket {
+
+        private final ServerSocket ss;
+
+        public DelegatingServerSocket(ServerSocket ss) throws IOException {
             this.ss = ss;
         }
 
@@ -266,7 +439,7 @@ public class ConnectorServerFactory {
 
         @Override
         public Socket accept() throws IOException {
-            return checkLocal(ss.accept());
+            return ss.accept();
         }
 
         @Override
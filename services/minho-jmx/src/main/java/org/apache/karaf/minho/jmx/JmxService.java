@@ -34,6 +34,7 @@ import java.util.Map;
 public class JmxService implements Service {
 
     private MBeanServer mBeanServer;
+    private ConnectorServerFactory connectorServerFactory;
 
     @Override
     public String name() {
@@ -50,6 +51,13 @@ public class JmxService implements Service {
         if (lifeCycleService == null) {
             throw new IllegalStateException("LifeCycleService is not found");
         }
+        // eager: RMI registry and connector server created at startup
+        // lazy: cheap listener on the registry port, RMI stack created on first client connection
+        // local: no RMI stack at all, MBeans are available through the platform MBeanServer (local attach)
+        String mode = configService.getProperty("jmx.mode", "eager");
+        if (!mode.equals("eager") && !mode.equals("lazy") && !mode.equals("local")) {
+            throw new IllegalArgumentException("Invalid jmx.mode " + mode + " (eager|lazy|local)");
+        }
         String rmiRegistryHost = configService.getProperty("jmx.rmiRegistryHost", "");
         int rmiRegistryPort = Integer.parseInt(configService.getProperty("jmx.rmiRegistryPort", "1099"));
         String rmiServerHost = configService.getProperty("jmx.rmiServerHost", "0.0.0.0");
@@ -65,12 +73,24 @@ public class JmxService implements Service {
         boolean locateExistingMBeanServerIfPossible = Boolean.parseBoolean(configService.getProperty("jmx.locateExistingMBeanServerIfPossible", "true"));
 
         final MBeanServerFactory mBeanServerFactory = new MBeanServerFactory();
-        mBeanServerFactory.setLocateExistingServerIfPossible(locateExistingMBeanServerIfPossible);
+        mBeanServerFactory.setLocateExistingServerIfPossible(locateExistingMBeanServerIfPossible || mode.equals("local"));
         mBeanServerFactory.init();
 
         mBeanServer = mBeanServerFactory.getServer();
 
-        final ConnectorServerFactory connectorServerFactory = new ConnectorServerFactory();
+        if (mode.equals("local")) {
+            log.info("JMX local mode, no connector server created (local attach only)");
+            lifeCycleService.onShutdown(() -> {
+                try {
+                    mBeanServerFactory.destroy();
+                } catch (Exception e) {
+                    log.warning("Error destroying MBeanServerFactory: " + e.getMessage());
+                }
+            });
+            return;
+        }
+
+        connectorServerFactory = new ConnectorServerFactory();
         connectorServerFactory.setCreate(createRmiRegistry);
         connectorServerFactory.setLocate(locateRmiRegistry);
         connectorServerFactory.setHost(rmiRegistryHost);
@@ -80,6 +100,7 @@ public class JmxService implements Service {
         connectorServerFactory.setRmiServerHost(rmiServerHost);
         connectorServerFactory.setDaemon(daemon);
         connectorServerFactory.setThreaded(threaded);
+        connectorServerFactory.setLazy(mode.equals("lazy"));
         connectorServerFactory.setObjectName(objectName);
         Map<String, Object> environment = new HashMap<>();
         connectorServerFactory.setEnvironment(environment);
@@ -119,4 +140,8 @@ public class JmxService implements Service {
         return this.mBeanServer;
     }
 
+    public ConnectorServerFactory getConnectorServerFactory() {
+        return this.connectorServerFactory;
+    }
+
 }
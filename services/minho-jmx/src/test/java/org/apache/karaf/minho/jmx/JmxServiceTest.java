@@ -25,7 +25,13 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
 import java.util.stream.Stream;
 
 public class JmxServiceTest {
@@ -47,4 +53,98 @@ public class JmxServiceTest {
         Assertions.assertEquals("test", echo);
     }
 
+    @Test
+    public void lazyMode() throws Exception {
+        int registryPort = freePort();
+        int serverPort = freePort();
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("jmx.mode", "lazy");
+        configService.getProperties().put("jmx.rmiRegistryPort", String.valueOf(registryPort));
+        configService.getProperties().put("jmx.rmiServerHost", "127.0.0.1");
+        configService.getProperties().put("jmx.rmiServerPort", String.valueOf(serverPort));
+        configService.getProperties().put("jmx.objectName", "connector:name=rmi-lazy");
+        Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), new JmxService())).build().start();
+
+        JmxService jmxService = minho.getServiceRegistry().get(JmxService.class);
+        jmxService.registerMBean(new TestMBeanImpl(), "org.apache.karaf.minho:type=lazy");
+
+        Assertions.assertNull(jmxService.getConnectorServerFactory().getRmiConnectorServer());
+
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + registryPort + "/minho");
+        try (JMXConnector connector = JMXConnectorFactory.connect(url)) {
+            MBeanServerConnection connection = connector.getMBeanServerConnection();
+            String echo = (String) connection.invoke(new ObjectName("org.apache.karaf.minho:type=lazy"), "echo", new Object[]{ "lazy" }, new String[]{ "java.lang.String" });
+            Assertions.assertEquals("lazy", echo);
+        }
+
+        Assertions.assertNotNull(jmxService.getConnectorServerFactory().getRmiConnectorServer());
+
+        minho.close();
+    }
+
+    @Test
+    public void lazyModeInitFailure() throws Exception {
+        int registryPort = freePort();
+        ServerSocket blocker = new ServerSocket(0);
+        int serverPort = blocker.getLocalPort();
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("jmx.mode", "lazy");
+        configService.getProperties().put("jmx.rmiRegistryPort", String.valueOf(registryPort));
+        configService.getProperties().put("jmx.rmiServerHost", "127.0.0.1");
+        configService.getProperties().put("jmx.rmiServerPort", String.valueOf(serverPort));
+        configService.getProperties().put("jmx.objectName", "connector:name=rmi-lazy-failure");
+        Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), new JmxService())).build().start();
+
+        JmxService jmxService = minho.getServiceRegistry().get(JmxService.class);
+        jmxService.registerMBean(new TestMBeanImpl(), "org.apache.karaf.minho:type=lazyfailure");
+
+        // the RMI server port is used: the first connection fails
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + registryPort + "/minho");
+        Assertions.assertThrows(Exception.class, () -> JMXConnectorFactory.connect(url).close());
+
+        // the lazy listener is bound again: the next connection starts the connector server
+        blocker.close();
+        try (JMXConnector connector = connectWithRetry(url)) {
+            String echo = (String) connector.getMBeanServerConnection().invoke(new ObjectName("org.apache.karaf.minho:type=lazyfailure"), "echo", new Object[]{ "lazy" }, new String[]{ "java.lang.String" });
+            Assertions.assertEquals("lazy", echo);
+        }
+
+        minho.close();
+    }
+
+    @Test
+    public void localMode() throws Exception {
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("jmx.mode", "local");
+        Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), new JmxService())).build().start();
+
+        JmxService jmxService = minho.getServiceRegistry().get(JmxService.class);
+        jmxService.registerMBean(new TestMBeanImpl(), "org.apache.karaf.minho:type=local");
+
+        Assertions.assertNull(jmxService.getConnectorServerFactory());
+        Assertions.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("org.apache.karaf.minho:type=local")));
+
+        minho.close();
+    }
+
+    private static JMXConnector connectWithRetry(JMXServiceURL url) throws Exception {
+        // the lazy listener is bound again asynchronously
+        for (int i = 0; ; i++) {
+            try {
+                return JMXConnectorFactory.connect(url);
+            } catch (Exception e) {
+                if (i == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
 }
@@ -21,25 +21,44 @@ import lombok.extern.java.Log;
 import org.apache.felix.framework.FrameworkFactory;
 import org.apache.felix.framework.cache.BundleCache;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.karaf.minho.boot.config.Application;
 import org.apache.karaf.minho.boot.config.Config;
 import org.apache.karaf.minho.boot.service.ConfigService;
 import org.apache.karaf.minho.boot.service.LifeCycleService;
 import org.apache.karaf.minho.boot.service.ServiceRegistry;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
 import org.apache.karaf.minho.boot.spi.Service;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
+import org.osgi.framework.wiring.FrameworkWiring;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
-import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Map;
+import java.security.MessageDigest;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarInputStream;
 
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 
 @Log
 public class OsgiModuleManagerService implements Service {
@@ -52,10 +71,28 @@ public class OsgiModuleManagerService implements Service {
     private final static String BUNDLE_START_LEVEL_PROPERTY = "bundleStartLevel";
     private final static String LOG_LEVEL_PROPERTY = "logLevel";
     private final static String CACHE_PROPERTY = "cache";
+    private final static String INSTALL_THREADS_PROPERTY = "installThreads";
+    private final static String WARM_RESTART_PROPERTY = "warmRestart";
+    private final static String BRIDGE_PROPERTY = "bridge";
+    private final static String SYSTEM_PACKAGES_EXTRA_PROPERTY = "systemPackagesExtra";
+
+    public final static String MINHO_SERVICE_NAME = "minho.service.name";
+
+    private final static String CHECKSUMS_FILE = "minho-checksums.properties";
 
     private Framework framework = null;
+    private final AtomicBoolean updated = new AtomicBoolean(false);
+    private boolean bridge = true;
+    private OsgiServiceLookup serviceLookup;
+    private OsgiURLHandlerBridge urlHandlerBridge;
+    private final List<ServiceRegistration<?>> registrations = new ArrayList<>();
+    private int startLevel = 100;
+    private int bundleStartLevel = 80;
+    private int installThreads = Runtime.getRuntime().availableProcessors();
+    private boolean warmRestart = false;
 
     private final Map<String, String> store = new ConcurrentHashMap<>();
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
 
     @Override
     public String name() {
@@ -93,14 +130,38 @@ public class OsgiModuleManagerService implements Service {
         }
         // start level
         if (properties.get(START_LEVEL_PROPERTY) != null) {
-            frameworkConfig.put(Constants.FRAMEWORK_BEGINNING_STARTLEVEL, properties.get(START_LEVEL_PROPERTY));
-        } else {
-            frameworkConfig.put(Constants.FRAMEWORK_BEGINNING_STARTLEVEL, "100");
+            startLevel = Integer.parseInt(properties.get(START_LEVEL_PROPERTY).toString());
         }
         // bundle start level
-        int bundleStartLevel = 80;
         if (properties.get(BUNDLE_START_LEVEL_PROPERTY) != null) {
-            bundleStartLevel = (int) properties.get(BUNDLE_START_LEVEL_PROPERTY);
+            bundleStartLevel = Integer.parseInt(properties.get(BUNDLE_START_LEVEL_PROPERTY).toString());
+        }
+        // install threads
+        if (properties.get(INSTALL_THREADS_PROPERTY) != null) {
+            installThreads = Integer.parseInt(properties.get(INSTALL_THREADS_PROPERTY).toString());
+        }
+        // warm restart
+        if (properties.get(WARM_RESTART_PROPERTY) != null) {
+            warmRestart = Boolean.parseBoolean(properties.get(WARM_RESTART_PROPERTY).toString());
+        }
+        // bridge between Minho and OSGi service registries
+        if (properties.get(BRIDGE_PROPERTY) != null) {
+            bridge = Boolean.parseBoolean(properties.get(BRIDGE_PROPERTY).toString());
+        }
+        // system packages extra (packages of the Minho services are exported when the bridge is enabled)
+        Set<String> systemPackagesExtra = new TreeSet<>();
+        if (properties.get(SYSTEM_PACKAGES_EXTRA_PROPERTY) != null) {
+            Arrays.stream(properties.get(SYSTEM_PACKAGES_EXTRA_PROPERTY).toString().split(",")).map(String::trim).forEach(systemPackagesExtra::add);
+        }
+        if (bridge) {
+            serviceRegistry.getAll().values().stream().flatMap(service -> publishedTypes(service.getClass()).stream())
+                    .map(Class::getPackageName).forEach(systemPackagesExtra::add);
+        }
+        // with warm restart, the framework starts at start level 1: the persisted modules are started only once
+        // updated and once the bridges are in place
+        frameworkConfig.put(Constants.FRAMEWORK_BEGINNING_STARTLEVEL, String.valueOf(warmRestart ? 1 : startLevel));
+        if (!systemPackagesExtra.isEmpty()) {
+            frameworkConfig.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, String.join(",", systemPackagesExtra));
         }
         // log level
         if (properties.get(LOG_LEVEL_PROPERTY) != null) {
@@ -118,6 +179,12 @@ public class OsgiModuleManagerService implements Service {
         log.info("OSGi bundles cache: " + cacheRootDir);
         frameworkConfig.put(BundleCache.CACHE_ROOTDIR_PROP, cacheRootDir);
 
+        // the Minho URL handler service is the JVM URL stream handler factory, the OSGi URL handlers are registered in it
+        URLHandlerService urlHandlerService = serviceRegistry.get(URLHandlerService.class);
+        if (urlHandlerService != null || URLHandlerService.isInstalled()) {
+            frameworkConfig.put(FelixConstants.SERVICE_URLHANDLERS_PROP, "false");
+        }
+
         FrameworkFactory frameworkFactory = new FrameworkFactory();
         framework = frameworkFactory.newFramework(frameworkConfig);
 
@@ -127,22 +194,56 @@ public class OsgiModuleManagerService implements Service {
         FrameworkStartLevel frameworkStartLevel = framework.adapt(FrameworkStartLevel.class);
         frameworkStartLevel.setInitialBundleStartLevel(bundleStartLevel);
 
+        if (warmRestart) {
+            loadChecksums();
+        }
+
+        if (urlHandlerService != null) {
+            urlHandlerBridge = new OsgiURLHandlerBridge(framework.getBundleContext(), urlHandlerService);
+        }
+
+        if (bridge) {
+            log.info("Bridging OSGi service registry with Minho service registry");
+            serviceLookup = new OsgiServiceLookup(framework.getBundleContext());
+            serviceRegistry.addLookup(serviceLookup);
+        }
+
         log.info("Registering service into lifecycle service");
         LifeCycleService lifeCycleService = serviceRegistry.get(LifeCycleService.class);
         lifeCycleService.onStart(() -> {
-            serviceRegistry.get(Config.class).getApplications().forEach(application -> {
+            if (bridge) {
+                publishServices(serviceRegistry);
+            }
+            List<Application> applications = serviceRegistry.get(Config.class).getApplications().stream()
+                    .filter(application -> application.getType() == null || application.getType().equals("osgi") || application.getType().equals(name()))
+                    .collect(toList());
+            try {
+                start(applications);
+            } finally {
+                raiseStartLevel();
+            }
+        });
+        lifeCycleService.onShutdown(() -> {
+            if (urlHandlerBridge != null) {
+                urlHandlerBridge.close();
+            }
+            if (bridge) {
+                serviceRegistry.removeLookup(serviceLookup);
+                serviceLookup.close();
+                unpublishServices();
+            }
+            if (warmRestart) {
+                // keep the modules installed in the framework storage for the next start
+                log.info("Stopping OSGi framework (warm restart)");
                 try {
-                    if (application.getType() == null && canHandle(application.getUrl())) {
-                        store.put(start(application.getUrl()), application.getUrl());
-                    } else if (application.getType().equals(name())) {
-                        store.put(start(application.getUrl()), application.getUrl());
-                    }
+                    storeChecksums();
+                    framework.stop();
+                    framework.waitForStop(30000);
                 } catch (Exception e) {
-                    throw new RuntimeException("Can't start OSGi module " + application.getUrl(), e);
+                    throw new RuntimeException("Can't stop OSGi framework", e);
                 }
-            });
-        });
-        lifeCycleService.onShutdown(() -> {
+                return;
+            }
             store.keySet().forEach(id -> {
                 try {
                     stop(id);
@@ -174,14 +275,206 @@ public class OsgiModuleManagerService implements Service {
         return framework.getBundleContext().registerService(clazz, service, properties);
     }
 
-    public String start(String url) throws Exception {
-        log.info("Starting OSGi module " + url);
+    /**
+     * Publish the Minho services in the OSGi service registry, with the service properties.
+     */
+    private void publishServices(ServiceRegistry serviceRegistry) {
+        serviceRegistry.getAll().values().stream().filter(service -> service != this).forEach(service -> {
+            String[] classes = publishedTypes(service.getClass()).stream().map(Class::getName).toArray(String[]::new);
+            Hashtable<String, Object> serviceProperties = new Hashtable<>();
+            service.properties().forEach((key, value) -> serviceProperties.put(key.toString(), value));
+            serviceProperties.put(MINHO_SERVICE_NAME, service.name());
+            try {
+                registrations.add(framework.getBundleContext().registerService(classes, service, serviceProperties));
+                log.fine("Minho service " + service.name() + " published in OSGi service registry");
+            } catch (Exception e) {
+                log.warning("Can't publish Minho service " + service.name() + " in OSGi service registry: " + e.getMessage());
+            }
+        });
+    }
+
+    private void unpublishServices() {
+        registrations.forEach(registration -> {
+            try {
+                registration.unregister();
+            } catch (IllegalStateException e) {
+                // already unregistered
+            }
+        });
+        registrations.clear();
+    }
+
+    /**
+     * Types used to publish a Minho service in the OSGi service registry: class hierarchy and interfaces, excluding java.* types.
+     */
+    private static Set<Class<?>> publishedTypes(Class<?> serviceClass) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        queue.add(serviceClass);
+        while (!queue.isEmpty()) {
+            Class<?> type = queue.poll();
+            if (type == Object.class || !types.add(type)) {
+                continue;
+            }
+            if (type.getSuperclass() != null) {
+                queue.add(type.getSuperclass());
+            }
+            queue.addAll(Arrays.asList(type.getInterfaces()));
+        }
+        types.removeIf(type -> type.getName().startsWith("java."));
+        return types;
+    }
+
+    public Framework getFramework() {
+        return framework;
+    }
+
+    /**
+     * Install a batch of OSGi modules, resolve them at once and start them by start level.
+     * Manifest inspection and installation (I/O bound) are done in parallel.
+     *
+     * @param applications the applications to start, untyped applications are inspected to check if they are OSGi modules.
+     */
+    public void start(List<Application> applications) {
+        final IllegalStateException ise = new IllegalStateException("Can't start OSGi modules");
+        long begin = System.nanoTime();
+
+        if (warmRestart) {
+            // uninstall modules installed by a previous run and not configured anymore, before installing the new ones
+            // (a new location can provide the same symbolic name and version as a stale one)
+            uninstallStale(applications, ise);
+        }
+        if (applications.isEmpty()) {
+            if (ise.getSuppressed().length > 0) {
+                throw ise;
+            }
+            return;
+        }
+
+        // install
+        Map<Bundle, Application> installed = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(installThreads, applications.size())), new InstallThreadFactory());
+        try {
+            List<Future<Bundle>> futures = applications.stream()
+                    .map(application -> executor.submit(() -> install(application)))
+                    .collect(toList());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    Bundle bundle = futures.get(i).get();
+                    if (bundle != null) {
+                        installed.put(bundle, applications.get(i));
+                        store.put(bundle.getLocation(), applications.get(i).getUrl());
+                    }
+                } catch (ExecutionException e) {
+                    ise.addSuppressed(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    ise.addSuppressed(e);
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (warmRestart) {
+            if (updated.getAndSet(false)) {
+                refresh();
+            }
+            storeChecksums();
+        }
+        long installEnd = System.nanoTime();
+        log.info("Installed " + installed.size() + " OSGi module(s) in " + TimeUnit.NANOSECONDS.toMillis(installEnd - begin) + "ms");
+
+        // resolve
+        if (!framework.adapt(FrameworkWiring.class).resolveBundles(installed.keySet())) {
+            installed.keySet().stream().filter(bundle -> bundle.getState() == Bundle.INSTALLED)
+                    .forEach(bundle -> log.warning("OSGi module " + bundle.getSymbolicName() + "/" + bundle.getVersion() + " is not resolved"));
+        }
+        long resolveEnd = System.nanoTime();
+        log.info("Resolved OSGi modules in " + TimeUnit.NANOSECONDS.toMillis(resolveEnd - installEnd) + "ms");
+
+        // start by start level
+        raiseStartLevel();
+        installed.keySet().stream()
+                .sorted(Comparator.comparingInt(bundle -> bundle.adapt(BundleStartLevel.class).getStartLevel()))
+                .forEach(bundle -> {
+                    try {
+                        activate(bundle);
+                    } catch (Exception e) {
+                        ise.addSuppressed(e);
+                    }
+                });
+        long startEnd = System.nanoTime();
+        log.info("Started OSGi modules in " + TimeUnit.NANOSECONDS.toMillis(startEnd - resolveEnd) + "ms (total " + TimeUnit.NANOSECONDS.toMillis(startEnd - begin) + "ms)");
+
+        if (ise.getSuppressed().length > 0) {
+            throw ise;
+        }
+    }
+
+    /**
+     * Uninstall the modules persisted in the framework storage and not part of the configured applications.
+     */
+    private void uninstallStale(List<Application> applications, IllegalStateException ise) {
+        Set<String> configured = applications.stream().map(Application::getUrl).collect(toSet());
+        checksums.keySet().removeIf(location -> !configured.contains(location));
+        Arrays.stream(framework.getBundleContext().getBundles())
+                .filter(bundle -> bundle.getBundleId() != Constants.SYSTEM_BUNDLE_ID && !configured.contains(bundle.getLocation()))
+                .forEach(bundle -> {
+                    log.info("Uninstalling OSGi module " + bundle.getLocation());
+                    try {
+                        bundle.uninstall();
+                        updated.set(true);
+                    } catch (Exception e) {
+                        ise.addSuppressed(e);
+                    }
+                });
+        if (updated.getAndSet(false)) {
+            refresh();
+            storeChecksums();
+        }
+    }
+
+    private Bundle install(Application application) {
+        Bundle existing = warmRestart ? framework.getBundleContext().getBundle(application.getUrl()) : null;
+        if (existing == null && application.getType() == null && !canHandle(application.getUrl())) {
+            return null;
+        }
+        long begin = System.nanoTime();
         Bundle bundle;
         try {
-            bundle = framework.getBundleContext().installBundle(url);
+            if (warmRestart) {
+                String checksum = checksum(application.getUrl());
+                if (existing != null && checksum.equals(checksums.get(application.getUrl()))) {
+                    log.fine("OSGi module " + application.getUrl() + " is unchanged");
+                    return existing;
+                }
+                if (existing != null) {
+                    log.info("Updating OSGi module " + application.getUrl());
+                    try (InputStream inputStream = new URL(application.getUrl()).openStream()) {
+                        existing.update(inputStream);
+                    }
+                    updated.set(true);
+                    bundle = existing;
+                } else {
+                    bundle = framework.getBundleContext().installBundle(application.getUrl());
+                }
+                checksums.put(application.getUrl(), checksum);
+            } else {
+                bundle = framework.getBundleContext().installBundle(application.getUrl());
+            }
         } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to install OSGi module " + url, e);
+            throw new IllegalArgumentException("Failed to install OSGi module " + application.getUrl(), e);
+        }
+        if (application.getProperty(START_LEVEL_PROPERTY) != null) {
+            bundle.adapt(BundleStartLevel.class).setStartLevel(Integer.parseInt(application.getProperty(START_LEVEL_PROPERTY)));
         }
+        log.fine("Installed OSGi module " + application.getUrl() + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + "ms");
+        return bundle;
+    }
+
+    private void activate(Bundle bundle) {
+        long begin = System.nanoTime();
         log.info("Activating OSGi module " + bundle.getSymbolicName() + "/" + bundle.getVersion());
         try {
             if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
@@ -192,6 +485,87 @@ public class OsgiModuleManagerService implements Service {
         } catch (Exception e) {
             throw new IllegalStateException("Failed to start OSGi module " + bundle.getSymbolicName() + "/" + bundle.getVersion(), e);
         }
+        log.fine("Activated OSGi module " + bundle.getSymbolicName() + "/" + bundle.getVersion() + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + "ms");
+    }
+
+    /**
+     * Raise the framework start level to the configured one, starting the persisted modules (warm restart).
+     */
+    private void raiseStartLevel() {
+        FrameworkStartLevel frameworkStartLevel = framework.adapt(FrameworkStartLevel.class);
+        if (frameworkStartLevel.getStartLevel() >= startLevel) {
+            return;
+        }
+        CountDownLatch changed = new CountDownLatch(1);
+        frameworkStartLevel.setStartLevel(startLevel, event -> changed.countDown());
+        try {
+            changed.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void refresh() {
+        CountDownLatch refreshed = new CountDownLatch(1);
+        framework.adapt(FrameworkWiring.class).refreshBundles(null, event -> refreshed.countDown());
+        try {
+            refreshed.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String checksum(String url) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream inputStream = new URL(url).openStream()) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    private void loadChecksums() throws Exception {
+        File file = framework.getBundleContext().getDataFile(CHECKSUMS_FILE);
+        if (file != null && file.exists()) {
+            Properties properties = new Properties();
+            try (InputStream inputStream = new FileInputStream(file)) {
+                properties.load(inputStream);
+            }
+            properties.stringPropertyNames().forEach(location -> checksums.put(location, properties.getProperty(location)));
+            log.info("OSGi warm restart: " + checksums.size() + " module(s) already installed");
+        }
+    }
+
+    private void storeChecksums() {
+        File file = framework.getBundleContext().getDataFile(CHECKSUMS_FILE);
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.putAll(checksums);
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            properties.store(outputStream, "Minho OSGi modules checksums");
+        } catch (Exception e) {
+            log.warning("Can't store OSGi modules checksums: " + e.getMessage());
+        }
+    }
+
+    public String start(String url) throws Exception {
+        log.info("Starting OSGi module " + url);
+        Bundle bundle;
+        try {
+            bundle = framework.getBundleContext().installBundle(url);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Failed to install OSGi module " + url, e);
+        }
+        activate(bundle);
         return bundle.getLocation();
     }
 
@@ -208,4 +582,17 @@ public class OsgiModuleManagerService implements Service {
         }
     }
 
+    private static class InstallThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "minho-osgi-install-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.osgi;
+
+import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.spi.ServiceLookup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Lookup of OSGi services from the Minho service registry.
+ * The services are cached by type, an OSGi service event only invalidating the types of the changed service (its
+ * {@code objectClass}). A service object is got once per reference, shared by the types it's looked up with, and
+ * released when the service is unregistered.
+ */
+@Log
+public class OsgiServiceLookup implements ServiceLookup, ServiceListener, AutoCloseable {
+
+    // services published by Minho in the OSGi registry are not looked up (they are already in the Minho registry)
+    private final static String FILTER = "(!(" + OsgiModuleManagerService.MINHO_SERVICE_NAME + "=*))";
+
+    private final BundleContext bundleContext;
+    private final Map<Class<?>, List<Object>> cache = new ConcurrentHashMap<>();
+    private final Map<ServiceReference<?>, Object> references = new ConcurrentHashMap<>();
+
+    public OsgiServiceLookup(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        try {
+            this.bundleContext.addServiceListener(this, FILTER);
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public <T> Stream<T> lookup(Class<T> serviceClass) {
+        return cache.computeIfAbsent(serviceClass, this::getServices).stream().map(serviceClass::cast);
+    }
+
+    private List<Object> getServices(Class<?> serviceClass) {
+        Collection<? extends ServiceReference<?>> serviceReferences;
+        try {
+            serviceReferences = bundleContext.getServiceReferences(serviceClass, FILTER);
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalStateException e) {
+            // bundle context is not valid anymore
+            return Collections.emptyList();
+        }
+        List<Object> services = new ArrayList<>();
+        serviceReferences.stream().sorted(Comparator.reverseOrder()).forEach(reference -> {
+            Object service = references.computeIfAbsent(reference, bundleContext::getService);
+            if (service != null) {
+                services.add(service);
+            }
+        });
+        return services;
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        ServiceReference<?> reference = event.getServiceReference();
+        List<String> objectClasses = Arrays.asList((String[]) reference.getProperty(Constants.OBJECTCLASS));
+        cache.keySet().removeIf(type -> objectClasses.contains(type.getName()));
+        if (event.getType() == ServiceEvent.UNREGISTERING || event.getType() == ServiceEvent.MODIFIED_ENDMATCH) {
+            if (references.remove(reference) != null) {
+                bundleContext.ungetService(reference);
+            }
+        }
+    }
+
+    private void invalidate() {
+        cache.clear();
+        references.keySet().forEach(reference -> {
+            if (references.remove(reference) != null) {
+                bundleContext.ungetService(reference);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        try {
+            bundleContext.removeServiceListener(this);
+            invalidate();
+        } catch (IllegalStateException e) {
+            log.fine("OSGi framework already stopped");
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.osgi;
+
+import lombok.extern.java.Log;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
+import org.osgi.framework.*;
+import org.osgi.service.url.URLConstants;
+import org.osgi.service.url.URLStreamHandlerService;
+import org.osgi.service.url.URLStreamHandlerSetter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Register the OSGi URL handlers ({@link URLStreamHandlerService} services, whiteboard) in the Minho URL handler service.
+ * The Minho URL handler service is the single JVM URL stream handler factory, the Felix one being disabled.
+ */
+@Log
+public class OsgiURLHandlerBridge implements ServiceListener, AutoCloseable {
+
+    private final static String FILTER = "(" + Constants.OBJECTCLASS + "=" + URLStreamHandlerService.class.getName() + ")";
+
+    private final BundleContext bundleContext;
+    private final URLHandlerService urlHandlerService;
+    private final Map<ServiceReference<?>, Map<String, URLStreamHandler>> handlers = new ConcurrentHashMap<>();
+
+    public OsgiURLHandlerBridge(BundleContext bundleContext, URLHandlerService urlHandlerService) throws InvalidSyntaxException {
+        this.bundleContext = bundleContext;
+        this.urlHandlerService = urlHandlerService;
+        this.bundleContext.addServiceListener(this, FILTER);
+        ServiceReference<?>[] references = bundleContext.getServiceReferences(URLStreamHandlerService.class.getName(), null);
+        if (references != null) {
+            for (ServiceReference<?> reference : references) {
+                register(reference);
+            }
+        }
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        switch (event.getType()) {
+            case ServiceEvent.REGISTERED:
+                register(event.getServiceReference());
+                break;
+            case ServiceEvent.MODIFIED:
+                unregister(event.getServiceReference());
+                register(event.getServiceReference());
+                break;
+            case ServiceEvent.UNREGISTERING:
+            case ServiceEvent.MODIFIED_ENDMATCH:
+                unregister(event.getServiceReference());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void register(ServiceReference<?> reference) {
+        Object service = bundleContext.getService(reference);
+        if (!(service instanceof URLStreamHandlerService)) {
+            return;
+        }
+        Object property = reference.getProperty(URLConstants.URL_HANDLER_PROTOCOL);
+        List<String> protocols = new ArrayList<>();
+        if (property instanceof String) {
+            protocols.add((String) property);
+        } else if (property instanceof String[]) {
+            protocols.addAll(List.of((String[]) property));
+        }
+        Map<String, URLStreamHandler> registered = new HashMap<>();
+        for (String protocol : protocols) {
+            URLStreamHandler handler = new Handler((URLStreamHandlerService) service);
+            log.info("Registering OSGi URL handler for protocol " + protocol);
+            urlHandlerService.register(protocol, handler);
+            registered.put(protocol, handler);
+        }
+        handlers.put(reference, registered);
+    }
+
+    private void unregister(ServiceReference<?> reference) {
+        Map<String, URLStreamHandler> registered = handlers.remove(reference);
+        if (registered != null) {
+            registered.forEach(urlHandlerService::unregister);
+            try {
+                bundleContext.ungetService(reference);
+            } catch (IllegalStateException e) {
+                log.fine("OSGi framework already stopped");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            bundleContext.removeServiceListener(this);
+        } catch (IllegalStateException e) {
+            log.fine("OSGi framework already stopped");
+        }
+        handlers.keySet().forEach(this::unregister);
+    }
+
+    /**
+     * URL stream handler delegating to the OSGi URL handler service.
+     */
+    private static class Handler extends URLStreamHandler implements URLStreamHandlerSetter {
+
+        private final URLStreamHandlerService service;
+
+        Handler(URLStreamHandlerService service) {
+            this.service = service;
+        }
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            return service.openConnection(url);
+        }
+
+        @Override
+        protected void parseURL(URL url, String spec, int start, int limit) {
+            service.parseURL(this, url, spec, start, limit);
+        }
+
+        @Override
+        protected String toExternalForm(URL url) {
+            return service.toExternalForm(url);
+        }
+
+        @Override
+        protected boolean equals(URL url1, URL url2) {
+            return service.equals(url1, url2);
+        }
+
+        @Override
+        protected int getDefaultPort() {
+            return service.getDefaultPort();
+        }
+
+        @Override
+        protected InetAddress getHostAddress(URL url) {
+            return service.getHostAddress(url);
+        }
+
+        @Override
+        protected int hashCode(URL url) {
+            return service.hashCode(url);
+        }
+
+        @Override
+        protected boolean hostsEqual(URL url1, URL url2) {
+            return service.hostsEqual(url1, url2);
+        }
+
+        @Override
+        protected boolean sameFile(URL url1, URL url2) {
+            return service.sameFile(url1, url2);
+        }
+
+        @Override
+        public void setURL(URL url, String protocol, String host, int port, String authority, String userInfo, String path, String query, String ref) {
+            super.setURL(url, protocol, host, port, authority, userInfo, path, query, ref);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setURL(URL url, String protocol, String host, int port, String file, String ref) {
+            super.setURL(url, protocol, host, port, file, ref);
+        }
+
+    }
+
+}
@@ -18,11 +18,50 @@
 package org.apache.karaf.minho.osgi;
 
 import org.apache.karaf.minho.boot.Minho;
+import org.apache.karaf.minho.boot.config.Application;
+import org.apache.karaf.minho.boot.service.ConfigService;
+import org.apache.karaf.minho.boot.service.LifeCycleService;
+import org.apache.karaf.minho.boot.service.URLHandlerService;
+import org.apache.karaf.minho.boot.spi.Service;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+import org.osgi.service.url.AbstractURLStreamHandlerService;
+import org.osgi.service.url.URLConstants;
+import org.osgi.service.url.URLStreamHandlerService;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
 
 public class OsgiModuleManagerServiceTest {
 
+    @BeforeAll
+    public static void urlHandlerService() {
+        // the Minho URL stream handler factory is installed first, as in a runtime (boot service)
+        new URLHandlerService().onRegister(null);
+    }
+
     @Test
     public void simpleTest() throws Exception {
         Minho minho = Minho.builder().build().start();
@@ -30,4 +69,253 @@ public class OsgiModuleManagerServiceTest {
         Assertions.assertNotNull(minho.getServiceRegistry().get(OsgiModuleManagerService.class));
     }
 
+    @Test
+    public void batchStart() throws Exception {
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("osgi.storageDirectory", "target/osgi-batch");
+        configService.getProperties().put("osgi.cache", "target/osgi-batch/cache");
+        configService.getProperties().put("osgi.clearCache", "true");
+        for (int i = 0; i < 20; i++) {
+            Application application = new Application();
+            application.setUrl(createBundle("test.bundle" + i).toUri().toString());
+            if (i % 2 == 0) {
+                application.setType("osgi");
+            }
+            configService.getApplications().add(application);
+        }
+        OsgiModuleManagerService service = new OsgiModuleManagerService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), service)).build().start();
+
+        for (int i = 0; i < 20; i++) {
+            Bundle bundle = service.getFramework().getBundleContext().getBundle(createBundle("test.bundle" + i).toUri().toString());
+            Assertions.assertNotNull(bundle);
+            Assertions.assertEquals(Bundle.ACTIVE, bundle.getState());
+        }
+
+        minho.close();
+    }
+
+    @Test
+    public void warmRestart() throws Exception {
+        // start from an empty framework storage
+        Path storage = Paths.get("target/osgi-warm");
+        if (Files.exists(storage)) {
+            try (Stream<Path> paths = Files.walk(storage)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        Path unchanged = createBundle("test.warm.unchanged", "1.0.0", true);
+        Path changed = createBundle("test.warm.changed", "1.0.0", true);
+        Path removed = createBundle("test.warm.removed", "1.0.0", true);
+        Path moved = createBundle("test.warm.moved", "1.0.0", true);
+
+        OsgiModuleManagerService service = new OsgiModuleManagerService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(warmConfig(unchanged, changed, removed, moved), new LifeCycleService(), service)).build().start();
+        long unchangedId = service.getFramework().getBundleContext().getBundle(unchanged.toUri().toString()).getBundleId();
+        minho.close();
+
+        createBundle("test.warm.changed", "2.0.0", true);
+        Path added = createBundle("test.warm.added", "1.0.0", true);
+        // same symbolic name and version, new location
+        Path relocated = Paths.get("target/bundles/relocated/test.warm.moved.jar");
+        Files.createDirectories(relocated.getParent());
+        Files.copy(moved, relocated, StandardCopyOption.REPLACE_EXISTING);
+
+        OsgiModuleManagerService restarted = new OsgiModuleManagerService();
+        minho = Minho.builder().loader(() -> Stream.of(warmConfig(unchanged, changed, added, relocated), new LifeCycleService(), restarted)).build().start();
+
+        Bundle unchangedBundle = restarted.getFramework().getBundleContext().getBundle(unchanged.toUri().toString());
+        Assertions.assertEquals(100, restarted.getFramework().adapt(FrameworkStartLevel.class).getStartLevel());
+        Assertions.assertEquals(unchangedId, unchangedBundle.getBundleId());
+        Assertions.assertEquals(Bundle.ACTIVE, unchangedBundle.getState());
+        Assertions.assertEquals("2.0.0", restarted.getFramework().getBundleContext().getBundle(changed.toUri().toString()).getVersion().toString());
+        Assertions.assertNull(restarted.getFramework().getBundleContext().getBundle(removed.toUri().toString()));
+        Assertions.assertEquals(Bundle.ACTIVE, restarted.getFramework().getBundleContext().getBundle(added.toUri().toString()).getState());
+        Assertions.assertNull(restarted.getFramework().getBundleContext().getBundle(moved.toUri().toString()));
+        Assertions.assertEquals(Bundle.ACTIVE, restarted.getFramework().getBundleContext().getBundle(relocated.toUri().toString()).getState());
+
+        // installed at runtime, so not part of the checksums
+        Path runtime = createBundle("test.warm.runtime", "1.0.0", true);
+        restarted.start(runtime.toUri().toString());
+        minho.close();
+
+        // no application configured anymore: the persisted modules are not started again
+        OsgiModuleManagerService emptied = new OsgiModuleManagerService();
+        minho = Minho.builder().loader(() -> Stream.of(warmConfig(), new LifeCycleService(), emptied)).build().start();
+        Assertions.assertEquals(1, emptied.getFramework().getBundleContext().getBundles().length);
+        minho.close();
+    }
+
+    @Test
+    public void bridge() throws Exception {
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("osgi.storageDirectory", "target/osgi-bridge");
+        configService.getProperties().put("osgi.cache", "target/osgi-bridge/cache");
+        configService.getProperties().put("osgi.clearCache", "true");
+        OsgiModuleManagerService service = new OsgiModuleManagerService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), new BridgedService(), service)).build().start();
+
+        // Minho -> OSGi
+        ServiceReference<BridgedService> reference = service.getFramework().getBundleContext().getServiceReference(BridgedService.class);
+        Assertions.assertNotNull(reference);
+        Assertions.assertEquals("bar", reference.getProperty("foo"));
+        Assertions.assertEquals("bridgedservice", reference.getProperty(OsgiModuleManagerService.MINHO_SERVICE_NAME));
+        Assertions.assertNotNull(service.getFramework().getBundleContext().getServiceReference(Service.class));
+
+        // OSGi -> Minho
+        Assertions.assertNull(minho.getServiceRegistry().get(Greeter.class));
+        Greeter greeter = () -> "hello";
+        ServiceRegistration<Greeter> registration = service.registerService(Greeter.class, greeter, null);
+        Assertions.assertSame(greeter, minho.getServiceRegistry().get(Greeter.class));
+        registration.unregister();
+        Assertions.assertNull(minho.getServiceRegistry().get(Greeter.class));
+
+        // a service looked up with several types is got once, and released on unregistration
+        FrenchGreeter frenchGreeter = new FrenchGreeter();
+        ServiceRegistration<?> multiple = service.getFramework().getBundleContext().registerService(new String[]{ Greeter.class.getName(), FrenchGreeter.class.getName() }, frenchGreeter, null);
+        Assertions.assertSame(frenchGreeter, minho.getServiceRegistry().get(Greeter.class));
+        Assertions.assertSame(frenchGreeter, minho.getServiceRegistry().get(FrenchGreeter.class));
+        ServiceReference<?> multipleReference = multiple.getReference();
+        Assertions.assertEquals(1, multipleReference.getUsingBundles().length);
+
+        // only the types of the changed service are looked up again
+        ServiceRegistration<Runnable> unrelated = service.registerService(Runnable.class, () -> {}, null);
+        Assertions.assertEquals(1, multipleReference.getUsingBundles().length);
+        Hashtable<String, Object> ranking = new Hashtable<>();
+        ranking.put(org.osgi.framework.Constants.SERVICE_RANKING, 10);
+        Greeter hi = () -> "hi";
+        ServiceRegistration<Greeter> other = service.registerService(Greeter.class, hi, ranking);
+        Assertions.assertSame(hi, minho.getServiceRegistry().get(Greeter.class));
+        Assertions.assertSame(frenchGreeter, minho.getServiceRegistry().get(FrenchGreeter.class));
+        other.unregister();
+        Assertions.assertSame(frenchGreeter, minho.getServiceRegistry().get(Greeter.class));
+        multiple.unregister();
+        Assertions.assertNull(multipleReference.getUsingBundles());
+        Assertions.assertNull(minho.getServiceRegistry().get(Greeter.class));
+        Assertions.assertNull(minho.getServiceRegistry().get(FrenchGreeter.class));
+        unrelated.unregister();
+
+        minho.close();
+    }
+
+    @Test
+    public void urlHandlers() throws Exception {
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("osgi.storageDirectory", "target/osgi-url");
+        configService.getProperties().put("osgi.cache", "target/osgi-url/cache");
+        configService.getProperties().put("osgi.clearCache", "true");
+        URLHandlerService urlHandlerService = new URLHandlerService();
+        OsgiModuleManagerService service = new OsgiModuleManagerService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), urlHandlerService, service)).build().start();
+
+        // Minho URL handler
+        urlHandlerService.register("minho-url", handler("minho"));
+        Assertions.assertEquals("minho", read(new URL("minho-url:test")));
+
+        // OSGi URL handler (whiteboard)
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(URLConstants.URL_HANDLER_PROTOCOL, new String[]{ "osgi-url" });
+        ServiceRegistration<URLStreamHandlerService> registration = service.registerService(URLStreamHandlerService.class, new AbstractURLStreamHandlerService() {
+            @Override
+            public URLConnection openConnection(URL url) {
+                return connection(url, "osgi");
+            }
+        }, properties);
+        Assertions.assertEquals("osgi", read(new URL("osgi-url:test")));
+        registration.unregister();
+        Assertions.assertNull(urlHandlerService.getHandler("osgi-url"));
+
+        minho.close();
+    }
+
+    private static String read(URL url) throws Exception {
+        try (InputStream inputStream = url.openStream()) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static URLStreamHandler handler(String content) {
+        return new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return connection(url, content);
+            }
+        };
+    }
+
+    private static URLConnection connection(URL url, String content) {
+        return new URLConnection(url) {
+            @Override
+            public void connect() {
+                connected = true;
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    public interface Greeter {
+
+        String greet();
+
+    }
+
+    public static class FrenchGreeter implements Greeter {
+
+        @Override
+        public String greet() {
+            return "bonjour";
+        }
+
+    }
+
+    public static class BridgedService implements Service {
+
+        @Override
+        public Properties properties() {
+            Properties properties = new Properties();
+            properties.put("foo", "bar");
+            return properties;
+        }
+
+    }
+
+    private static ConfigService warmConfig(Path... bundles) {
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("osgi.storageDirectory", "target/osgi-warm");
+        configService.getProperties().put("osgi.cache", "target/osgi-warm/cache");
+        configService.getProperties().put("osgi.warmRestart", "true");
+        for (Path bundle : bundles) {
+            Application application = new Application();
+            application.setUrl(bundle.toUri().toString());
+            application.setType("osgi");
+            configService.getApplications().add(application);
+        }
+        return configService;
+    }
+
+    private static Path createBundle(String symbolicName) throws Exception {
+        return createBundle(symbolicName, "1.0.0", false);
+    }
+
+    private static Path createBundle(String symbolicName, String version, boolean overwrite) throws Exception {
+        Path bundle = Paths.get("target/bundles/" + symbolicName + ".jar");
+        if (Files.exists(bundle) && !overwrite) {
+            return bundle;
+        }
+        Files.createDirectories(bundle.getParent());
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Bundle-ManifestVersion", "2");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+        manifest.getMainAttributes().putValue("Bundle-Version", version);
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(bundle.toFile()), manifest)) {
+            // manifest only bundle
+        }
+        return bundle;
+    }
+
 }
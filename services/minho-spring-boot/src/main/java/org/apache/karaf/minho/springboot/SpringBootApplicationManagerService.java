@@ -26,15 +26,51 @@ import org.apache.karaf.minho.boot.service.LifeCycleService;
 import org.apache.karaf.minho.boot.service.ServiceRegistry;
 import org.apache.karaf.minho.boot.spi.Service;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 @Log
 public class SpringBootApplicationManagerService implements Service {
 
+    private final static String ADMIN_JMX_DOMAIN = "org.springframework.boot:type=Admin,name=";
+    private final static String DEPENDS_ON_PROPERTY = "dependsOn";
+    private final static String SHARED_LOADER_PROPERTY = "sharedLoader";
+    private final static String BOOT_INF_LIB = "BOOT-INF/lib/";
+    private final static String BOOT_INF_CLASSES = "BOOT-INF/classes/";
+
+    private final Map<String, SpringBootModule> modules = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Manifest> manifests = new ConcurrentHashMap<>();
+    private ClassLoaderService classLoaderService;
+    private int startThreads = Runtime.getRuntime().availableProcessors();
+    private boolean sharedLoader = false;
+    private Path sharedLibraries = Paths.get(System.getProperty("java.io.tmpdir"), "minho-spring-boot-shared");
+    private final Map<String, URLClassLoader> sharedClassLoaders = new ConcurrentHashMap<>();
+
     @Override
     public String name() {
         return "minho-spring-boot-module-manager-service";
@@ -47,18 +83,38 @@ public class SpringBootApplicationManagerService implements Service {
 
     @Override
     public void onRegister(ServiceRegistry serviceRegistry) throws Exception {
-        ClassLoaderService classLoaderService = serviceRegistry.get(ClassLoaderService.class);
+        classLoaderService = serviceRegistry.get(ClassLoaderService.class);
+        ConfigService configService = serviceRegistry.get(ConfigService.class);
+        if (configService != null) {
+            startThreads = Integer.parseInt(configService.getProperty("spring-boot.startThreads", Integer.toString(startThreads)));
+            sharedLoader = Boolean.parseBoolean(configService.getProperty("spring-boot.sharedLoader", Boolean.toString(sharedLoader)));
+            sharedLibraries = Paths.get(configService.getProperty("spring-boot.sharedLibraries", sharedLibraries.toString()));
+        }
         LifeCycleService lifeCycleService = serviceRegistry.get(LifeCycleService.class);
-        lifeCycleService.onStart(() -> {
-            getApplications(serviceRegistry.get(ConfigService.class)).forEach(application -> {
+        lifeCycleService.onStart(() -> start(getApplications(configService)));
+        lifeCycleService.onShutdown(() -> {
+            final IllegalStateException ise = new IllegalStateException("Can't stop Spring Boot modules");
+            List<String> ids = new ArrayList<>(getModules());
+            Collections.reverse(ids);
+            ids.forEach(id -> {
+                try {
+                    stop(id);
+                } catch (Exception e) {
+                    ise.addSuppressed(e);
+                }
+            });
+            sharedClassLoaders.values().forEach(classLoader -> {
                 try {
-                    start(application.getUrl(), application.getProfile(), classLoaderService, application.getProperties());
+                    classLoader.close();
                 } catch (Exception e) {
-                    throw new RuntimeException("Can't start Spring Boot module " + application.getUrl(), e);
+                    ise.addSuppressed(e);
                 }
             });
+            sharedClassLoaders.clear();
+            if (ise.getSuppressed().length > 0) {
+                throw ise;
+            }
         });
-        // TODO add shutdown hook
     }
 
     protected List<Application> getApplications(Config config) {
@@ -79,25 +135,416 @@ public class SpringBootApplicationManagerService implements Service {
 
     private boolean canHandle(String url) {
         try {
-            try (JarInputStream jarInputStream = new JarInputStream(new URL(url).openStream())) {
-                if (jarInputStream.getManifest().getMainAttributes().getValue("Spring-Boot-Version") != null) {
-                    return true;
-                }
-            }
+            Manifest manifest = manifest(url);
+            return manifest != null && manifest.getMainAttributes().getValue("Spring-Boot-Version") != null;
         } catch (Exception e) {
             // no-op
         }
         return false;
     }
 
-    private String start(String url, String profile, ClassLoaderService classLoaderService, Map<String, String> properties) throws Exception {
-        log.info("Starting Spring Boot module " + url);
-        URLClassLoader classLoader = null;
-        if (profile == null) {
-            classLoader = new URLClassLoader(new URL[]{new URL(url)}, this.getClass().getClassLoader());
-        } else {
-            classLoader = new URLClassLoader(new URL[]{new URL(url)}, classLoaderService.getClassLoader(profile));
+    /**
+     * Read the manifest of a Spring Boot jar, only once per URL.
+     */
+    private Manifest manifest(String url) {
+        return manifests.computeIfAbsent(url, key -> {
+            try (JarInputStream jarInputStream = new JarInputStream(new URL(key).openStream())) {
+                return jarInputStream.getManifest();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Start Spring Boot modules concurrently.
+     * An application can define the {@code dependsOn} property (comma separated list of application names):
+     * the application is started once all its dependencies are started.
+     *
+     * @param applications the Spring Boot applications to start.
+     */
+    public void start(List<Application> applications) {
+        if (applications.isEmpty()) {
+            return;
+        }
+        // the whole dependency graph is validated before any module is started
+        Map<String, Application> names = new LinkedHashMap<>();
+        applications.forEach(application -> {
+            if (names.putIfAbsent(name(application), application) != null) {
+                throw new IllegalStateException("Spring Boot module " + name(application) + " is defined more than once");
+            }
+        });
+        List<String> sorted = sort(names);
+
+        final IllegalStateException ise = new IllegalStateException("Can't start Spring Boot modules");
+        long begin = System.nanoTime();
+        long metaspace = metaspaceUsed();
+
+        if (sharedLoader) {
+            applications.stream().filter(application -> Boolean.parseBoolean(application.getProperty(SHARED_LOADER_PROPERTY, "true")))
+                    .collect(Collectors.groupingBy(this::profile, LinkedHashMap::new, Collectors.toList()))
+                    .forEach((profile, group) -> {
+                        try {
+                            createSharedClassLoader(profile, group);
+                        } catch (Exception e) {
+                            log.log(Level.WARNING, "Can't create Spring Boot shared class loader, modules use their own libraries", e);
+                        }
+                    });
+        }
+
+        Map<String, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(startThreads, applications.size())), new StartThreadFactory());
+        try {
+            sorted.forEach(name -> schedule(name, names.get(name), futures, executor));
+            futures.forEach((name, future) -> {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // failures of dependencies are reported only once
+                    if (!(e.getCause() instanceof DependencyException)) {
+                        ise.addSuppressed(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    ise.addSuppressed(e);
+                }
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info(applications.size() + " Spring Boot module(s) started in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        if (metaspace >= 0) {
+            // metaspace growth during the start (all modules and shared loaders), not a saving against unshared libraries
+            log.info("Metaspace used by the Spring Boot modules start: " + (metaspaceUsed() - metaspace) / 1024 + " KB");
+        }
+
+        if (ise.getSuppressed().length > 0) {
+            throw ise;
+        }
+    }
+
+    /**
+     * Sort the Spring Boot modules by dependencies (topological sort), the dependencies come first.
+     *
+     * @throws IllegalStateException if a module depends on an unknown module or if there is a dependency cycle.
+     */
+    private List<String> sort(Map<String, Application> names) {
+        List<String> sorted = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        names.keySet().forEach(name -> visit(name, names, new LinkedHashSet<>(), visited, sorted));
+        return sorted;
+    }
+
+    private void visit(String name, Map<String, Application> names, Set<String> path, Set<String> visited, List<String> sorted) {
+        if (visited.contains(name)) {
+            return;
+        }
+        if (!path.add(name)) {
+            throw new IllegalStateException("Spring Boot modules dependency cycle: " + String.join(" -> ", path) + " -> " + name);
+        }
+        for (String dependency : dependencies(names.get(name))) {
+            if (!names.containsKey(dependency)) {
+                throw new IllegalStateException("Spring Boot module " + name + " depends on unknown module " + dependency);
+            }
+            visit(dependency, names, path, visited, sorted);
+        }
+        path.remove(name);
+        visited.add(name);
+        sorted.add(name);
+    }
+
+    private List<String> dependencies(Application application) {
+        return Arrays.stream(Optional.ofNullable(application.getProperty(DEPENDS_ON_PROPERTY)).orElse("").split(","))
+                .map(String::trim).filter(dependency -> !dependency.isEmpty()).collect(Collectors.toList());
+    }
+
+    /**
+     * Schedule the start of a Spring Boot module once its dependencies (already scheduled) are started.
+     */
+    private void schedule(String name, Application application, Map<String, CompletableFuture<String>> futures, Executor executor) {
+        List<CompletableFuture<String>> dependencies = dependencies(application).stream().map(futures::get).collect(Collectors.toList());
+        CompletableFuture<String> future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                .handleAsync((result, throwable) -> {
+                    if (throwable != null) {
+                        throw new DependencyException("Spring Boot module " + name + " not started as a dependency failed to start", throwable);
+                    }
+                    try {
+                        return start(application);
+                    } catch (Exception e) {
+                        throw new CompletionException(new IllegalStateException("Can't start Spring Boot module " + application.getUrl(), e));
+                    }
+                }, executor);
+        futures.put(name, future);
+    }
+
+    private String name(Application application) {
+        return application.getName() != null ? application.getName() : application.getUrl();
+    }
+
+    private String profile(Application application) {
+        return application.getProfile() != null ? application.getProfile() : "";
+    }
+
+    private ClassLoader parent(Application application) {
+        URLClassLoader shared = sharedClassLoaders.get(profile(application));
+        if (shared != null && Boolean.parseBoolean(application.getProperty(SHARED_LOADER_PROPERTY, "true"))) {
+            return shared;
+        }
+        if (application.getProfile() == null) {
+            return this.getClass().getClassLoader();
+        }
+        return classLoaderService.getClassLoader(application.getProfile());
+    }
+
+    /**
+     * Hoist the libraries (BOOT-INF/lib) shared by all Spring Boot applications of a profile (same checksum) into a
+     * common class loader, parent of the module class loaders. Only the libraries present in all the applications are
+     * hoisted, so an application never sees a library it doesn't embed. The hoisted libraries are closed under their
+     * dependencies: a library referencing a class only provided by a non hoisted library (or by the applications
+     * classes) is not hoisted, as the shared class loader can't see the classes of the module class loaders.
+     */
+    private void createSharedClassLoader(String profile, List<Application> applications) throws Exception {
+        if (applications.size() < 2 || sharedClassLoaders.containsKey(profile)) {
+            return;
+        }
+        List<Map<String, Library>> all = new ArrayList<>();
+        Set<String> provided = new HashSet<>();
+        for (Application application : applications) {
+            all.add(libraries(application.getUrl(), provided));
+        }
+        Map<String, Library> common = new HashMap<>(all.get(0));
+        all.forEach(libraries -> common.keySet().retainAll(libraries.keySet()));
+        for (Map<String, Library> libraries : all) {
+            libraries.forEach((checksum, library) -> {
+                if (!common.containsKey(checksum)) {
+                    provided.addAll(library.classes);
+                }
+            });
+        }
+        if (common.isEmpty()) {
+            log.info("No library shared by the Spring Boot modules" + (profile.isEmpty() ? "" : " of profile " + profile));
+            return;
+        }
+
+        // extract the shared libraries (named by checksum) from the first application
+        Files.createDirectories(sharedLibraries);
+        Map<String, Path> extracted = new LinkedHashMap<>();
+        try (JarInputStream jarInputStream = new JarInputStream(new URL(applications.get(0).getUrl()).openStream())) {
+            JarEntry entry;
+            Map<String, String> entries = new HashMap<>();
+            common.forEach((checksum, library) -> entries.put(library.name, checksum));
+            while ((entry = jarInputStream.getNextJarEntry()) != null) {
+                String checksum = entries.get(entry.getName());
+                if (checksum == null) {
+                    continue;
+                }
+                Path library = sharedLibraries.resolve(checksum + ".jar");
+                if (!Files.exists(library)) {
+                    Path temp = Files.createTempFile(sharedLibraries, checksum, ".tmp");
+                    Files.copy(jarInputStream, temp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(temp, library, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                extracted.put(checksum, library);
+            }
+        }
+
+        // keep the libraries closed under their dependencies: drop the libraries referencing a class not hoisted
+        Map<String, Set<String>> references = new HashMap<>();
+        for (Map.Entry<String, Path> library : extracted.entrySet()) {
+            references.put(library.getKey(), references(library.getValue()));
+        }
+        boolean dropped = true;
+        while (dropped) {
+            dropped = false;
+            Set<String> hoisted = new HashSet<>();
+            extracted.keySet().forEach(checksum -> hoisted.addAll(common.get(checksum).classes));
+            for (String checksum : new ArrayList<>(extracted.keySet())) {
+                Optional<String> missing = references.get(checksum).stream().filter(reference -> !hoisted.contains(reference) && provided.contains(reference)).findFirst();
+                if (missing.isPresent()) {
+                    log.fine("Library " + common.get(checksum).name + " not hoisted, it references " + missing.get() + " from a library not hoisted");
+                    extracted.remove(checksum);
+                    provided.addAll(common.get(checksum).classes);
+                    dropped = true;
+                }
+            }
+        }
+        if (extracted.isEmpty()) {
+            log.info("No library shared by the Spring Boot modules" + (profile.isEmpty() ? "" : " of profile " + profile) + " closed under its dependencies");
+            return;
+        }
+
+        List<URL> urls = new ArrayList<>();
+        long size = 0;
+        int classes = 0;
+        for (Map.Entry<String, Path> library : extracted.entrySet()) {
+            size += Files.size(library.getValue());
+            classes += common.get(library.getKey()).classes.size();
+            urls.add(library.getValue().toUri().toURL());
         }
+        ClassLoader parent = profile.isEmpty() ? this.getClass().getClassLoader() : classLoaderService.getClassLoader(profile);
+        sharedClassLoaders.put(profile, new URLClassLoader(urls.toArray(new URL[0]), parent));
+        log.info("Spring Boot shared class loader" + (profile.isEmpty() ? "" : " for profile " + profile) + ": " + urls.size() + " libraries ("
+                + size / 1024 + " KB, " + classes + " class files) hoisted for " + applications.size() + " modules, each class"
+                + " of these libraries is defined at most once instead of once per module loading it");
+    }
+
+    /**
+     * Compute the checksum of the libraries embedded in a Spring Boot jar.
+     *
+     * @param url the Spring Boot jar.
+     * @param applicationClasses the classes of the application (BOOT-INF/classes) are added to this set.
+     * @return the libraries (entry name and classes) by checksum.
+     */
+    private Map<String, Library> libraries(String url, Set<String> applicationClasses) throws Exception {
+        Map<String, Library> libraries = new HashMap<>();
+        try (JarInputStream jarInputStream = new JarInputStream(new URL(url).openStream())) {
+            JarEntry entry;
+            while ((entry = jarInputStream.getNextJarEntry()) != null) {
+                if (entry.getName().startsWith(BOOT_INF_CLASSES) && entry.getName().endsWith(".class")) {
+                    applicationClasses.add(className(entry.getName().substring(BOOT_INF_CLASSES.length())));
+                }
+                if (!entry.getName().startsWith(BOOT_INF_LIB) || !entry.getName().endsWith(".jar")) {
+                    continue;
+                }
+                byte[] bytes = jarInputStream.readAllBytes();
+                StringBuilder checksum = new StringBuilder();
+                for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                    checksum.append(String.format("%02x", b));
+                }
+                Set<String> classes = new HashSet<>();
+                try (JarInputStream library = new JarInputStream(new ByteArrayInputStream(bytes))) {
+                    JarEntry libraryEntry;
+                    while ((libraryEntry = library.getNextJarEntry()) != null) {
+                        if (libraryEntry.getName().endsWith(".class") && !libraryEntry.getName().startsWith("META-INF/")) {
+                            classes.add(className(libraryEntry.getName()));
+                        }
+                    }
+                }
+                libraries.put(checksum.toString(), new Library(entry.getName(), classes));
+            }
+        }
+        return libraries;
+    }
+
+    private static String className(String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length());
+    }
+
+    /**
+     * Classes referenced by the classes of a library (constant pool class entries), in internal form.
+     */
+    private static Set<String> references(Path library) throws IOException {
+        Set<String> references = new HashSet<>();
+        try (JarFile jarFile = new JarFile(library.toFile())) {
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                if (entry.getName().endsWith(".class") && !entry.getName().startsWith("META-INF/")) {
+                    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                        references(ByteBuffer.wrap(inputStream.readAllBytes()), references);
+                    }
+                }
+            }
+        }
+        return references;
+    }
+
+    private static void references(ByteBuffer buffer, Set<String> references) {
+        if (buffer.remaining() < 10 || buffer.getInt() != 0xCAFEBABE) {
+            return;
+        }
+        buffer.getInt(); // version
+        int count = Short.toUnsignedInt(buffer.getShort());
+        String[] utf8 = new String[count];
+        List<Integer> classes = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            int tag = buffer.get();
+            switch (tag) {
+                case 1:
+                    byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+                    buffer.get(bytes);
+                    utf8[i] = new String(bytes, StandardCharsets.UTF_8);
+                    break;
+                case 7:
+                    classes.add(Short.toUnsignedInt(buffer.getShort()));
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    buffer.position(buffer.position() + 2);
+                    break;
+                case 15:
+                    buffer.position(buffer.position() + 3);
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    buffer.position(buffer.position() + 4);
+                    break;
+                case 5:
+                case 6:
+                    buffer.position(buffer.position() + 8);
+                    i++;
+                    break;
+                default:
+                    // unknown constant pool tag
+                    return;
+            }
+        }
+        for (int index : classes) {
+            String name = utf8[index];
+            if (name == null) {
+                continue;
+            }
+            if (name.startsWith("[")) {
+                name = name.substring(name.lastIndexOf('[') + 1);
+                if (!name.startsWith("L")) {
+                    continue;
+                }
+                name = name.substring(1, name.length() - 1);
+            }
+            references.add(name);
+        }
+    }
+
+    private static long metaspaceUsed() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream().filter(pool -> pool.getName().equals("Metaspace"))
+                .map(MemoryPoolMXBean::getUsage).mapToLong(usage -> usage.getUsed()).findFirst().orElse(-1);
+    }
+
+    /**
+     * Start a Spring Boot module.
+     *
+     * @param application the Spring Boot application.
+     * @return the Spring Boot module ID.
+     * @throws Exception if the module can't be started.
+     */
+    public String start(Application application) throws Exception {
+        long begin = System.nanoTime();
+        String url = application.getUrl();
+        Manifest manifest = manifest(url);
+        String id = (manifest != null) ? manifest.getMainAttributes().getValue("Start-Class") : null;
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+        }
+        if (modules.containsKey(id)) {
+            throw new IllegalStateException("Spring Boot module " + id + " is already started");
+        }
+        log.info("Starting Spring Boot module " + url);
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{new URL(url)}, parent(application));
+        SpringBootModule module = new SpringBootModule(id, application, classLoader, ADMIN_JMX_DOMAIN + id, 0);
+
+        // the Spring application context is handled by Minho via the Spring Boot admin MBean, not the JVM shutdown hook
+        List<String> args = new ArrayList<>();
+        Arrays.stream(Optional.ofNullable(application.getProperty("args")).orElse("").split(" ")).map(String::trim).filter(arg -> !arg.isEmpty()).forEach(args::add);
+        args.add("--spring.application.admin.enabled=true");
+        args.add("--spring.application.admin.jmx-name=" + module.getJmxName());
+        args.add("--spring.main.register-shutdown-hook=false");
+
         ClassLoader original = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(classLoader);
@@ -105,23 +552,130 @@ public class SpringBootApplicationManagerService implements Service {
             // invoke spring boot main
             final Method main = classLoader.loadClass("org.springframework.boot.loader.JarLauncher").getMethod("main", String[].class);
             main.setAccessible(true);
-            main.invoke(null, (Object)
-                    Arrays.stream(Optional.ofNullable((String) properties.get("args")).orElse("").split(" ")).map(String::trim).toArray(String[]::new));
+            main.invoke(null, (Object) args.toArray(new String[0]));
+        } catch (Exception e) {
+            classLoader.close();
+            throw e;
         } finally {
             Thread.currentThread().setContextClassLoader(original);
         }
-        String id;
-        try (JarInputStream jarInputStream = new JarInputStream(new URL(url).openStream())) {
-            id = jarInputStream.getManifest().getMainAttributes().getValue("Start-Class");
+        module.setStartupTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        log.info("Spring Boot module " + id + " started in " + module.getStartupTime() + " ms");
+        modules.put(id, module);
+        return id;
+    }
+
+    /**
+     * Stop a Spring Boot module: the Spring application context is closed and the module class loader is released.
+     *
+     * @param id the Spring Boot module ID.
+     * @throws Exception if the module can't be stopped.
+     */
+    public void stop(String id) throws Exception {
+        SpringBootModule module = modules.remove(id);
+        if (module == null) {
+            throw new IllegalArgumentException("Spring Boot module " + id + " not found");
         }
-        if (id == null) {
-            id = UUID.randomUUID().toString();
+        log.info("Stopping Spring Boot module " + id);
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(module.getJmxName());
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.invoke(objectName, "shutdown", null, null);
+            } else {
+                log.warning("Spring Boot module " + id + " doesn't expose the admin MBean, application context can't be closed");
+            }
+        } finally {
+            module.getClassLoader().close();
+            // the jar can be updated before the module is started again
+            manifests.remove(module.getApplication().getUrl());
         }
-        return id;
     }
 
-    private void stop(String id) throws Exception {
-        // TODO
+    /**
+     * Restart a Spring Boot module.
+     *
+     * @param id the Spring Boot module ID.
+     * @return the Spring Boot module ID.
+     * @throws Exception if the module can't be restarted.
+     */
+    public String restart(String id) throws Exception {
+        SpringBootModule module = modules.get(id);
+        if (module == null) {
+            throw new IllegalArgumentException("Spring Boot module " + id + " not found");
+        }
+        stop(id);
+        return start(module.getApplication());
+    }
+
+    /**
+     * Retrieve a started Spring Boot module.
+     *
+     * @param id the Spring Boot module ID.
+     * @return the Spring Boot module or null if not started.
+     */
+    public SpringBootModule getModule(String id) {
+        return modules.get(id);
+    }
+
+    /**
+     * Retrieve the shared class loader (hoisting the libraries common to the Spring Boot modules) of a profile.
+     *
+     * @param profile the profile name or null for the applications without profile.
+     * @return the shared class loader or null if there is no shared class loader.
+     */
+    public URLClassLoader getSharedClassLoader(String profile) {
+        return sharedClassLoaders.get(profile != null ? profile : "");
+    }
+
+    /**
+     * Retrieve the started Spring Boot modules.
+     *
+     * @return the started Spring Boot modules ID.
+     */
+    public Set<String> getModules() {
+        synchronized (modules) {
+            return Collections.unmodifiableSet(new LinkedHashSet<>(modules.keySet()));
+        }
+    }
+
+    /**
+     * Library embedded in a Spring Boot jar: entry name and classes (internal form).
+     */
+    private static class Library {
+
+        private final String name;
+        private final Set<String> classes;
+
+        Library(String name, Set<String> classes) {
+            this.name = name;
+            this.classes = classes;
+        }
+
+    }
+
+    /**
+     * Failure of a Spring Boot module because one of its dependencies failed to start.
+     */
+    private static class DependencyException extends IllegalStateException {
+
+        DependencyException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+    }
+
+    private static class StartThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "minho-spring-boot-start-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
     }
 
 }
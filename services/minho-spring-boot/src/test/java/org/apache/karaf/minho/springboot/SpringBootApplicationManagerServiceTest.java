@@ -19,13 +19,39 @@ package org.apache.karaf.minho.springboot;
 
 import org.apache.karaf.minho.boot.Minho;
 import org.apache.karaf.minho.boot.config.Application;
+import org.apache.karaf.minho.boot.service.ClassLoaderService;
 import org.apache.karaf.minho.boot.service.ConfigService;
+import org.apache.karaf.minho.boot.service.LifeCycleService;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import javax.management.ObjectName;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 public class SpringBootApplicationManagerServiceTest {
 
@@ -48,4 +74,376 @@ public class SpringBootApplicationManagerServiceTest {
         Assertions.assertEquals("my-test-app", loaded.get(0).getName());
     }
 
+    private static Path applicationJar;
+
+    /**
+     * Create a fake Spring Boot application jar, with a JarLauncher registering the Spring Boot admin MBean.
+     */
+    @BeforeAll
+    public static void createApplicationJar() throws Exception {
+        Path base = Paths.get("target/spring-boot-app");
+        Path source = base.resolve("src/org/springframework/boot/loader/JarLauncher.java");
+        Path classes = base.resolve("classes");
+        Files.createDirectories(source.getParent());
+        Files.createDirectories(classes);
+        Files.writeString(source, String.join("\n",
+                "package org.springframework.boot.loader;",
+                "import java.lang.management.ManagementFactory;",
+                "import javax.management.ObjectName;",
+                "public class JarLauncher {",
+                "  public interface AdminMBean { boolean isReady(); void shutdown(); }",
+                "  public static class Admin implements AdminMBean {",
+                "    private final ObjectName name;",
+                "    private final byte[] payload = new byte[1024 * 1024];",
+                "    public Admin(ObjectName name) { this.name = name; }",
+                "    public boolean isReady() { return true; }",
+                "    public void shutdown() {",
+                "      try { ManagementFactory.getPlatformMBeanServer().unregisterMBean(name); } catch (Exception e) { throw new RuntimeException(e); }",
+                "    }",
+                "  }",
+                "  public static void main(String[] args) throws Exception {",
+                "    Thread.sleep(Long.getLong(\"minho.test.startDelay\", 0));",
+                "    synchronized (System.class) {",
+                "      System.setProperty(\"minho.test.started\", System.getProperty(\"minho.test.started\", \"\") + ((java.net.URLClassLoader) Thread.currentThread().getContextClassLoader()).findResource(\"META-INF/MANIFEST.MF\") + \"\\n\");",
+                "    }",
+                "    for (String arg : args) {",
+                "      if (arg.startsWith(\"--spring.application.admin.jmx-name=\")) {",
+                "        ObjectName name = new ObjectName(arg.substring(\"--spring.application.admin.jmx-name=\".length()));",
+                "        ManagementFactory.getPlatformMBeanServer().registerMBean(new Admin(name), name);",
+                "      }",
+                "    }",
+                "  }",
+                "}"));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assertions.assertEquals(0, compiler.run(null, null, null, "-d", classes.toString(), source.toString()));
+
+        applicationJar = createApplicationJar("app", "org.apache.karaf.minho.test.Application");
+    }
+
+    private static Path createApplicationJar(String name, String startClass, String... libraries) throws Exception {
+        Map<String, byte[]> jars = new LinkedHashMap<>();
+        for (String library : libraries) {
+            jars.put(library, library(Map.of(library + ".txt", library.getBytes(StandardCharsets.UTF_8))));
+        }
+        return createApplicationJar(name, startClass, jars);
+    }
+
+    private static Path createApplicationJar(String name, String startClass, Map<String, byte[]> libraries) throws Exception {
+        Path base = Paths.get("target/spring-boot-app");
+        Path classes = base.resolve("classes");
+        Path applicationJar = base.resolve(name + ".jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Spring-Boot-Version", "2.7.0");
+        manifest.getMainAttributes().putValue("Start-Class", startClass);
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(applicationJar.toFile()), manifest);
+             Stream<Path> files = Files.walk(classes)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                jar.putNextEntry(new JarEntry(classes.relativize(file).toString().replace('\\', '/')));
+                jar.write(Files.readAllBytes(file));
+                jar.closeEntry();
+            }
+            for (Map.Entry<String, byte[]> library : libraries.entrySet()) {
+                jar.putNextEntry(new JarEntry("BOOT-INF/lib/" + library.getKey() + ".jar"));
+                jar.write(library.getValue());
+                jar.closeEntry();
+            }
+        }
+        return applicationJar;
+    }
+
+    private static byte[] library(Map<String, byte[]> entries) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream libraryJar = new JarOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : new TreeMap<>(entries).entrySet()) {
+                libraryJar.putNextEntry(new JarEntry(entry.getKey()));
+                libraryJar.write(entry.getValue());
+                libraryJar.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Compile a class in its own directory.
+     */
+    private static byte[] compile(String className, String source, Path classpath) throws Exception {
+        Path base = Paths.get("target/spring-boot-libs").resolve(Integer.toHexString(source.hashCode()));
+        Path file = base.resolve("src/" + className.replace('.', '/') + ".java");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, source);
+        Path classes = base.resolve("classes");
+        Files.createDirectories(classes);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assertions.assertEquals(0, compiler.run(null, null, null, "-d", classes.toString(), "-cp", classpath != null ? classpath.toString() : classes.toString(), file.toString()));
+        return Files.readAllBytes(classes.resolve(className.replace('.', '/') + ".class"));
+    }
+
+    @Test
+    public void lifecycle() throws Exception {
+        ConfigService configService = new ConfigService();
+        Application application = new Application();
+        application.setType("spring-boot");
+        application.setUrl(applicationJar.toUri().toString());
+        configService.getApplications().add(application);
+        SpringBootApplicationManagerService service = new SpringBootApplicationManagerService();
+        Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), new ClassLoaderService(), service)).build().start();
+
+        String id = "org.apache.karaf.minho.test.Application";
+        ObjectName objectName = new ObjectName("org.springframework.boot:type=Admin,name=" + id);
+        Assertions.assertTrue(service.getModules().contains(id));
+        Assertions.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+        service.stop(id);
+        Assertions.assertFalse(service.getModules().contains(id));
+        Assertions.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+        service.start(application);
+        service.restart(id);
+        Assertions.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+        minho.close();
+        Assertions.assertTrue(service.getModules().isEmpty());
+        Assertions.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+
+    /**
+     * Create a real Spring Boot application jar (Spring Boot loader, BOOT-INF/classes and BOOT-INF/lib), with the
+     * Spring Boot jars copied in target/spring-boot-dependencies by the build.
+     */
+    private static Path createSpringBootJar() throws Exception {
+        Path dependencies = Paths.get("target/spring-boot-dependencies");
+        List<Path> jars;
+        try (Stream<Path> files = Files.list(dependencies)) {
+            jars = files.filter(file -> file.toString().endsWith(".jar")).sorted().collect(Collectors.toList());
+        }
+        Path base = Paths.get("target/spring-boot-real");
+        Path source = base.resolve("src/leak/LeakApplication.java");
+        Path classes = base.resolve("classes");
+        Files.createDirectories(source.getParent());
+        Files.createDirectories(classes);
+        Files.writeString(source, String.join("\n",
+                "package leak;",
+                "@org.springframework.boot.autoconfigure.SpringBootApplication",
+                "public class LeakApplication {",
+                "  public static void main(String[] args) {",
+                "    org.springframework.boot.SpringApplication.run(LeakApplication.class, args);",
+                "  }",
+                "}"));
+        String classpath = jars.stream().map(Path::toString).collect(Collectors.joining(java.io.File.pathSeparator));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assertions.assertEquals(0, compiler.run(null, null, null, "-d", classes.toString(), "-cp", classpath, source.toString()));
+
+        Path applicationJar = base.resolve("leak.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "org.springframework.boot.loader.JarLauncher");
+        manifest.getMainAttributes().putValue("Start-Class", "leak.LeakApplication");
+        manifest.getMainAttributes().putValue("Spring-Boot-Version", "2.7.18");
+        manifest.getMainAttributes().putValue("Spring-Boot-Classes", "BOOT-INF/classes/");
+        manifest.getMainAttributes().putValue("Spring-Boot-Lib", "BOOT-INF/lib/");
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(applicationJar.toFile()), manifest)) {
+            // the Spring Boot loader looks for the BOOT-INF/classes/ directory entry
+            for (String directory : new String[]{ "BOOT-INF/", "BOOT-INF/classes/", "BOOT-INF/classes/leak/", "BOOT-INF/lib/" }) {
+                jar.putNextEntry(new JarEntry(directory));
+                jar.closeEntry();
+            }
+            for (Path dependency : jars) {
+                if (dependency.getFileName().toString().startsWith("spring-boot-loader")) {
+                    // the loader classes are at the root of the application jar
+                    try (JarInputStream loader = new JarInputStream(Files.newInputStream(dependency))) {
+                        for (JarEntry entry = loader.getNextJarEntry(); entry != null; entry = loader.getNextJarEntry()) {
+                            if (!entry.getName().startsWith("META-INF/")) {
+                                jar.putNextEntry(new JarEntry(entry.getName()));
+                                loader.transferTo(jar);
+                                jar.closeEntry();
+                            }
+                        }
+                    }
+                    continue;
+                }
+                // the libraries are stored (not compressed)
+                byte[] bytes = Files.readAllBytes(dependency);
+                JarEntry entry = new JarEntry("BOOT-INF/lib/" + dependency.getFileName());
+                entry.setMethod(JarEntry.STORED);
+                entry.setSize(bytes.length);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                entry.setCrc(crc.getValue());
+                jar.putNextEntry(entry);
+                jar.write(bytes);
+                jar.closeEntry();
+            }
+            jar.putNextEntry(new JarEntry("BOOT-INF/classes/leak/LeakApplication.class"));
+            jar.write(Files.readAllBytes(classes.resolve("leak/LeakApplication.class")));
+            jar.closeEntry();
+        }
+        return applicationJar;
+    }
+
+    @Test
+    public void cycleWithoutLeak() throws Exception {
+        Application application = new Application();
+        application.setType("spring-boot");
+        application.setUrl(createSpringBootJar().toUri().toString());
+        SpringBootApplicationManagerService service = new SpringBootApplicationManagerService();
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+
+        // warm up: the classes loaded once by the JVM (JDK, JMX, ...) are not part of the measure
+        service.stop(service.start(application));
+        long baseline = loadedClasses(classLoading);
+        String id = service.start(application);
+        long perCycle = classLoading.getLoadedClassCount() - baseline;
+        WeakReference<ClassLoader> classLoader = new WeakReference<>(service.getModule(id).getClassLoader());
+        Assertions.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("org.springframework.boot:type=Admin,name=" + id)));
+        service.stop(id);
+
+        for (int i = 0; i < 5; i++) {
+            service.stop(service.start(application));
+        }
+        long loaded = loadedClasses(classLoading);
+        Assertions.assertNull(classLoader.get(), "Spring Boot module class loaders are leaking");
+        // a leak keeps (at least) the classes of each cycle loaded
+        Assertions.assertTrue(loaded - baseline < perCycle, "Loaded classes grow with the Spring Boot module cycles: "
+                + baseline + " classes after the first cycle, " + loaded + " after 6 more cycles (" + perCycle + " classes per cycle)");
+    }
+
+    /**
+     * Number of loaded classes once the unreachable class loaders are collected.
+     */
+    private static long loadedClasses(ClassLoadingMXBean classLoading) throws Exception {
+        long loaded = classLoading.getLoadedClassCount();
+        for (int i = 0; i < 20; i++) {
+            System.gc();
+            Thread.sleep(100);
+            long current = classLoading.getLoadedClassCount();
+            if (current == loaded && i > 2) {
+                break;
+            }
+            loaded = current;
+        }
+        return loaded;
+    }
+
+    @Test
+    public void concurrentStart() throws Exception {
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("spring-boot.startThreads", "4");
+        for (String name : new String[]{ "backend", "cache", "frontend" }) {
+            Application application = new Application();
+            application.setName(name);
+            application.setType("spring-boot");
+            application.setUrl(createApplicationJar(name, "org.apache.karaf.minho.test." + name).toUri().toString());
+            if (name.equals("frontend")) {
+                application.getProperties().put("dependsOn", "backend, cache");
+            }
+            configService.getApplications().add(0, application);
+        }
+        System.setProperty("minho.test.startDelay", "200");
+        System.clearProperty("minho.test.started");
+        SpringBootApplicationManagerService service = new SpringBootApplicationManagerService();
+        try (Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), service)).build().start()) {
+            Assertions.assertEquals(3, service.getModules().size());
+            String[] started = System.getProperty("minho.test.started").split("\n");
+            Assertions.assertEquals(3, started.length);
+            Assertions.assertTrue(started[2].contains("frontend.jar"));
+            Assertions.assertTrue(service.getModule("org.apache.karaf.minho.test.frontend").getStartupTime() >= 200);
+        } finally {
+            System.clearProperty("minho.test.startDelay");
+        }
+    }
+
+    @Test
+    public void dependencyCycle() throws Exception {
+        List<Application> applications = new ArrayList<>();
+        // scheduled first, but not started as the dependency graph is invalid
+        Application independent = new Application();
+        independent.setName("independent");
+        independent.setUrl(createApplicationJar("independent", "org.apache.karaf.minho.test.independent").toUri().toString());
+        applications.add(independent);
+        for (String name : new String[]{ "a", "b" }) {
+            Application application = new Application();
+            application.setName(name);
+            application.setUrl(applicationJar.toUri().toString());
+            application.getProperties().put("dependsOn", name.equals("a") ? "b" : "a");
+            applications.add(application);
+        }
+        SpringBootApplicationManagerService service = new SpringBootApplicationManagerService();
+        Assertions.assertThrows(IllegalStateException.class, () -> service.start(applications));
+        Assertions.assertTrue(service.getModules().isEmpty());
+
+        // unknown dependency
+        applications.get(2).getProperties().put("dependsOn", "unknown");
+        Assertions.assertThrows(IllegalStateException.class, () -> service.start(applications));
+        Assertions.assertTrue(service.getModules().isEmpty());
+
+        // duplicate name
+        applications.get(1).getProperties().remove("dependsOn");
+        applications.get(2).setName("a");
+        applications.get(2).getProperties().remove("dependsOn");
+        Assertions.assertThrows(IllegalStateException.class, () -> service.start(applications));
+        Assertions.assertTrue(service.getModules().isEmpty());
+    }
+
+    @Test
+    public void sharedClassLoader() throws Exception {
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("spring-boot.sharedLoader", "true");
+        configService.getProperties().put("spring-boot.sharedLibraries", "target/spring-boot-shared");
+        for (String name : new String[]{ "orders", "billing" }) {
+            Application application = new Application();
+            application.setName(name);
+            application.setType("spring-boot");
+            application.setUrl(createApplicationJar(name, "org.apache.karaf.minho.test." + name, "spring-core", "jackson", name).toUri().toString());
+            configService.getApplications().add(application);
+        }
+        SpringBootApplicationManagerService service = new SpringBootApplicationManagerService();
+        try (Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), service)).build().start()) {
+            URLClassLoader shared = service.getSharedClassLoader(null);
+            Assertions.assertNotNull(shared);
+            Assertions.assertEquals(2, shared.getURLs().length);
+            Assertions.assertNotNull(shared.getResource("spring-core.txt"));
+            Assertions.assertNotNull(shared.getResource("jackson.txt"));
+            Assertions.assertNull(shared.getResource("orders.txt"));
+            Assertions.assertSame(shared, service.getModule("org.apache.karaf.minho.test.orders").getClassLoader().getParent());
+            Assertions.assertSame(shared, service.getModule("org.apache.karaf.minho.test.billing").getClassLoader().getParent());
+        }
+        Assertions.assertNull(service.getSharedClassLoader(null));
+    }
+
+    @Test
+    public void sharedClassLoaderDependencies() throws Exception {
+        // spring-context is identical in the modules, but references spring-core which is not
+        byte[] core1 = compile("core.Core", "package core; public class Core { public static String version() { return \"1\"; } }", null);
+        byte[] core2 = compile("core.Core", "package core; public class Core { public static String version() { return \"2\"; } }", null);
+        Path coreClasses = Paths.get("target/spring-boot-libs/core-classes/core");
+        Files.createDirectories(coreClasses);
+        Files.write(coreClasses.resolve("Core.class"), core1);
+        byte[] context = compile("context.Context", "package context; public class Context { public String toString() { return core.Core.version(); } }", coreClasses.getParent());
+        byte[] util = compile("util.Util", "package util; public class Util { }", null);
+
+        ConfigService configService = new ConfigService();
+        configService.getProperties().put("spring-boot.sharedLoader", "true");
+        configService.getProperties().put("spring-boot.sharedLibraries", "target/spring-boot-shared");
+        for (String name : new String[]{ "inventory", "shipping" }) {
+            Map<String, byte[]> libraries = new LinkedHashMap<>();
+            libraries.put("spring-core", library(Map.of("core/Core.class", name.equals("inventory") ? core1 : core2)));
+            libraries.put("spring-context", library(Map.of("context/Context.class", context)));
+            libraries.put("util", library(Map.of("util/Util.class", util)));
+            Application application = new Application();
+            application.setName(name);
+            application.setType("spring-boot");
+            application.setUrl(createApplicationJar(name, "org.apache.karaf.minho.test." + name, libraries).toUri().toString());
+            configService.getApplications().add(application);
+        }
+        SpringBootApplicationManagerService service = new SpringBootApplicationManagerService();
+        try (Minho minho = Minho.builder().loader(() -> Stream.of(configService, new LifeCycleService(), service)).build().start()) {
+            URLClassLoader shared = service.getSharedClassLoader(null);
+            Assertions.assertNotNull(shared);
+            Assertions.assertEquals(1, shared.getURLs().length);
+            Assertions.assertNotNull(shared.loadClass("util.Util"));
+            Assertions.assertThrows(ClassNotFoundException.class, () -> shared.loadClass("context.Context"));
+        }
+    }
+
 }
@@ -28,6 +28,8 @@ public class Main {
     public static void main(String[] args) throws Exception {
         Options options = new Options();
         options.addOption(new Option("f", "file", true, "Location of the minho-build.json file"));
+        options.addOption(new Option("c", "cds", false, "Create a CDS archive with a training run of the runtime"));
+        options.addOption(new Option("o", "offline", false, "Resolve the artifacts without network access"));
         options.addOption(new Option("h", "help", false, "print this message"));
 
         CommandLineParser parser = new DefaultParser();
@@ -57,17 +59,30 @@ public class Main {
             action = cmd.getArgList().get(0);
         }
 
-        if (action.equalsIgnoreCase("package")) {
-            Runtime.createPackage(new FileInputStream(minhoBuild));
-        } else if (action.equalsIgnoreCase("jar")) {
-            Runtime.createJar(new FileInputStream(minhoBuild));
-        } else if (action.equalsIgnoreCase("archive")) {
-            Runtime.createArchive(new FileInputStream(minhoBuild));
-        } else {
+        if (!action.equalsIgnoreCase("package") && !action.equalsIgnoreCase("jar") && !action.equalsIgnoreCase("archive")) {
             System.err.println("Build action argument is not valid. It should be package|jar|archive");
             System.exit(1);
         }
 
+        Runtime runtime;
+        try (FileInputStream inputStream = new FileInputStream(minhoBuild)) {
+            runtime = Runtime.load(inputStream);
+        }
+        if (cmd.hasOption("cds")) {
+            runtime.getProperties().put("minho.cds", "true");
+        }
+        if (cmd.hasOption("offline")) {
+            runtime.getProperties().put("minho.offline", "true");
+        }
+        runtime.createPackage();
+        if (action.equalsIgnoreCase("jar")) {
+            runtime.createJar();
+        } else if (action.equalsIgnoreCase("archive")) {
+            runtime.createArchive();
+        } else if (cmd.hasOption("cds")) {
+            runtime.createCdsArchive();
+        }
+
     }
 
 }
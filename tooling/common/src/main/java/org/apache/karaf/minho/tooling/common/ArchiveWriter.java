@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.tooling.common;
+
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Write the runtime archive in the zip, tar.gz or tar.zst format, compressing in parallel.
+ * <p>
+ * The zip entries are compressed in parallel, the already compressed files (jars, ...) are stored as is. The tar
+ * stream is split in chunks compressed in parallel as independent gzip members or Zstandard frames (concatenated, as
+ * supported by the gzip and zstd tools). The entries are written in name order with the same timestamp, owner and
+ * permissions (executable or not), so the archives are reproducible. The zip entries have an extended timestamp
+ * (UTC, in seconds) in addition to the DOS time (local time of the extractor), so the extracted files have the
+ * archive timestamp whatever the time zone (the CDS archive checks the jars modification time).
+ */
+@Log
+class ArchiveWriter {
+
+    private final static Set<String> COMPRESSED = Set.of("jar", "war", "zip", "gz", "tgz", "zst", "xz", "bz2", "png", "jpg", "jpeg", "gif");
+    private final static int CHUNK_SIZE = 4 * 1024 * 1024;
+    private final static short EXTENDED_TIMESTAMP = 0x5455;
+
+    private final int threads;
+    private final long timestamp;
+    private final int level;
+    private final byte[] extendedTimestamp;
+
+    /**
+     * @param threads the number of compression threads.
+     * @param timestamp the timestamp of the entries.
+     * @param level the compression level (0-9, -1 for the default level).
+     */
+    ArchiveWriter(int threads, long timestamp, int level) {
+        this.threads = Math.max(1, threads);
+        this.timestamp = timestamp;
+        this.level = level;
+        // extended timestamp extra field, with the modification time only
+        this.extendedTimestamp = ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN)
+                .putShort(EXTENDED_TIMESTAMP).putShort((short) 5).put((byte) 1).putInt((int) (timestamp / 1000)).array();
+    }
+
+    /**
+     * Write an archive.
+     *
+     * @param format the archive format: {@code zip}, {@code tar.gz} or {@code tar.zst}.
+     * @param base the base folder (the entry names are relative to the base folder).
+     * @param files the files and folders to include.
+     * @param target the archive file.
+     */
+    void write(String format, Path base, List<Path> files, Path target) throws Exception {
+        List<Path> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing(file -> name(base, file)));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            switch (format) {
+                case "zip":
+                    zip(base, sorted, target, executor);
+                    break;
+                case "tar.gz":
+                case "tar.zst":
+                    try (OutputStream outputStream = new ChunkedOutputStream(Files.newOutputStream(target), executor, format.endsWith("zst"))) {
+                        tar(base, sorted, outputStream);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported archive format " + format + " (zip, tar.gz or tar.zst)");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static String name(Path base, Path file) {
+        String name = base.relativize(file).toString().replace('\\', '/');
+        return Files.isDirectory(file) ? name + "/" : name;
+    }
+
+    private static int mode(Path file) {
+        return (Files.isDirectory(file) || Files.isExecutable(file)) ? 0755 : 0644;
+    }
+
+    private void zip(Path base, List<Path> files, Path target, ExecutorService executor) throws Exception {
+        JarAssembler assembler = new JarAssembler(threads, timestamp);
+        List<Future<JarAssembler.RawEntry>> futures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            final int index = i;
+            futures.add(executor.submit(() -> {
+                Path file = files.get(index);
+                String name = name(base, file);
+                JarAssembler.RawEntry entry;
+                if (Files.isDirectory(file)) {
+                    entry = assembler.created(name, new byte[0], 0);
+                    entry.mode = 040000 | mode(file);
+                } else {
+                    String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+                    entry = COMPRESSED.contains(extension) ? assembler.stored(name, file, index) : assembler.created(name, Files.readAllBytes(file), level);
+                    entry.mode = 0100000 | mode(file);
+                }
+                entry.extra = extendedTimestamp;
+                return entry;
+            }));
+        }
+        List<JarAssembler.RawEntry> entries = new ArrayList<>();
+        for (Future<JarAssembler.RawEntry> future : futures) {
+            entries.add(future.get());
+        }
+        JarAssembler.write(files, entries, target);
+    }
+
+    private void tar(Path base, List<Path> files, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        for (Path file : files) {
+            String name = name(base, file);
+            boolean directory = Files.isDirectory(file);
+            long size = directory ? 0 : Files.size(file);
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            String prefix = "";
+            if (nameBytes.length > 100) {
+                int split = name.lastIndexOf('/', name.length() - 2);
+                while (split > 0 && (name.substring(0, split).getBytes(StandardCharsets.UTF_8).length > 155 || name.substring(split + 1).getBytes(StandardCharsets.UTF_8).length > 100)) {
+                    split = name.lastIndexOf('/', split - 1);
+                }
+                if (split > 0) {
+                    prefix = name.substring(0, split);
+                    name = name.substring(split + 1);
+                } else {
+                    // pax extended header for the long name
+                    String record = " path=" + name + "\n";
+                    int length = record.getBytes(StandardCharsets.UTF_8).length;
+                    length += Integer.toString(length + Integer.toString(length).length()).length();
+                    byte[] pax = (length + record).getBytes(StandardCharsets.UTF_8);
+                    outputStream.write(header("PaxHeader", "", pax.length, 0644, 'x'));
+                    outputStream.write(pax);
+                    pad(outputStream, pax.length);
+                    name = name.substring(name.length() - Math.min(name.length(), 99));
+                }
+            }
+            outputStream.write(header(name, prefix, size, mode(file), directory ? '5' : '0'));
+            if (!directory) {
+                try (InputStream inputStream = Files.newInputStream(file)) {
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, read);
+                    }
+                }
+                pad(outputStream, size);
+            }
+        }
+        // end of archive
+        outputStream.write(new byte[1024]);
+    }
+
+    private byte[] header(String name, String prefix, long size, int mode, char type) {
+        byte[] header = new byte[512];
+        put(header, 0, 100, name.getBytes(StandardCharsets.UTF_8));
+        put(header, 100, 8, octal(mode, 7));
+        put(header, 108, 8, octal(0, 7));
+        put(header, 116, 8, octal(0, 7));
+        put(header, 124, 12, octal(size, 11));
+        put(header, 136, 12, octal(timestamp / 1000, 11));
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = (byte) type;
+        put(header, 257, 8, "ustar\00000".getBytes(StandardCharsets.US_ASCII));
+        put(header, 345, 155, prefix.getBytes(StandardCharsets.UTF_8));
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        put(header, 148, 8, (new String(octal(checksum, 6), StandardCharsets.US_ASCII) + "\0 ").getBytes(StandardCharsets.US_ASCII));
+        return header;
+    }
+
+    private static byte[] octal(long value, int length) {
+        String octal = Long.toOctalString(value);
+        return ("0".repeat(Math.max(0, length - octal.length())) + octal).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void put(byte[] header, int offset, int length, byte[] value) {
+        System.arraycopy(value, 0, header, offset, Math.min(length, value.length));
+    }
+
+    private static void pad(OutputStream outputStream, long size) throws IOException {
+        int padding = (int) ((512 - (size % 512)) % 512);
+        outputStream.write(new byte[padding]);
+    }
+
+    /**
+     * Output stream compressing chunks in parallel, written in order.
+     */
+    private class ChunkedOutputStream extends OutputStream {
+
+        private final OutputStream target;
+        private final ExecutorService executor;
+        private final boolean zstd;
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int count;
+
+        ChunkedOutputStream(OutputStream target, ExecutorService executor, boolean zstd) {
+            this.target = target;
+            this.executor = executor;
+            this.zstd = zstd;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{ (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            while (length > 0) {
+                int copied = Math.min(length, chunk.length - count);
+                System.arraycopy(b, offset, chunk, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+                if (count == chunk.length) {
+                    submit();
+                }
+            }
+        }
+
+        private void submit() throws IOException {
+            final byte[] data = chunk;
+            final int length = count;
+            pending.add(executor.submit(() -> compress(data, length)));
+            chunk = new byte[CHUNK_SIZE];
+            count = 0;
+            // bound the memory used by the pending chunks
+            while (pending.size() > threads * 2) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            try {
+                target.write(pending.poll().get());
+            } catch (Exception e) {
+                throw new IOException("Can't compress archive", e);
+            }
+        }
+
+        private byte[] compress(byte[] data, int length) throws IOException {
+            if (zstd) {
+                return ZstdCompressor.compress(data, 0, length);
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 64 * 1024) {
+                {
+                    def.setLevel(level);
+                }
+            }) {
+                gzip.write(data, 0, length);
+            }
+            return compressed.toByteArray();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (count > 0 || pending.isEmpty()) {
+                    submit();
+                }
+                while (!pending.isEmpty()) {
+                    drain();
+                }
+            } finally {
+                target.close();
+            }
+        }
+    }
+
+}
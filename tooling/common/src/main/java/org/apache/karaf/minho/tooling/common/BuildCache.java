@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.tooling.common;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of the build outputs (uber jar, archive).
+ * The cache key is the SHA-256 of all the build inputs: tooling build (hash of the tooling jar), kind of output (with its format), properties,
+ * and the name and content hash of each input file. If the inputs don't change, the output is restored from the cache
+ * instead of being built.
+ * The cache size is bounded: once an output is stored, the least recently used outputs are evicted.
+ */
+@Log
+class BuildCache {
+
+    /**
+     * Properties not changing the build outputs.
+     */
+    private final static List<String> IGNORED_PROPERTIES = List.of("base.directory", "minho.cleanup", "minho.cache", "minho.cache.maxSize");
+
+    /**
+     * Version of the tooling producing the outputs (a new build of the tooling can produce different outputs from the
+     * same inputs): hash of the tooling jar (or classes), not the implementation version unchanged by SNAPSHOT builds.
+     */
+    private final static String VERSION = toolingVersion();
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * @param directory the cache folder.
+     * @param maxSize the maximum size (in bytes) of the cached outputs.
+     */
+    BuildCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Compute the cache key of a build output.
+     *
+     * @param kind the kind of output (jar, zip, ...).
+     * @param properties the runtime properties.
+     * @param base the base folder of the inputs (the relative path of the inputs is part of the key).
+     * @param inputs the input files.
+     * @return the cache key.
+     */
+    String key(String kind, Map<String, Object> properties, Path base, List<Path> inputs) throws IOException {
+        MessageDigest digest = digest();
+        update(digest, VERSION);
+        update(digest, kind);
+        if (properties != null) {
+            new TreeMap<>(properties).forEach((key, value) -> {
+                if (!IGNORED_PROPERTIES.contains(key)) {
+                    update(digest, key + "=" + value);
+                }
+            });
+        }
+        for (Path input : inputs.stream().sorted().toArray(Path[]::new)) {
+            update(digest, base.relativize(input).toString().replace('\\', '/'));
+            update(digest, hash(input));
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Restore a build output from the cache.
+     *
+     * @return true if the output has been restored, false if it's not in the cache.
+     */
+    boolean restore(String key, Path target) {
+        Path cached = directory.resolve(key);
+        if (!Files.isRegularFile(cached)) {
+            return false;
+        }
+        try {
+            Files.copy(cached, target, StandardCopyOption.REPLACE_EXISTING);
+            // the last modified time of the cached output is its last use (eviction order)
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+            log.info("Restored " + target + " from build cache");
+            return true;
+        } catch (IOException e) {
+            log.warning("Can't restore " + target + " from build cache: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Store a build output in the cache.
+     */
+    void store(String key, Path source) {
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            log.warning("Can't store " + source + " in build cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Evict the least recently used outputs, until the cache size is below the maximum size.
+     */
+    private void evict() throws IOException {
+        List<Path> outputs;
+        try (Stream<Path> stream = Files.list(directory)) {
+            outputs = stream.filter(Files::isRegularFile).filter(file -> !file.getFileName().toString().endsWith(".tmp")).collect(Collectors.toList());
+        }
+        Map<Path, FileTime> times = new HashMap<>();
+        long size = 0;
+        for (Path output : outputs) {
+            times.put(output, Files.getLastModifiedTime(output));
+            size += Files.size(output);
+        }
+        outputs.sort(Comparator.comparing(times::get));
+        for (Path output : outputs) {
+            if (size <= maxSize) {
+                break;
+            }
+            long outputSize = Files.size(output);
+            Files.deleteIfExists(output);
+            size -= outputSize;
+            log.fine("Evicted " + output.getFileName() + " from build cache");
+        }
+    }
+
+    private static String toolingVersion() {
+        try {
+            CodeSource codeSource = BuildCache.class.getProtectionDomain().getCodeSource();
+            Path location = (codeSource != null && codeSource.getLocation() != null) ? Paths.get(codeSource.getLocation().toURI()) : null;
+            if (location != null && Files.isRegularFile(location)) {
+                return hash(location);
+            }
+            if (location != null && Files.isDirectory(location)) {
+                MessageDigest digest = digest();
+                List<Path> files;
+                try (Stream<Path> stream = Files.walk(location)) {
+                    files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+                for (Path file : files) {
+                    update(digest, location.relativize(file).toString().replace('\\', '/'));
+                    update(digest, hash(file));
+                }
+                return hex(digest.digest());
+            }
+        } catch (Exception e) {
+            log.warning("Can't hash the tooling classes, the build cache uses the tooling version: " + e.getMessage());
+        }
+        String version = BuildCache.class.getPackage().getImplementationVersion();
+        if (version == null || version.endsWith("-SNAPSHOT")) {
+            // the outputs of an unidentified tooling build are never restored
+            return UUID.randomUUID().toString();
+        }
+        return version;
+    }
+
+    static String hash(Path file) throws IOException {
+        MessageDigest digest = digest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+}
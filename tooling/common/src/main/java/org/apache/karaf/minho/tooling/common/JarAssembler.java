@@ -0,0 +1,570 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.tooling.common;
+
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.*;
+
+/**
+ * Assemble an uber jar from a set of jars (and plain files), without extracting them on the file system.
+ * <p>
+ * The jars central directories are read in parallel, the entries are merged in memory with the following rules:
+ * <ul>
+ *     <li>the manifest, jar index, module-info and signature files are not included (the uber jar has its own manifest),</li>
+ *     <li>the {@code META-INF/services} files are concatenated (comments and duplicate lines are removed),</li>
+ *     <li>for other duplicate entries, the first one wins (jars are sorted by name) and the conflict is reported.</li>
+ * </ul>
+ * Optionally, the unreachable classes and resources are removed (see {@link JarShrinker}).
+ * The entries are written in name order with the same timestamp (reproducible output), copying the compressed data as
+ * is from the source jars (no re-compression).
+ */
+@Log
+class JarAssembler {
+
+    private final static int LOCAL_HEADER = 0x04034b50;
+    private final static int CENTRAL_HEADER = 0x02014b50;
+    private final static int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private final static int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private final static int ZIP64_LOCATOR = 0x07064b50;
+    private final static int UTF8_FLAG = 0x800;
+    private final static String SERVICES = "META-INF/services/";
+    private final static int BUFFER_SIZE = 1024 * 1024;
+
+    private final int threads;
+    private final int time;
+    private final int date;
+    private final JarShrinker shrinker;
+
+    /**
+     * @param threads the number of threads reading the jars.
+     * @param timestamp the timestamp of all the uber jar entries (for reproducible output).
+     */
+    JarAssembler(int threads, long timestamp) {
+        this(threads, timestamp, null);
+    }
+
+    /**
+     * @param threads the number of threads reading the jars.
+     * @param timestamp the timestamp of all the uber jar entries (for reproducible output).
+     * @param shrinker the shrinker removing the unreachable classes and resources (null to include everything).
+     */
+    JarAssembler(int threads, long timestamp, JarShrinker shrinker) {
+        this.threads = Math.max(1, threads);
+        this.shrinker = shrinker;
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneOffset.UTC);
+        if (dateTime.getYear() < 1980) {
+            dateTime = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        this.time = (dateTime.getHour() << 11) | (dateTime.getMinute() << 5) | (dateTime.getSecond() >> 1);
+        this.date = ((dateTime.getYear() - 1980) << 9) | (dateTime.getMonthValue() << 5) | dateTime.getDayOfMonth();
+    }
+
+    /**
+     * Entry copied from a source jar.
+     */
+    static class RawEntry {
+        String name;
+        int mode;
+        int flags;
+        int method;
+        int time;
+        int date;
+        long crc;
+        long compressedSize;
+        long size;
+        long localHeader;
+        long data;
+        int source;
+        byte[] content;
+        byte[] extra;
+    }
+
+    /**
+     * Assemble the uber jar.
+     *
+     * @param files the jars and plain files to include (plain files are added at the root of the uber jar).
+     * @param manifest the uber jar manifest.
+     * @param target the uber jar.
+     */
+    void assemble(List<Path> files, Manifest manifest, Path target) throws Exception {
+        List<Path> sources = new ArrayList<>(files);
+        Collections.sort(sources);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, sources.size())));
+        try {
+            assemble(sources, manifest, target, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assemble(List<Path> sources, Manifest manifest, Path target, ExecutorService executor) throws Exception {
+        // read the sources in parallel
+        List<List<RawEntry>> contents = new ArrayList<>();
+        List<Future<List<RawEntry>>> futures = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            final int source = i;
+            futures.add(executor.submit(() -> read(sources.get(source), source, this)));
+        }
+        for (Future<List<RawEntry>> future : futures) {
+            contents.add(future.get());
+        }
+
+        // merge
+        TreeMap<String, RawEntry> entries = new TreeMap<>();
+        Map<String, LinkedHashSet<String>> services = new TreeMap<>();
+        int conflicts = 0;
+        for (List<RawEntry> content : contents) {
+            for (RawEntry entry : content) {
+                if (excluded(entry.name)) {
+                    continue;
+                }
+                if (entry.name.startsWith(SERVICES) && !entry.name.endsWith("/")) {
+                    LinkedHashSet<String> lines = services.computeIfAbsent(entry.name, key -> new LinkedHashSet<>());
+                    for (String line : new String(content(sources.get(entry.source), entry), StandardCharsets.UTF_8).split("\\r?\\n")) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            lines.add(line);
+                        }
+                    }
+                    continue;
+                }
+                RawEntry existing = entries.putIfAbsent(entry.name, entry);
+                if (existing != null && !entry.name.endsWith("/")) {
+                    conflicts++;
+                    log.fine("Duplicate entry " + entry.name + " in " + sources.get(entry.source) + ", using " + sources.get(existing.source));
+                }
+            }
+        }
+        for (Map.Entry<String, LinkedHashSet<String>> service : services.entrySet()) {
+            entries.put(service.getKey(), created(service.getKey(), (String.join("\n", service.getValue()) + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+        if (conflicts > 0) {
+            log.warning(conflicts + " duplicate entries ignored (first jar wins)");
+        }
+
+        if (shrinker != null) {
+            shrink(sources, entries, services, manifest, executor);
+        }
+
+        // write, manifest first
+        List<RawEntry> ordered = new ArrayList<>();
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        manifest.write(manifestBytes);
+        ordered.add(entries.containsKey("META-INF/") ? entries.remove("META-INF/") : created("META-INF/", new byte[0]));
+        ordered.add(created(JarFile.MANIFEST_NAME, manifestBytes.toByteArray()));
+        ordered.addAll(entries.values());
+        ordered.forEach(entry -> {
+            entry.time = time;
+            entry.date = date;
+        });
+        write(sources, ordered, target);
+    }
+
+    /**
+     * Remove the unreachable classes and resources from the entries.
+     */
+    private void shrink(List<Path> sources, TreeMap<String, RawEntry> entries, Map<String, LinkedHashSet<String>> services, Manifest manifest, ExecutorService executor) throws Exception {
+        // read the class references in parallel (one task per source jar)
+        Map<Integer, List<RawEntry>> classes = new TreeMap<>();
+        for (RawEntry entry : entries.values()) {
+            if (entry.source >= 0 && entry.content == null && entry.name.endsWith(".class")) {
+                classes.computeIfAbsent(entry.source, key -> new ArrayList<>()).add(entry);
+            }
+        }
+        List<Future<Map<String, Set<String>>>> futures = new ArrayList<>();
+        for (Map.Entry<Integer, List<RawEntry>> source : classes.entrySet()) {
+            futures.add(executor.submit(() -> {
+                Map<String, Set<String>> references = new HashMap<>();
+                try (FileChannel channel = FileChannel.open(sources.get(source.getKey()), StandardOpenOption.READ)) {
+                    for (RawEntry entry : source.getValue()) {
+                        Set<String> classReferences = JarShrinker.references(content(channel, entry));
+                        classReferences.removeIf(reference -> reference.equals(entry.name) || !entries.containsKey(reference));
+                        references.put(entry.name, classReferences);
+                    }
+                }
+                return references;
+            }));
+        }
+        Map<String, Set<String>> references = new HashMap<>();
+        for (Future<Map<String, Set<String>>> future : futures) {
+            references.putAll(future.get());
+        }
+
+        List<String> roots = new ArrayList<>();
+        for (Map.Entry<String, LinkedHashSet<String>> service : services.entrySet()) {
+            roots.add(service.getKey().substring(SERVICES.length()).replace('.', '/') + ".class");
+            for (String provider : service.getValue()) {
+                roots.add(provider.replace('.', '/') + ".class");
+            }
+        }
+        String mainClass = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        if (mainClass != null) {
+            roots.add(mainClass.replace('.', '/') + ".class");
+        }
+
+        long before = 0;
+        for (RawEntry entry : entries.values()) {
+            before += entry.compressedSize;
+        }
+        Set<String> unreachable = shrinker.unreachable(entries.keySet(), references, roots);
+        long removed = 0;
+        int removedClasses = 0;
+        for (String name : unreachable) {
+            removed += entries.remove(name).compressedSize;
+            if (name.endsWith(".class")) {
+                removedClasses++;
+            }
+            log.finest("Removed unreachable entry " + name);
+        }
+        log.info("Shrinking removed " + removedClasses + "/" + references.size() + " classes and " + (unreachable.size() - removedClasses)
+                + " resources: " + before / 1024 + " KB -> " + (before - removed) / 1024 + " KB (-" + (before > 0 ? removed * 100 / before : 0) + "%)");
+    }
+
+    private static boolean excluded(String name) {
+        if (name.equals(JarFile.MANIFEST_NAME) || name.equals("META-INF/INDEX.LIST") || name.equals("module-info.class") || name.equals("META-INF/")) {
+            return true;
+        }
+        if (name.startsWith("META-INF/") && name.indexOf('/', "META-INF/".length()) == -1) {
+            String upper = name.toUpperCase(Locale.ROOT);
+            return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC");
+        }
+        return false;
+    }
+
+    /**
+     * Read the central directory of a jar, or create an entry for a plain file.
+     */
+    private static List<RawEntry> read(Path source, int index, JarAssembler assembler) throws IOException {
+        List<RawEntry> entries = new ArrayList<>();
+        if (!source.getFileName().toString().endsWith(".jar")) {
+            RawEntry entry = assembler.created(source.getFileName().toString(), Files.readAllBytes(source));
+            entry.source = index;
+            entries.add(entry);
+            return entries;
+        }
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int tail = (int) Math.min(size, 22 + 0xFFFF + 20);
+            ByteBuffer end = read(channel, size - tail, tail);
+            int position = -1;
+            for (int i = tail - 22; i >= 0; i--) {
+                if (end.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                    position = i;
+                    break;
+                }
+            }
+            if (position == -1) {
+                throw new ZipException("End of central directory not found in " + source);
+            }
+            long count = Short.toUnsignedInt(end.getShort(position + 10));
+            long directorySize = Integer.toUnsignedLong(end.getInt(position + 12));
+            long directoryOffset = Integer.toUnsignedLong(end.getInt(position + 16));
+            if (position >= 20 && end.getInt(position - 20) == ZIP64_LOCATOR) {
+                ByteBuffer zip64 = read(channel, end.getLong(position - 20 + 8), 56);
+                if (zip64.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                    count = zip64.getLong(32);
+                    directorySize = zip64.getLong(40);
+                    directoryOffset = zip64.getLong(48);
+                }
+            }
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            int offset = 0;
+            ByteBuffer local = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+            for (long i = 0; i < count; i++) {
+                if (directory.getInt(offset) != CENTRAL_HEADER) {
+                    throw new ZipException("Invalid central directory in " + source);
+                }
+                RawEntry entry = new RawEntry();
+                entry.source = index;
+                entry.flags = Short.toUnsignedInt(directory.getShort(offset + 8));
+                entry.method = Short.toUnsignedInt(directory.getShort(offset + 10));
+                entry.time = Short.toUnsignedInt(directory.getShort(offset + 12));
+                entry.date = Short.toUnsignedInt(directory.getShort(offset + 14));
+                entry.crc = Integer.toUnsignedLong(directory.getInt(offset + 16));
+                entry.compressedSize = Integer.toUnsignedLong(directory.getInt(offset + 20));
+                entry.size = Integer.toUnsignedLong(directory.getInt(offset + 24));
+                int nameLength = Short.toUnsignedInt(directory.getShort(offset + 28));
+                int extraLength = Short.toUnsignedInt(directory.getShort(offset + 30));
+                int commentLength = Short.toUnsignedInt(directory.getShort(offset + 32));
+                entry.localHeader = Integer.toUnsignedLong(directory.getInt(offset + 42));
+                byte[] name = new byte[nameLength];
+                directory.duplicate().position(offset + 46).get(name);
+                entry.name = new String(name, StandardCharsets.UTF_8);
+                offset += 46 + nameLength + extraLength + commentLength;
+                if ((entry.flags & 1) != 0 || entry.compressedSize == 0xFFFFFFFFL || entry.size == 0xFFFFFFFFL || entry.localHeader == 0xFFFFFFFFL) {
+                    throw new ZipException("Unsupported entry " + entry.name + " (encrypted or zip64) in " + source);
+                }
+                local.clear();
+                channel.read(local, entry.localHeader);
+                if (local.getInt(0) != LOCAL_HEADER) {
+                    throw new ZipException("Invalid local header for " + entry.name + " in " + source);
+                }
+                entry.data = entry.localHeader + 30 + Short.toUnsignedInt(local.getShort(26)) + Short.toUnsignedInt(local.getShort(28));
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Get the uncompressed content of an entry.
+     */
+    private static byte[] content(Path source, RawEntry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            return content(channel, entry);
+        }
+    }
+
+    private static byte[] content(FileChannel channel, RawEntry entry) throws IOException {
+        byte[] data = read(channel, entry.data, (int) entry.compressedSize).array();
+        if (entry.method == ZipEntry.STORED) {
+            return data;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] content = new byte[(int) entry.size];
+            int count = 0;
+            while (count < content.length && !inflater.finished()) {
+                int read = inflater.inflate(content, count, content.length - count);
+                if (read == 0 && inflater.needsInput()) {
+                    break;
+                }
+                count += read;
+            }
+            return content;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Create an entry (compressed in memory) for a content not coming from a jar.
+     */
+    private RawEntry created(String name, byte[] content) {
+        return created(name, content, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Create an entry (compressed in memory with the given level, stored with level 0).
+     */
+    RawEntry created(String name, byte[] content, int level) {
+        RawEntry entry = new RawEntry();
+        entry.name = name;
+        entry.flags = UTF8_FLAG;
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.crc = crc.getValue();
+        entry.size = content.length;
+        entry.time = time;
+        entry.date = date;
+        if (content.length == 0 || level == 0) {
+            entry.method = ZipEntry.STORED;
+            entry.content = content;
+        } else {
+            Deflater deflater = new Deflater(level, true);
+            try (ByteArrayOutputStream compressed = new ByteArrayOutputStream()) {
+                deflater.setInput(content);
+                deflater.finish();
+                byte[] buffer = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+                entry.method = ZipEntry.DEFLATED;
+                entry.content = compressed.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                deflater.end();
+            }
+        }
+        entry.compressedSize = entry.content.length;
+        entry.source = -1;
+        return entry;
+    }
+
+    /**
+     * Create a stored (not compressed) entry for a file, copied from the file when writing.
+     */
+    RawEntry stored(String name, Path file, int source) throws IOException {
+        RawEntry entry = new RawEntry();
+        entry.name = name;
+        entry.flags = UTF8_FLAG;
+        entry.method = ZipEntry.STORED;
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        entry.crc = crc.getValue();
+        entry.size = Files.size(file);
+        entry.compressedSize = entry.size;
+        entry.time = time;
+        entry.date = date;
+        entry.source = source;
+        return entry;
+    }
+
+    /**
+     * Write a zip file.
+     *
+     * @param sources the source files of the entries not created in memory.
+     * @param entries the entries, in order.
+     * @param target the zip file.
+     */
+    static void write(List<Path> sources, List<RawEntry> entries, Path target) throws IOException {
+        FileChannel[] channels = new FileChannel[sources.size()];
+        try (FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long offset = 0;
+            long[] offsets = new long[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                RawEntry entry = entries.get(i);
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                byte[] extra = entry.extra != null ? entry.extra : new byte[0];
+                if (buffer.remaining() < 30 + name.length + extra.length) {
+                    flush(buffer, output);
+                }
+                offsets[i] = offset;
+                // local header, without data descriptor as sizes and crc are known
+                buffer.putInt(LOCAL_HEADER).putShort((short) 20).putShort((short) ((entry.flags & ~0x8) | UTF8_FLAG)).putShort((short) entry.method)
+                        .putShort((short) entry.time).putShort((short) entry.date).putInt((int) entry.crc)
+                        .putInt((int) entry.compressedSize).putInt((int) entry.size).putShort((short) name.length).putShort((short) extra.length).put(name).put(extra);
+                offset += 30 + name.length + extra.length;
+                if (entry.content != null) {
+                    if (buffer.remaining() < entry.content.length) {
+                        flush(buffer, output);
+                    }
+                    if (buffer.remaining() < entry.content.length) {
+                        output.write(ByteBuffer.wrap(entry.content));
+                    } else {
+                        buffer.put(entry.content);
+                    }
+                } else {
+                    if (channels[entry.source] == null) {
+                        channels[entry.source] = FileChannel.open(sources.get(entry.source), StandardOpenOption.READ);
+                    }
+                    if (entry.compressedSize <= buffer.remaining()) {
+                        // small entry, copied through the buffer
+                        ByteBuffer slice = buffer.slice();
+                        slice.limit((int) entry.compressedSize);
+                        while (slice.hasRemaining()) {
+                            if (channels[entry.source].read(slice, entry.data + slice.position()) < 0) {
+                                throw new ZipException("Unexpected end of file " + sources.get(entry.source));
+                            }
+                        }
+                        buffer.position(buffer.position() + (int) entry.compressedSize);
+                    } else {
+                        flush(buffer, output);
+                        long transferred = 0;
+                        while (transferred < entry.compressedSize) {
+                            transferred += channels[entry.source].transferTo(entry.data + transferred, entry.compressedSize - transferred, output);
+                        }
+                    }
+                }
+                offset += entry.compressedSize;
+                if (offset > 0xFFFFFFFFL) {
+                    throw new ZipException("Uber jar too large (more than 4GB)");
+                }
+            }
+
+            // central directory
+            long directoryOffset = offset;
+            for (int i = 0; i < entries.size(); i++) {
+                RawEntry entry = entries.get(i);
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                byte[] extra = entry.extra != null ? entry.extra : new byte[0];
+                if (buffer.remaining() < 46 + name.length + extra.length) {
+                    flush(buffer, output);
+                }
+                // unix permissions in the external attributes (version made by unix) if defined
+                buffer.putInt(CENTRAL_HEADER).putShort((short) (entry.mode != 0 ? (3 << 8) | 20 : 20)).putShort((short) 20).putShort((short) ((entry.flags & ~0x8) | UTF8_FLAG))
+                        .putShort((short) entry.method).putShort((short) entry.time).putShort((short) entry.date).putInt((int) entry.crc)
+                        .putInt((int) entry.compressedSize).putInt((int) entry.size).putShort((short) name.length).putShort((short) extra.length)
+                        .putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(entry.mode << 16).putInt((int) offsets[i]).put(name).put(extra);
+                offset += 46 + name.length + extra.length;
+            }
+            long directorySize = offset - directoryOffset;
+            if (buffer.remaining() < 56 + 20 + 22) {
+                flush(buffer, output);
+            }
+            if (entries.size() >= 0xFFFF) {
+                // zip64 end of central directory (more than 65535 entries)
+                buffer.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+                        .putLong(entries.size()).putLong(entries.size()).putLong(directorySize).putLong(directoryOffset);
+                buffer.putInt(ZIP64_LOCATOR).putInt(0).putLong(offset).putInt(1);
+            }
+            int count = Math.min(entries.size(), 0xFFFF);
+            buffer.putInt(END_OF_CENTRAL_DIRECTORY).putShort((short) 0).putShort((short) 0).putShort((short) count).putShort((short) count)
+                    .putInt((int) directorySize).putInt((int) directoryOffset).putShort((short) 0);
+            flush(buffer, output);
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel output) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
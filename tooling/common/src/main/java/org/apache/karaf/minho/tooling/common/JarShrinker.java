@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.tooling.common;
+
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Remove the classes and resources not reachable from the runtime entry points.
+ * <p>
+ * The roots are the service interfaces and implementations listed in {@code META-INF/services}, the main class, and
+ * the classes matching the keep rules. The class references are read from the class files constant pool (class
+ * entries, descriptors, signatures, annotations and string constants matching a class name, for {@code Class.forName}),
+ * which is conservative. The resources are removed only if they are in a package where no class is kept.
+ * <p>
+ * Keep rules are class or resource names (one per line, {@code #} for comments): {@code a.b.C} (exact name),
+ * {@code a.b.*} (package), or {@code a.b.**} (package and sub-packages). The default rules keep the libraries
+ * using reflection heavily (Jersey, Camel, OpenJPA).
+ */
+@Log
+class JarShrinker {
+
+    private final static String DEFAULT_RULES = "minho-shrink.rules";
+
+    private final Set<String> exact = new HashSet<>();
+    private final Set<String> packages = new HashSet<>();
+    private final List<String> prefixes = new ArrayList<>();
+
+    JarShrinker(Collection<String> rules) {
+        for (String rule : rules) {
+            rule = rule.trim();
+            if (rule.isEmpty() || rule.startsWith("#")) {
+                continue;
+            }
+            if (rule.endsWith(".**")) {
+                prefixes.add(rule.substring(0, rule.length() - 2));
+            } else if (rule.endsWith(".*")) {
+                packages.add(rule.substring(0, rule.length() - 2));
+            } else {
+                exact.add(rule);
+            }
+        }
+    }
+
+    /**
+     * Create a shrinker with the default keep rules, the rules file, and the additional rules.
+     *
+     * @param rulesFile the keep rules file (optional).
+     * @param keep comma separated additional keep rules or entry points (optional).
+     */
+    static JarShrinker load(Path rulesFile, String keep) throws IOException {
+        List<String> rules = new ArrayList<>();
+        try (InputStream inputStream = JarShrinker.class.getClassLoader().getResourceAsStream(DEFAULT_RULES)) {
+            if (inputStream != null) {
+                rules.addAll(Arrays.asList(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8).split("\\r?\\n")));
+            }
+        }
+        if (rulesFile != null) {
+            rules.addAll(Files.readAllLines(rulesFile));
+        }
+        if (keep != null) {
+            rules.addAll(Arrays.asList(keep.split(",")));
+        }
+        return new JarShrinker(rules);
+    }
+
+    /**
+     * Check if an entry matches the keep rules.
+     */
+    boolean keep(String entry) {
+        String folder = folder(entry);
+        String pkg = folder.isEmpty() ? "" : folder.substring(0, folder.length() - 1).replace('/', '.');
+        String name = entry.endsWith(".class") ? entry.substring(0, entry.length() - ".class".length()).replace('/', '.') : entry.replace('/', '.');
+        if (exact.contains(name) || packages.contains(pkg)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute the unreachable entries.
+     *
+     * @param names all the entries.
+     * @param references the references of each class entry (class entry names).
+     * @param roots the root class entries.
+     * @return the entries to remove.
+     */
+    Set<String> unreachable(Collection<String> names, Map<String, Set<String>> references, Collection<String> roots) {
+        Set<String> reachable = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        for (String name : names) {
+            if (name.endsWith(".class") && (name.startsWith("META-INF/") || keep(name))) {
+                queue.add(name);
+            }
+        }
+        queue.addAll(roots);
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (!references.containsKey(name) || !reachable.add(name)) {
+                continue;
+            }
+            queue.addAll(references.get(name));
+        }
+
+        // packages with classes, and packages with reachable classes
+        Set<String> classPackages = new HashSet<>();
+        Set<String> keptPackages = new HashSet<>();
+        for (String name : references.keySet()) {
+            classPackages.add(folder(name));
+            if (reachable.contains(name)) {
+                keptPackages.add(folder(name));
+            }
+        }
+        Set<String> unreachable = new TreeSet<>();
+        for (String name : names) {
+            if (name.startsWith("META-INF/") || name.endsWith("/")) {
+                continue;
+            }
+            if (name.endsWith(".class")) {
+                if (references.containsKey(name) && !reachable.contains(name)) {
+                    unreachable.add(name);
+                }
+            } else if (!folder(name).isEmpty() && classPackages.contains(folder(name)) && !keptPackages.contains(folder(name)) && !keep(name)) {
+                unreachable.add(name);
+            }
+        }
+        // empty folders
+        Set<String> used = new HashSet<>();
+        for (String name : names) {
+            if (!name.endsWith("/") && !unreachable.contains(name)) {
+                String folder = folder(name);
+                while (!folder.isEmpty() && used.add(folder)) {
+                    folder = folder(folder.substring(0, folder.length() - 1));
+                }
+            }
+        }
+        for (String name : names) {
+            if (name.endsWith("/") && !name.startsWith("META-INF/") && !used.contains(name)) {
+                unreachable.add(name);
+            }
+        }
+        return unreachable;
+    }
+
+    private static String folder(String name) {
+        int index = name.lastIndexOf('/');
+        return index >= 0 ? name.substring(0, index + 1) : "";
+    }
+
+    /**
+     * Read the class names referenced by a class file (as class entry names).
+     */
+    static Set<String> references(byte[] classFile) throws IOException {
+        Set<String> references = new HashSet<>();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (input.readInt() != 0xCAFEBABE) {
+            return references;
+        }
+        input.readUnsignedShort();
+        input.readUnsignedShort();
+        int count = input.readUnsignedShort();
+        for (int i = 1; i < count; i++) {
+            int tag = input.readUnsignedByte();
+            switch (tag) {
+                case 1: // utf8
+                    utf8(input.readUTF(), references);
+                    break;
+                case 3: // integer
+                case 4: // float
+                case 9: // field ref
+                case 10: // method ref
+                case 11: // interface method ref
+                case 12: // name and type
+                case 17: // dynamic
+                case 18: // invoke dynamic
+                    input.skipBytes(4);
+                    break;
+                case 5: // long
+                case 6: // double
+                    input.skipBytes(8);
+                    i++;
+                    break;
+                case 7: // class
+                case 8: // string
+                case 16: // method type
+                case 19: // module
+                case 20: // package
+                    input.skipBytes(2);
+                    break;
+                case 15: // method handle
+                    input.skipBytes(3);
+                    break;
+                default:
+                    throw new IOException("Invalid constant pool tag " + tag);
+            }
+        }
+        return references;
+    }
+
+    private static void utf8(String value, Set<String> references) {
+        if (value.isEmpty() || value.length() > 1024) {
+            return;
+        }
+        // class name (internal or binary name)
+        references.add(value.replace('.', '/') + ".class");
+        // descriptors and signatures
+        int index = value.indexOf('L');
+        while (index >= 0) {
+            int end = index + 1;
+            while (end < value.length() && value.charAt(end) != ';' && value.charAt(end) != '<') {
+                end++;
+            }
+            if (end < value.length() && end > index + 1) {
+                references.add(value.substring(index + 1, end) + ".class");
+            }
+            index = value.indexOf('L', index + 1);
+        }
+    }
+
+}
@@ -20,21 +20,39 @@ package org.apache.karaf.minho.tooling.common;
 import lombok.Data;
 import lombok.extern.java.Log;
 import org.apache.karaf.minho.boot.config.Config;
-import org.apache.karaf.minho.tooling.common.maven.Parser;
+import org.apache.karaf.minho.tooling.common.maven.Resolver;
 import org.apache.karaf.minho.tooling.common.model.MinhoBuild;
 
 import java.io.*;
 import java.net.URL;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @Data
 @Log
 public class Runtime {
 
+    /**
+     * Default timestamp of the entries (1980-02-01T00:00:00Z, the first valid zip time in any timezone).
+     */
+    private final static long DEFAULT_OUTPUT_TIMESTAMP = 315532800000L + 31L * 24 * 3600 * 1000;
+
+    /**
+     * Default maximum size of the build cache (1 GB).
+     */
+    private final static long DEFAULT_CACHE_MAX_SIZE = 1024L * 1024 * 1024;
+
     private String name;
     private String version;
     private Map<String, Object> properties = new HashMap<>();
@@ -65,82 +83,23 @@ public class Runtime {
         });
     }
 
-    public static void createPackage(InputStream minhoBuild) throws Exception {
+    public static Runtime load(InputStream minhoBuild) throws Exception {
         MinhoBuild build = MinhoBuild.load(minhoBuild);
-        Runtime runtime = new Runtime(build.getName(), build.getVersion(), build.getProperties());
+        Runtime runtime = new Runtime(build.getName(), build.getVersion(), (build.getProperties() != null) ? build.getProperties() : new HashMap<>());
         build.getDependencies().forEach(dependency -> {
             runtime.getDependencies().add(dependency);
         });
-        runtime.createPackage();
+        return runtime;
+    }
+
+    public static void createPackage(InputStream minhoBuild) throws Exception {
+        load(minhoBuild).createPackage();
     }
 
     public void createJar() throws Exception {
         log.info("Creating Minho runtime uber jar");
-        // exploded all jar
-        Path exploded = workingFolder.resolve("exploded");
-        Files.createDirectories(exploded);
         String minhoLib = (properties != null && properties.get("minho.lib") != null) ? properties.get("minho.lib").toString() : "";
         Path libFolder = baseFolder.resolve(minhoLib);
-        Files.list(libFolder).forEach(artifact -> {
-            if (artifact.toString().endsWith(".jar")) {
-
-                // test
-                try (JarFile jarFile = new JarFile(artifact.toFile())) {
-                    for (Enumeration<JarEntry> j = jarFile.entries(); j.hasMoreElements(); ) {
-                        JarEntry entry = j.nextElement();
-                        String name = entry.getName();
-                        if ("META-INF/INDEX.LIST".equals(name)) {
-                            continue;
-                        }
-                        if ("module-info.class".equals(name)) {
-                            continue;
-                        }
-                        if (entry.isDirectory()) {
-                            Files.createDirectories(exploded.resolve(name));
-                        } else {
-                            if (name.contains("META-INF/services")) {
-                                log.info("services " + name);
-                                Path service = exploded.resolve(name);
-                                try (BufferedWriter writer = new BufferedWriter(new FileWriter(service.toFile(), true))) {
-                                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(jarFile.getInputStream(entry)))) {
-                                        String line = null;
-                                        while ((line = reader.readLine()) != null) {
-                                            if (!line.startsWith("#")) {
-                                                writer.write(line + "\n");
-                                            }
-                                        }
-                                    }
-                                }
-                            } else {
-                                InputStream is = null;
-                                try {
-                                    is = jarFile.getInputStream(entry);
-                                    try (FileOutputStream os = new FileOutputStream(new File(exploded.toFile(), name))) {
-                                        byte[] buffer = new byte[1024];
-                                        int readCount = 0;
-                                        while ((readCount = is.read(buffer)) >= 0) {
-                                            os.write(buffer, 0, readCount);
-                                        }
-                                        os.flush();
-                                    }
-                                } catch (Exception e) {
-                                    log.warning("Can't extract " + entry + ": " + e.getMessage());
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    log.warning("Can't extract jar " + artifact);
-                }
-            } else {
-                try {
-                    Files.copy(artifact, exploded.resolve(artifact.getFileName()), StandardCopyOption.REPLACE_EXISTING);
-                } catch (Exception e) {
-                    log.warning("Can't copy " + artifact + ": " + e.getMessage());
-                }
-            }
-        });
-        // package all as a uber jar
         Path uberJarPath = baseFolder.resolve(name + ".jar");
         // add Main-Class in the manifest
         Manifest manifest = new Manifest();
@@ -149,15 +108,32 @@ public class Runtime {
             String mainClass = (properties != null && properties.get("MainClass") != null) ? properties.get("MainClass").toString() : "org.apache.karaf.minho.boot.Main";
             manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
         }
-        try (JarOutputStream uberJar = new JarOutputStream(new FileOutputStream(uberJarPath.toFile()), manifest)) {
-            Files.list(exploded).forEach(file -> {
-                log.info("Adding jar entry " + file);
-                try {
-                    addJarContent(file, exploded.toString(), uberJar);
-                } catch (Exception e) {
-                    log.warning("Can't add jar content: " + e.getMessage());
-                }
-            });
+        String layout = (properties != null && properties.get("minho.jar.layout") != null) ? properties.get("minho.jar.layout").toString() : "exploded";
+        BuildCache buildCache = buildCache();
+        String key = null;
+        if (buildCache != null) {
+            List<Path> artifacts;
+            try (Stream<Path> stream = Files.list(libFolder)) {
+                artifacts = stream.filter(Files::isRegularFile).filter(artifact -> !artifact.equals(uberJarPath)).collect(Collectors.toList());
+            }
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.write(manifestBytes);
+            Path shrinkRules = shrinkRules();
+            key = buildCache.key("jar:" + layout + ":" + outputTimestamp() + ":" + manifestBytes + ":" + (shrinkRules != null ? BuildCache.hash(shrinkRules) : ""), properties, libFolder, artifacts);
+        }
+        if (key == null || !buildCache.restore(key, uberJarPath)) {
+            if (layout.equalsIgnoreCase("nested")) {
+                createNestedJar(libFolder, uberJarPath, manifest);
+            } else {
+                createExplodedJar(libFolder, uberJarPath, manifest);
+            }
+            if (key != null) {
+                buildCache.store(key, uberJarPath);
+            }
+        }
+
+        if (isCds()) {
+            createCdsArchive(baseFolder, uberJarPath.getFileName().toString(), true);
         }
 
         // cleanup
@@ -167,38 +143,93 @@ public class Runtime {
         }
     }
 
-    private void addJarContent(Path source, String base, JarOutputStream target) throws Exception {
-        String name = source.toString().substring(base.length() + 1);
-        name = name.replace("\\", "/");
-        if (Files.isDirectory(source)) {
-            if (!name.endsWith("/")) {
-                name += "/";
-            }
-            JarEntry entry = new JarEntry(name);
-            entry.setTime(Files.getLastModifiedTime(source).toMillis());
-            target.putNextEntry(entry);
-            target.closeEntry();
-            Files.list(source).forEach(child -> {
-                try {
-                    addJarContent(child, base, target);
-                } catch (Exception e) {
-                    log.warning("Can't add jar content " + e.getMessage());
-                }
-            });
-        } else {
-            JarEntry entry = new JarEntry(name);
-            entry.setTime(Files.getLastModifiedTime(source).toMillis());
-            target.putNextEntry(entry);
-            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(source.toFile()))) {
-                byte[] buffer = new byte[1024];
-                while (true) {
-                    int count = in.read(buffer);
-                    if (count == -1) {
-                        break;
+    private void createExplodedJar(Path libFolder, Path uberJarPath, Manifest manifest) throws Exception {
+        List<Path> artifacts;
+        try (Stream<Path> stream = Files.list(libFolder)) {
+            artifacts = stream.filter(Files::isRegularFile).filter(artifact -> !artifact.equals(uberJarPath)).collect(Collectors.toList());
+        }
+        int threads = (properties != null && properties.get("minho.jar.threads") != null) ? Integer.parseInt(properties.get("minho.jar.threads").toString()) : java.lang.Runtime.getRuntime().availableProcessors();
+        long begin = System.nanoTime();
+        JarShrinker shrinker = null;
+        if (properties != null && properties.get("minho.shrink") != null && properties.get("minho.shrink").toString().equalsIgnoreCase("true")) {
+            shrinker = JarShrinker.load(shrinkRules(), (properties.get("minho.shrink.keep") != null) ? properties.get("minho.shrink.keep").toString() : null);
+        }
+        new JarAssembler(threads, outputTimestamp(), shrinker).assemble(artifacts, manifest, uberJarPath);
+        log.info("Uber jar " + uberJarPath + " assembled from " + artifacts.size() + " artifacts in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+    }
+
+    /**
+     * Create the uber jar with the nested layout: the boot jar is extracted at the root of the uber jar, and the other
+     * jars are stored (not compressed) in the lib folder of the uber jar, loaded in place by the boot.
+     */
+    private void createNestedJar(Path libFolder, Path uberJarPath, Manifest manifest) throws Exception {
+        if (properties != null && properties.get("minho.shrink") != null && properties.get("minho.shrink").toString().equalsIgnoreCase("true")) {
+            log.warning("Shrinking is not supported with the nested layout (the jars are kept intact), ignored");
+        }
+        manifest.getMainAttributes().putValue("Minho-Layout", "nested");
+        manifest.getMainAttributes().putValue("Minho-Lib", "lib/");
+        List<Path> artifacts;
+        try (Stream<Path> stream = Files.list(libFolder)) {
+            artifacts = stream.filter(Files::isRegularFile).filter(artifact -> !artifact.equals(uberJarPath)).sorted().collect(Collectors.toList());
+        }
+        Set<String> entries = new HashSet<>();
+        entries.add(JarFile.MANIFEST_NAME);
+        LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(outputTimestamp()), ZoneOffset.UTC);
+        try (JarOutputStream uberJar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(uberJarPath.toFile()), 64 * 1024))) {
+            JarEntry manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+            manifestEntry.setTimeLocal(timestamp);
+            uberJar.putNextEntry(manifestEntry);
+            manifest.write(uberJar);
+            uberJar.closeEntry();
+            for (Path artifact : artifacts) {
+                String fileName = artifact.getFileName().toString();
+                if (fileName.endsWith(".jar") && fileName.startsWith("minho-boot")) {
+                    // boot classes at the root, loaded by the system class loader
+                    try (JarFile jarFile = new JarFile(artifact.toFile())) {
+                        for (Enumeration<JarEntry> j = jarFile.entries(); j.hasMoreElements(); ) {
+                            JarEntry entry = j.nextElement();
+                            if (entry.getName().equals(JarFile.MANIFEST_NAME) || entry.getName().equals("META-INF/INDEX.LIST") || entry.getName().equals("module-info.class")) {
+                                continue;
+                            }
+                            if (!entries.add(entry.getName())) {
+                                if (!entry.isDirectory()) {
+                                    log.warning("Duplicate entry " + entry.getName() + " in " + artifact + ", ignored");
+                                }
+                                continue;
+                            }
+                            JarEntry uberEntry = new JarEntry(entry.getName());
+                            uberEntry.setTimeLocal(timestamp);
+                            uberJar.putNextEntry(uberEntry);
+                            try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                                inputStream.transferTo(uberJar);
+                            }
+                            uberJar.closeEntry();
+                        }
                     }
-                    target.write(buffer, 0, count);
+                } else if (fileName.endsWith(".jar")) {
+                    CRC32 crc = new CRC32();
+                    try (InputStream inputStream = new CheckedInputStream(Files.newInputStream(artifact), crc)) {
+                        inputStream.transferTo(OutputStream.nullOutputStream());
+                    }
+                    JarEntry entry = new JarEntry("lib/" + fileName);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(Files.size(artifact));
+                    entry.setCompressedSize(Files.size(artifact));
+                    entry.setCrc(crc.getValue());
+                    entry.setTimeLocal(timestamp);
+                    entries.add(entry.getName());
+                    uberJar.putNextEntry(entry);
+                    Files.copy(artifact, uberJar);
+                    uberJar.closeEntry();
+                } else if (entries.add(fileName)) {
+                    JarEntry entry = new JarEntry(fileName);
+                    entry.setTimeLocal(timestamp);
+                    uberJar.putNextEntry(entry);
+                    Files.copy(artifact, uberJar);
+                    uberJar.closeEntry();
+                } else {
+                    log.warning("Duplicate entry " + fileName + ", ignored");
                 }
-                target.closeEntry();
             }
         }
     }
@@ -219,23 +250,22 @@ public class Runtime {
             if (properties != null && properties.get("include.transitive") != null && properties.get("include.transitive").toString().equalsIgnoreCase("true")) {
                 // resolving dependencies
                 String pomLocation = location + "/pom";
-                File pomFile = Parser.resolve(pomLocation);
+                Resolver resolver = Resolver.of(properties);
+                File pomFile = resolver.resolve(pomLocation);
                 if (pomFile.exists()) {
-                    List<String> dependencies = new ArrayList<>();
-                    Parser.getDependencies(pomFile, dependencies, true);
-                    dependencies.forEach(dependency -> {
+                    List<String> dependencies = resolver.collect(pomFile, true);
+                    for (Map.Entry<String, File> dependency : resolver.resolve(dependencies).entrySet()) {
                         try {
-                            File dependencyFile = Parser.resolve(dependency);
-                            Path targetPath = runtimeDependenciesFolder.resolve(dependencyFile.toPath().getFileName());
-                            Files.copy(dependencyFile.toPath(), targetPath, StandardCopyOption.REPLACE_EXISTING);
+                            Path targetPath = runtimeDependenciesFolder.resolve(dependency.getValue().toPath().getFileName());
+                            copyIfChanged(dependency.getValue().toPath(), targetPath);
                         } catch (Exception e) {
-                            log.warning("Can't include transitive " + dependency + ": " + e);
+                            log.warning("Can't include transitive " + dependency.getKey() + ": " + e);
                         }
-                    });
+                    }
                 }
             }
             // resolve artifact
-            File file = Parser.resolve(location);
+            File file = Resolver.of(properties).resolve(location);
             location = "file:" + file.getAbsolutePath();
         }
 
@@ -252,16 +282,77 @@ public class Runtime {
             }
             Path servicePath = Paths.get(location);
             Path targetPath = runtimeDependenciesFolder.resolve(servicePath.getFileName());
-            Files.copy(servicePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            copyIfChanged(servicePath, targetPath);
+        }
+    }
+
+    /**
+     * Copy an artifact, preserving its last modified time, unless the target is already up to date (same size, and same
+     * time or same content). The content is only compared when the target has the CDS timestamp (the CDS archive
+     * creation sets the jars time to the output timestamp): it costs reading both files.
+     */
+    private void copyIfChanged(Path source, Path target) throws IOException {
+        if (Files.isRegularFile(target) && Files.size(target) == Files.size(source)) {
+            FileTime time = Files.getLastModifiedTime(target);
+            if (time.equals(Files.getLastModifiedTime(source)) || (time.equals(cdsTimestamp()) && sameContent(source, target))) {
+                return;
+            }
+        }
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    private static boolean sameContent(Path first, Path second) throws IOException {
+        try (InputStream firstStream = Files.newInputStream(first); InputStream secondStream = Files.newInputStream(second)) {
+            byte[] firstBuffer = new byte[64 * 1024];
+            byte[] secondBuffer = new byte[64 * 1024];
+            int read;
+            while ((read = firstStream.readNBytes(firstBuffer, 0, firstBuffer.length)) > 0) {
+                if (secondStream.readNBytes(secondBuffer, 0, read) != read || !Arrays.equals(firstBuffer, 0, read, secondBuffer, 0, read)) {
+                    return false;
+                }
+            }
+            return secondStream.read() == -1;
         }
     }
 
+    /**
+     * Timestamp of the entries in the uber jar and archive, for reproducible builds: the minho.outputTimestamp
+     * property (epoch seconds or ISO-8601 instant), the SOURCE_DATE_EPOCH environment variable, or a constant.
+     */
+    long outputTimestamp() {
+        String outputTimestamp = (properties != null && properties.get("minho.outputTimestamp") != null) ? properties.get("minho.outputTimestamp").toString() : System.getenv("SOURCE_DATE_EPOCH");
+        if (outputTimestamp == null || outputTimestamp.isBlank()) {
+            return DEFAULT_OUTPUT_TIMESTAMP;
+        }
+        outputTimestamp = outputTimestamp.trim();
+        if (outputTimestamp.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(outputTimestamp) * 1000;
+        }
+        return Instant.parse(outputTimestamp).toEpochMilli();
+    }
+
+    /**
+     * Keep rules file of the uber jar shrinking (minho.shrink.rules), null if not defined.
+     */
+    private Path shrinkRules() {
+        return (properties != null && properties.get("minho.shrink.rules") != null) ? Paths.get(properties.get("minho.shrink.rules").toString()) : null;
+    }
+
+    /**
+     * Build cache in the minho.cache folder (property or system property, ${user.home}/.minho/cache by default), null if
+     * disabled (minho.cache=false), bounded to minho.cache.maxSize bytes (property or system property, 1 GB by default).
+     */
+    private BuildCache buildCache() {
+        String cache = (properties != null && properties.get("minho.cache") != null) ? properties.get("minho.cache").toString() : System.getProperty("minho.cache", Paths.get(System.getProperty("user.home"), ".minho", "cache").toString());
+        if (cache.equalsIgnoreCase("false")) {
+            return null;
+        }
+        String maxSize = (properties != null && properties.get("minho.cache.maxSize") != null) ? properties.get("minho.cache.maxSize").toString() : System.getProperty("minho.cache.maxSize", String.valueOf(DEFAULT_CACHE_MAX_SIZE));
+        return new BuildCache(Paths.get(cache), Long.parseLong(maxSize.trim()));
+    }
+
     public static void createJar(InputStream minhoBuild) throws Exception {
-        MinhoBuild build = MinhoBuild.load(minhoBuild);
-        Runtime runtime = new Runtime(build.getName(), build.getVersion(), build.getProperties());
-        build.getDependencies().forEach(dependency -> {
-            runtime.getDependencies().add(dependency);
-        });
+        Runtime runtime = load(minhoBuild);
         runtime.createPackage();
         runtime.createJar();
     }
@@ -270,8 +361,12 @@ public class Runtime {
         log.info("Creating Minho runtime archive");
         // create script
         createStartScript();
-        // create zip archive
-        createZipArchive();
+        // create CDS archive
+        if (isCds()) {
+            createCdsArchive();
+        }
+        // create archives
+        createArchives();
     }
 
     private void createStartScript() throws Exception {
@@ -279,75 +374,192 @@ public class Runtime {
         Files.createDirectories(binFolder);
 
         String libFolder = (properties != null && properties.get("minho.lib") != null) ? properties.get("minho.lib").toString() : "";
+        String jvmOptions = (properties != null && properties.get("minho.jvm.options") != null) ? properties.get("minho.jvm.options").toString() : null;
 
         File minhoSh = new File(binFolder.toFile(), "minho.sh");
         try (PrintWriter writer = new PrintWriter(new FileOutputStream(minhoSh))) {
             writer.println("#!/bin/sh");
             writer.println("");
-            writer.println("cd ../" + libFolder);
-            writer.println("java -jar minho-boot-1.0-SNAPSHOT.jar");
+            writer.println("cd \"$(dirname \"$0\")/../" + libFolder + "\"");
+            writer.println("");
+            if (jvmOptions != null && !jvmOptions.isBlank()) {
+                writer.println("JAVA_OPTS=\"" + jvmOptions.trim().replace("\"", "\\\"") + " $JAVA_OPTS\"");
+                writer.println("");
+            }
+            writer.println("if [ -n \"$JAVA_HOME\" ]; then");
+            writer.println("    JAVA=\"$JAVA_HOME/bin/java\"");
+            writer.println("else");
+            writer.println("    JAVA=java");
+            writer.println("fi");
+            writer.println("");
+            writer.println("# use the CDS archive if it has been created");
+            writer.println("if [ -f " + name + ".jsa ]; then");
+            writer.println("    JAVA_OPTS=\"$JAVA_OPTS -XX:SharedArchiveFile=" + name + ".jsa\"");
+            writer.println("fi");
+            writer.println("");
+            writer.println("exec \"$JAVA\" $JAVA_OPTS -jar " + bootJar(baseFolder.resolve(libFolder)) + " \"$@\"");
         }
 
         minhoSh.setExecutable(true);
     }
 
-    private void createZipArchive() throws Exception {
-        Path zipArchive = baseFolder.resolve(name + ".zip");
-        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zipArchive.toFile()))) {
-            Files.list(baseFolder).forEach(file -> {
-                try {
-                    if (!file.equals(zipArchive)) {
-                        addZipContent(file, baseFolder.toString(), zipOutputStream);
-                    }
-                } catch (Exception e) {
-                    log.warning("Can't zip jar content " + e.getMessage());
+    private String bootJar(Path libFolder) throws Exception {
+        if (Files.isDirectory(libFolder)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(libFolder, "minho-boot-*.jar")) {
+                for (Path jar : stream) {
+                    return jar.getFileName().toString();
                 }
-            });
+            }
         }
+        return "minho-boot-" + version + ".jar";
     }
 
-    private void addZipContent(Path source, String base, ZipOutputStream target) throws Exception {
-        String name = source.toString().substring(base.length() + 1);
-        name = name.replace("\\", "/");
-        if (Files.isDirectory(source)) {
-            if (!name.endsWith("/")) {
-                name += "/";
+    private boolean isCds() {
+        return properties != null && properties.get("minho.cds") != null && properties.get("minho.cds").toString().equalsIgnoreCase("true");
+    }
+
+    /**
+     * Create an AppCDS archive ({@code <name>.jsa}) for the runtime package (exploded mode).
+     * The runtime is started with {@code -XX:ArchiveClassesAtExit} (training run), and stopped once started: the
+     * classes loaded during startup are dumped in the archive, next to the boot jar.
+     */
+    public void createCdsArchive() throws Exception {
+        String libFolder = (properties != null && properties.get("minho.lib") != null) ? properties.get("minho.lib").toString() : "";
+        Path directory = baseFolder.resolve(libFolder);
+        createCdsArchive(directory, bootJar(directory), false);
+    }
+
+    /**
+     * Last modified time of the jars used by the CDS archive: the output timestamp, in seconds.
+     */
+    private FileTime cdsTimestamp() {
+        return FileTime.fromMillis(outputTimestamp() - outputTimestamp() % 1000);
+    }
+
+    private void createCdsArchive(Path directory, String jar, boolean uberJar) throws Exception {
+        log.info("Creating Minho runtime CDS archive");
+        // the JVM checks the jars modification time when using the archive: the jars get the timestamp of the archive
+        // entries (in seconds), so the archive is still valid once the runtime archive is extracted
+        FileTime timestamp = cdsTimestamp();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.jar")) {
+            for (Path file : stream) {
+                Files.setLastModifiedTime(file, timestamp);
+            }
+        }
+        String archive = name + ".jsa";
+        Files.deleteIfExists(directory.resolve(archive));
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-XX:ArchiveClassesAtExit=" + archive);
+        command.add("-Dminho.cds.training=true");
+        if (uberJar) {
+            command.add("-Dminho.jar=true");
+        }
+        command.add("-jar");
+        command.add(jar);
+        Path output = workingFolder.resolve("cds-training.log");
+        long timeout = (properties != null && properties.get("minho.cds.timeout") != null) ? Long.parseLong(properties.get("minho.cds.timeout").toString()) : 120;
+        long begin = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).redirectOutput(output.toFile()).start();
+        if (!process.waitFor(timeout, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            log.warning("CDS training run didn't complete in " + timeout + "s, see " + output);
+            return;
+        }
+        if (process.exitValue() != 0 || !Files.exists(directory.resolve(archive))) {
+            log.warning("CDS training run failed (exit code " + process.exitValue() + "), see " + output);
+            return;
+        }
+        log.info("CDS archive " + directory.resolve(archive) + " created (" + Files.size(directory.resolve(archive)) / 1024 + " KB) in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+    }
+
+    private void createArchives() throws Exception {
+        String formats = (properties != null && properties.get("minho.archive.format") != null) ? properties.get("minho.archive.format").toString() : "zip";
+        int level = (properties != null && properties.get("minho.archive.level") != null) ? Integer.parseInt(properties.get("minho.archive.level").toString()) : 6;
+        int threads = (properties != null && properties.get("minho.archive.threads") != null) ? Integer.parseInt(properties.get("minho.archive.threads").toString()) : java.lang.Runtime.getRuntime().availableProcessors();
+        boolean layered = properties != null && properties.get("minho.archive.layered") != null && properties.get("minho.archive.layered").toString().equalsIgnoreCase("true");
+        List<String> extensions = Arrays.stream(formats.split(",")).map(String::trim).filter(format -> !format.isEmpty()).collect(Collectors.toList());
+
+        // the runtime content, without the archives themselves
+        Set<Path> archives = new HashSet<>();
+        for (String extension : extensions) {
+            archives.add(baseFolder.resolve(name + "." + extension));
+            archives.add(baseFolder.resolve(name + "-dependencies." + extension));
+            archives.add(baseFolder.resolve(name + "-application." + extension));
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(baseFolder)) {
+            files = stream.filter(file -> !file.equals(baseFolder)).filter(file -> !archives.contains(file)).collect(Collectors.toList());
+        }
+
+        Map<String, List<Path>> layers = new LinkedHashMap<>();
+        if (layered) {
+            List<PathMatcher> application = new ArrayList<>();
+            if (properties.get("minho.archive.application") != null) {
+                for (String glob : properties.get("minho.archive.application").toString().split(",")) {
+                    application.add(FileSystems.getDefault().getPathMatcher("glob:" + glob.trim()));
+                }
             }
-            ZipEntry entry = new JarEntry(name);
-            entry.setTime(Files.getLastModifiedTime(source).toMillis());
-            target.putNextEntry(entry);
-            target.closeEntry();
-            Files.list(source).forEach(child -> {
-                try {
-                    addZipContent(child, base, target);
-                } catch (Exception e) {
-                    log.warning("Can't add zip content " + e.getMessage());
+            List<Path> dependencies = new ArrayList<>();
+            List<Path> applications = new ArrayList<>();
+            for (Path file : files) {
+                if (isDependency(file, application)) {
+                    dependencies.add(file);
+                } else if (!Files.isDirectory(file)) {
+                    applications.add(file);
                 }
-            });
+            }
+            // the folders go with the application layer (a layer can be extracted alone)
+            files.stream().filter(Files::isDirectory).forEach(applications::add);
+            Path libFolder = baseFolder.resolve((properties.get("minho.lib") != null) ? properties.get("minho.lib").toString() : "");
+            if (!libFolder.equals(baseFolder)) {
+                dependencies.add(libFolder);
+            }
+            layers.put("-dependencies", dependencies);
+            layers.put("-application", applications);
         } else {
-            ZipEntry entry = new ZipEntry(name);
-            entry.setTime(Files.getLastModifiedTime(source).toMillis());
-            target.putNextEntry(entry);
-            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(source.toFile()))) {
-                byte[] buffer = new byte[1024];
-                while (true) {
-                    int count = in.read(buffer);
-                    if (count == -1) {
-                        break;
+            layers.put("", files);
+        }
+
+        ArchiveWriter writer = new ArchiveWriter(threads, outputTimestamp(), level);
+        BuildCache buildCache = buildCache();
+        for (String extension : extensions) {
+            for (Map.Entry<String, List<Path>> layer : layers.entrySet()) {
+                Path archive = baseFolder.resolve(name + layer.getKey() + "." + extension);
+                String key = null;
+                if (buildCache != null) {
+                    List<Path> content = layer.getValue().stream().filter(Files::isRegularFile).collect(Collectors.toList());
+                    String folders = layer.getValue().stream().filter(Files::isDirectory).map(file -> ArchiveWriter.name(baseFolder, file)).sorted().collect(Collectors.joining(","));
+                    key = buildCache.key("archive:" + extension + ":" + level + ":" + layer.getKey() + ":" + outputTimestamp() + ":" + folders, properties, baseFolder, content);
+                    if (buildCache.restore(key, archive)) {
+                        continue;
                     }
-                    target.write(buffer, 0, count);
                 }
-                target.closeEntry();
+                long begin = System.nanoTime();
+                writer.write(extension, baseFolder, layer.getValue(), archive);
+                log.info("Archive " + archive + " created (" + Files.size(archive) / 1024 + " KB) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+                if (key != null) {
+                    buildCache.store(key, archive);
+                }
             }
         }
     }
 
+    /**
+     * A file of the dependencies layer is a released jar (not a SNAPSHOT), not matching the application globs
+     * (minho.archive.application).
+     */
+    private boolean isDependency(Path file, List<PathMatcher> application) {
+        String fileName = file.getFileName().toString();
+        if (Files.isDirectory(file) || !fileName.endsWith(".jar") || fileName.contains("-SNAPSHOT")) {
+            return false;
+        }
+        return application.stream().noneMatch(matcher -> matcher.matches(file.getFileName()) || matcher.matches(baseFolder.relativize(file)));
+    }
+
     public static void createArchive(InputStream minhoBuild) throws Exception {
-        MinhoBuild build = MinhoBuild.load(minhoBuild);
-        Runtime runtime = new Runtime(build.getName(), build.getVersion(), build.getProperties());
-        build.getDependencies().forEach(dependency -> {
-            runtime.getDependencies().add(dependency);
-        });
+        Runtime runtime = load(minhoBuild);
         runtime.createPackage();
         runtime.createArchive();
     }
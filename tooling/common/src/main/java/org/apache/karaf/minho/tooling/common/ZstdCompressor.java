@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.tooling.common;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal pure Java Zstandard (RFC 8878) compressor.
+ * <p>
+ * Each call creates a complete frame (frames can be concatenated, so chunks can be compressed in parallel). The
+ * blocks are compressed with a greedy LZ77 match finder (hash chains), the literals are stored raw and the sequences
+ * are encoded with the predefined FSE tables. It doesn't reach the ratio of the reference implementation, but any
+ * Zstandard decoder can read the output.
+ */
+class ZstdCompressor {
+
+    private final static int MAGIC = 0xFD2FB528;
+    private final static int WINDOW_LOG = 20;
+    private final static int MAX_OFFSET = (1 << WINDOW_LOG) - 1;
+    private final static int BLOCK_SIZE = 128 * 1024;
+    private final static int MIN_MATCH = 4;
+    private final static int HASH_LOG = 16;
+    private final static int CHAIN_DEPTH = 16;
+    private final static int SKIP_STRENGTH = 6;
+
+    private final static int[] LL_BASE = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+            16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536 };
+    private final static int[] LL_BITS = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+    private final static int[] ML_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+            35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051, 4099, 8195, 16387, 32771, 65539 };
+    private final static int[] ML_BITS = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+
+    private final static FseTable LL_TABLE = new FseTable(new int[]{ 4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1, -1, -1, -1, -1 }, 6);
+    private final static FseTable ML_TABLE = new FseTable(new int[]{ 1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1, -1, -1 }, 6);
+    private final static FseTable OF_TABLE = new FseTable(new int[]{ 1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1 }, 5);
+
+    /**
+     * FSE encoding table built from a normalized distribution.
+     */
+    private static class FseTable {
+        final int tableLog;
+        final int[] states;
+        final int[] deltaNbBits;
+        final int[] deltaFindState;
+
+        FseTable(int[] counts, int tableLog) {
+            this.tableLog = tableLog;
+            int tableSize = 1 << tableLog;
+            int[] symbols = new int[tableSize];
+            int[] cumul = new int[counts.length + 1];
+            int highThreshold = tableSize - 1;
+            for (int s = 0; s < counts.length; s++) {
+                if (counts[s] == -1) {
+                    cumul[s + 1] = cumul[s] + 1;
+                    symbols[highThreshold--] = s;
+                } else {
+                    cumul[s + 1] = cumul[s] + counts[s];
+                }
+            }
+            int step = (tableSize >> 1) + (tableSize >> 3) + 3;
+            int position = 0;
+            for (int s = 0; s < counts.length; s++) {
+                for (int i = 0; i < counts[s]; i++) {
+                    symbols[position] = s;
+                    do {
+                        position = (position + step) & (tableSize - 1);
+                    } while (position > highThreshold);
+                }
+            }
+            states = new int[tableSize];
+            for (int u = 0; u < tableSize; u++) {
+                states[cumul[symbols[u]]++] = tableSize + u;
+            }
+            deltaNbBits = new int[counts.length];
+            deltaFindState = new int[counts.length];
+            int total = 0;
+            for (int s = 0; s < counts.length; s++) {
+                int count = counts[s];
+                if (count == -1 || count == 1) {
+                    deltaNbBits[s] = (tableLog << 16) - (1 << tableLog);
+                    deltaFindState[s] = total - 1;
+                    total++;
+                } else if (count > 1) {
+                    int maxBitsOut = tableLog - (31 - Integer.numberOfLeadingZeros(count - 1));
+                    int minStatePlus = count << maxBitsOut;
+                    deltaNbBits[s] = (maxBitsOut << 16) - minStatePlus;
+                    deltaFindState[s] = total - count;
+                    total += count;
+                }
+            }
+        }
+
+        int init(int symbol) {
+            int nbBitsOut = (deltaNbBits[symbol] + (1 << 15)) >> 16;
+            int value = (nbBitsOut << 16) - deltaNbBits[symbol];
+            return states[(value >> nbBitsOut) + deltaFindState[symbol]];
+        }
+
+        int encode(BitWriter writer, int state, int symbol) {
+            int nbBitsOut = (state + deltaNbBits[symbol]) >> 16;
+            writer.add(state, nbBitsOut);
+            return states[(state >> nbBitsOut) + deltaFindState[symbol]];
+        }
+
+        void flush(BitWriter writer, int state) {
+            writer.add(state, tableLog);
+        }
+    }
+
+    /**
+     * Little endian bit stream (read backward by the decoder).
+     */
+    private static class BitWriter {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long container;
+        int count;
+
+        void add(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            container |= (value & ((1L << bits) - 1)) << count;
+            count += bits;
+            while (count >= 8) {
+                output.write((int) container);
+                container >>>= 8;
+                count -= 8;
+            }
+        }
+
+        byte[] close() {
+            add(1, 1);
+            if (count > 0) {
+                output.write((int) container);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Compress data in a Zstandard frame.
+     */
+    static byte[] compress(byte[] input, int offset, int length) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+        writeInt(output, MAGIC);
+        output.write(0); // frame header descriptor: no content size, no checksum, no dictionary
+        output.write((WINDOW_LOG - 10) << 3); // window descriptor
+        int[] head = new int[1 << HASH_LOG];
+        Arrays.fill(head, -1);
+        int[] chain = new int[length];
+        int position = offset;
+        int end = offset + length;
+        do {
+            int blockEnd = Math.min(end, position + BLOCK_SIZE);
+            byte[] block = compressBlock(input, offset, position, blockEnd, head, chain);
+            boolean last = blockEnd == end;
+            int blockLength = blockEnd - position;
+            if (block == null || block.length >= blockLength) {
+                writeBlockHeader(output, last, 0, blockLength);
+                output.write(input, position, blockLength);
+            } else {
+                writeBlockHeader(output, last, 2, block.length);
+                output.write(block, 0, block.length);
+            }
+            position = blockEnd;
+        } while (position < end);
+        return output.toByteArray();
+    }
+
+    private static byte[] compressBlock(byte[] input, int base, int start, int end, int[] head, int[] chain) {
+        // match finding
+        int[] literalLengths = new int[(end - start) / MIN_MATCH + 1];
+        int[] matchLengths = new int[literalLengths.length];
+        int[] offsets = new int[literalLengths.length];
+        ByteArrayOutputStream literals = new ByteArrayOutputStream(end - start);
+        int sequences = 0;
+        int anchor = start;
+        int position = start;
+        while (position + MIN_MATCH <= end) {
+            int hash = hash(input, position);
+            int candidate = head[hash];
+            int bestLength = 0;
+            int bestOffset = 0;
+            for (int depth = 0; candidate >= 0 && depth < CHAIN_DEPTH && position - candidate <= MAX_OFFSET; depth++) {
+                int matchLength = 0;
+                int max = end - position;
+                while (matchLength < max && input[candidate + matchLength] == input[position + matchLength]) {
+                    matchLength++;
+                }
+                if (matchLength > bestLength) {
+                    bestLength = matchLength;
+                    bestOffset = position - candidate;
+                }
+                candidate = chain[candidate - base];
+            }
+            chain[position - base] = head[hash];
+            head[hash] = position;
+            if (bestLength >= MIN_MATCH) {
+                literals.write(input, anchor, position - anchor);
+                literalLengths[sequences] = position - anchor;
+                matchLengths[sequences] = bestLength;
+                offsets[sequences] = bestOffset;
+                sequences++;
+                // index the matched positions
+                for (int i = position + 1; i < position + bestLength && i + MIN_MATCH <= end; i++) {
+                    int h = hash(input, i);
+                    chain[i - base] = head[h];
+                    head[h] = i;
+                }
+                position += bestLength;
+                anchor = position;
+            } else {
+                // skip faster in incompressible data
+                position += 1 + ((position - anchor) >> SKIP_STRENGTH);
+            }
+        }
+        literals.write(input, anchor, end - anchor);
+        if (sequences == 0) {
+            return null;
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        // literals section (raw)
+        int literalsSize = literals.size();
+        if (literalsSize < 32) {
+            block.write(literalsSize << 3);
+        } else if (literalsSize < 4096) {
+            int header = (1 << 2) | (literalsSize << 4);
+            block.write(header);
+            block.write(header >>> 8);
+        } else {
+            int header = (3 << 2) | (literalsSize << 4);
+            block.write(header);
+            block.write(header >>> 8);
+            block.write(header >>> 16);
+        }
+        byte[] literalBytes = literals.toByteArray();
+        block.write(literalBytes, 0, literalBytes.length);
+
+        // sequences section
+        if (sequences < 128) {
+            block.write(sequences);
+        } else if (sequences < 0x7F00) {
+            block.write((sequences >> 8) + 128);
+            block.write(sequences);
+        } else {
+            block.write(0xFF);
+            block.write(sequences - 0x7F00);
+            block.write((sequences - 0x7F00) >> 8);
+        }
+        block.write(0); // predefined modes for literal lengths, offsets and match lengths
+
+        int[] llCodes = new int[sequences];
+        int[] mlCodes = new int[sequences];
+        int[] ofCodes = new int[sequences];
+        for (int i = 0; i < sequences; i++) {
+            llCodes[i] = literalLengthCode(literalLengths[i]);
+            mlCodes[i] = matchLengthCode(matchLengths[i]);
+            ofCodes[i] = 31 - Integer.numberOfLeadingZeros(offsets[i] + 3);
+        }
+        BitWriter writer = new BitWriter();
+        int last = sequences - 1;
+        int mlState = ML_TABLE.init(mlCodes[last]);
+        int ofState = OF_TABLE.init(ofCodes[last]);
+        int llState = LL_TABLE.init(llCodes[last]);
+        addExtraBits(writer, last, literalLengths, matchLengths, offsets, llCodes, mlCodes, ofCodes);
+        for (int i = last - 1; i >= 0; i--) {
+            ofState = OF_TABLE.encode(writer, ofState, ofCodes[i]);
+            mlState = ML_TABLE.encode(writer, mlState, mlCodes[i]);
+            llState = LL_TABLE.encode(writer, llState, llCodes[i]);
+            addExtraBits(writer, i, literalLengths, matchLengths, offsets, llCodes, mlCodes, ofCodes);
+        }
+        ML_TABLE.flush(writer, mlState);
+        OF_TABLE.flush(writer, ofState);
+        LL_TABLE.flush(writer, llState);
+        byte[] bits = writer.close();
+        block.write(bits, 0, bits.length);
+        return block.toByteArray();
+    }
+
+    private static void addExtraBits(BitWriter writer, int i, int[] literalLengths, int[] matchLengths, int[] offsets, int[] llCodes, int[] mlCodes, int[] ofCodes) {
+        writer.add(literalLengths[i] - LL_BASE[llCodes[i]], LL_BITS[llCodes[i]]);
+        writer.add(matchLengths[i] - ML_BASE[mlCodes[i]], ML_BITS[mlCodes[i]]);
+        writer.add(offsets[i] + 3 - (1L << ofCodes[i]), ofCodes[i]);
+    }
+
+    private static int literalLengthCode(int literalLength) {
+        if (literalLength < 16) {
+            return literalLength;
+        }
+        int code = 16;
+        while (code + 1 < LL_BASE.length && LL_BASE[code + 1] <= literalLength) {
+            code++;
+        }
+        return code;
+    }
+
+    private static int matchLengthCode(int matchLength) {
+        if (matchLength < 35) {
+            return matchLength - 3;
+        }
+        int code = 32;
+        while (code + 1 < ML_BASE.length && ML_BASE[code + 1] <= matchLength) {
+            code++;
+        }
+        return code;
+    }
+
+    private static int hash(byte[] input, int position) {
+        int value = (input[position] & 0xFF) | (input[position + 1] & 0xFF) << 8 | (input[position + 2] & 0xFF) << 16 | (input[position + 3] & 0xFF) << 24;
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static void writeBlockHeader(ByteArrayOutputStream output, boolean last, int type, int size) {
+        int header = (last ? 1 : 0) | (type << 1) | (size << 3);
+        output.write(header);
+        output.write(header >>> 8);
+        output.write(header >>> 16);
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value) {
+        output.write(value);
+        output.write(value >>> 8);
+        output.write(value >>> 16);
+        output.write(value >>> 24);
+    }
+
+}
@@ -17,47 +17,8 @@
  */
 package org.apache.karaf.minho.tooling.common.maven;
 
-import org.apache.maven.model.Dependency;
-import org.apache.maven.model.Model;
-import org.apache.maven.model.building.*;
-import org.apache.maven.model.composition.DefaultDependencyManagementImporter;
-import org.apache.maven.model.inheritance.DefaultInheritanceAssembler;
-import org.apache.maven.model.interpolation.DefaultModelVersionProcessor;
-import org.apache.maven.model.interpolation.StringVisitorModelInterpolator;
-import org.apache.maven.model.io.DefaultModelReader;
-import org.apache.maven.model.management.DefaultDependencyManagementInjector;
-import org.apache.maven.model.management.DefaultPluginManagementInjector;
-import org.apache.maven.model.normalization.DefaultModelNormalizer;
-import org.apache.maven.model.path.*;
-import org.apache.maven.model.profile.DefaultProfileInjector;
-import org.apache.maven.model.profile.DefaultProfileSelector;
-import org.apache.maven.model.resolution.ModelResolver;
-import org.apache.maven.model.superpom.DefaultSuperPomProvider;
-import org.apache.maven.model.validation.DefaultModelValidator;
-import org.apache.maven.project.ProjectBuildingRequest;
-import org.apache.maven.project.ProjectModelResolver;
-import org.apache.maven.repository.internal.DefaultVersionRangeResolver;
-import org.apache.maven.repository.internal.DefaultVersionResolver;
-import org.eclipse.aether.DefaultRepositorySystemSession;
-import org.eclipse.aether.RepositorySystemSession;
-import org.eclipse.aether.RequestTrace;
-import org.eclipse.aether.artifact.Artifact;
-import org.eclipse.aether.artifact.DefaultArtifact;
-import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
-import org.eclipse.aether.impl.LocalRepositoryProvider;
-import org.eclipse.aether.internal.impl.*;
-import org.eclipse.aether.repository.LocalRepository;
-import org.eclipse.aether.repository.LocalRepositoryManager;
-import org.eclipse.aether.repository.RemoteRepository;
-import org.eclipse.aether.resolution.ArtifactRequest;
-import org.eclipse.aether.resolution.ArtifactResult;
-import org.eclipse.aether.spi.localrepo.LocalRepositoryManagerFactory;
-import org.eclipse.aether.transport.http.HttpTransporterFactory;
-
-import java.io.*;
+import java.io.File;
 import java.net.MalformedURLException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -597,193 +558,18 @@ public class Parser
                 + METADATA_FILE;
     }
 
+    /**
+     * Collect the dependencies of a POM, using the default {@link Resolver}.
+     */
     public static void getDependencies(File pom, List<String> dependencies, boolean includeTransitive) throws Exception {
-        DefaultModelBuilder modelBuilder = new DefaultModelBuilder();
-        modelBuilder.setProfileSelector(new DefaultProfileSelector());
-        DefaultModelProcessor modelProcessor = new DefaultModelProcessor();
-        modelProcessor.setModelReader(new DefaultModelReader());
-        modelBuilder.setModelProcessor(modelProcessor);
-        modelBuilder.setModelValidator(new DefaultModelValidator(new DefaultModelVersionProcessor()));
-        DefaultSuperPomProvider superPomProvider = new DefaultSuperPomProvider();
-        superPomProvider.setModelProcessor(modelProcessor);
-        modelBuilder.setSuperPomProvider(superPomProvider);
-        modelBuilder.setModelNormalizer(new DefaultModelNormalizer());
-        modelBuilder.setProfileInjector(new DefaultProfileInjector());
-        ProfileActivationFilePathInterpolator profileActivationFilePathInterpolator = new ProfileActivationFilePathInterpolator();
-        profileActivationFilePathInterpolator.setPathTranslator(new DefaultPathTranslator());
-        modelBuilder.setProfileActivationFilePathInterpolator(profileActivationFilePathInterpolator);
-        modelBuilder.setInheritanceAssembler(new DefaultInheritanceAssembler());
-        StringVisitorModelInterpolator visitorModelInterpolator = new StringVisitorModelInterpolator();
-        visitorModelInterpolator.setVersionPropertiesProcessor(new DefaultModelVersionProcessor());
-        visitorModelInterpolator.setPathTranslator(new DefaultPathTranslator());
-        visitorModelInterpolator.setUrlNormalizer(new DefaultUrlNormalizer());
-        visitorModelInterpolator.setVersionPropertiesProcessor(new DefaultModelVersionProcessor());
-        modelBuilder.setModelInterpolator(visitorModelInterpolator);
-        DefaultModelUrlNormalizer modelUrlNormalizer = new DefaultModelUrlNormalizer();
-        modelUrlNormalizer.setUrlNormalizer(new DefaultUrlNormalizer());
-        modelBuilder.setModelUrlNormalizer(modelUrlNormalizer);
-        DefaultModelPathTranslator modelPathTranslator = new DefaultModelPathTranslator();
-        modelPathTranslator.setPathTranslator(new DefaultPathTranslator());
-        modelBuilder.setModelPathTranslator(modelPathTranslator);
-        modelBuilder.setPluginManagementInjector(new DefaultPluginManagementInjector());
-        modelBuilder.setDependencyManagementInjector(new DefaultDependencyManagementInjector());
-        modelBuilder.setDependencyManagementImporter(new DefaultDependencyManagementImporter());
-
-        DefaultRepositorySystemSession repositorySystemSession = getRepositorySystemSession();
-        LocalRepositoryProvider localRepositoryProvider = getLocalRepositoryProvider(repositorySystemSession);
-
-        DefaultArtifactResolver resolver = getArtifactResolver(repositorySystemSession,
-                localRepositoryProvider,
-                getRemoteRepositories());
-
-        DefaultSyncContextFactory syncContextFactory = new DefaultSyncContextFactory();
-        DefaultRepositoryEventDispatcher repositoryEventDispatcher = new DefaultRepositoryEventDispatcher();
-        DefaultVersionResolver versionResolver = new DefaultVersionResolver();
-        DefaultMetadataResolver metadataResolver = new DefaultMetadataResolver();
-        metadataResolver.setSyncContextFactory(syncContextFactory);
-        metadataResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
-        versionResolver.setMetadataResolver(metadataResolver);
-        versionResolver.setSyncContextFactory(syncContextFactory);
-        versionResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
-
-        DefaultRepositorySystem repositorySystem = new DefaultRepositorySystem();
-        repositorySystem.setLocalRepositoryProvider(localRepositoryProvider);
-        repositorySystem.setVersionResolver(versionResolver);
-
-        DefaultVersionRangeResolver versionRangeResolver = new DefaultVersionRangeResolver();
-        versionRangeResolver.setMetadataResolver(metadataResolver);
-        versionRangeResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
-        versionRangeResolver.setSyncContextFactory(syncContextFactory);
-
-        repositorySystem.setVersionRangeResolver(versionRangeResolver);
-        repositorySystem.setArtifactResolver(resolver);
-
-        ModelResolver modelResolver = new ProjectModelResolver(
-                repositorySystemSession,
-                new RequestTrace(null),
-                repositorySystem,
-                new DefaultRemoteRepositoryManager(),
-                new ArrayList<RemoteRepository>(),
-                ProjectBuildingRequest.RepositoryMerging.POM_DOMINANT,
-                null);
-
-
-        ModelBuildingRequest request = new DefaultModelBuildingRequest();
-        request.setModelResolver(modelResolver);
-        request.setPomFile(pom);
-        Model model = modelBuilder.build(request).getEffectiveModel();
-
-        for (Dependency dependency : model.getDependencies()) {
-            if (!dependency.getScope().equals("test")) {
-                dependencies.add("mvn:" + dependency.getGroupId() + "/" + dependency.getArtifactId() + "/" + dependency.getVersion() + "/" + dependency.getType());
-                if (includeTransitive) {
-                    // recursion
-                    File transitivePom = Parser.resolve("mvn:" + dependency.getGroupId() + "/" + dependency.getArtifactId() + "/" + dependency.getVersion() + "/pom");
-                    Parser.getDependencies(transitivePom, dependencies, includeTransitive);
-                }
-            }
-        }
+        dependencies.addAll(Resolver.getDefault().collect(pom, includeTransitive));
     }
 
+    /**
+     * Resolve an artifact, using the default {@link Resolver}.
+     */
     public static File resolve(String uri) throws Exception {
-
-        DefaultRepositorySystemSession repositorySystemSession = getRepositorySystemSession();
-        LocalRepositoryProvider localRepositoryProvider = getLocalRepositoryProvider(repositorySystemSession);
-
-        List<RemoteRepository> remoteRepositories = getRemoteRepositories();
-
-        DefaultArtifactResolver resolver = getArtifactResolver(repositorySystemSession, localRepositoryProvider, remoteRepositories);
-
-        Parser parser = new Parser(uri);
-        Artifact artifact = new DefaultArtifact(parser.getGroup(), parser.getArtifact(), parser.getType(), parser.getVersion());
-        ArtifactRequest request = new ArtifactRequest();
-        request.setArtifact(artifact);
-        request.setRepositories(remoteRepositories);
-
-        ArtifactResult result = resolver.resolveArtifact(repositorySystemSession, request);
-        return result.getArtifact().getFile();
-    }
-
-    private static LocalRepositoryProvider getLocalRepositoryProvider(DefaultRepositorySystemSession repositorySystemSession) throws Exception {
-        LocalRepository localRepository = new LocalRepository(System.getProperty("user.home") + "/.m2/repository");
-        DefaultLocalRepositoryProvider localRepositoryProvider = new DefaultLocalRepositoryProvider();
-        LocalRepositoryManagerFactory localRepositoryManagerFactory = new SimpleLocalRepositoryManagerFactory();
-        localRepositoryProvider.setLocalRepositoryManagerFactories(Collections.singletonList(localRepositoryManagerFactory));
-        LocalRepositoryManager localRepositoryManager = localRepositoryProvider.newLocalRepositoryManager(repositorySystemSession, localRepository);
-        repositorySystemSession.setLocalRepositoryManager(localRepositoryManager);
-        return localRepositoryProvider;
-    }
-
-    private static DefaultRepositorySystemSession getRepositorySystemSession() throws Exception {
-        return new DefaultRepositorySystemSession();
-    }
-
-    private static DefaultArtifactResolver getArtifactResolver(RepositorySystemSession repositorySystemSession,
-                                                               LocalRepositoryProvider localRepositoryProvider,
-                                                               List<RemoteRepository> remoteRepositories) throws Exception {
-        DefaultArtifactResolver artifactResolver = new DefaultArtifactResolver();
-
-        DefaultSyncContextFactory syncContextFactory = new DefaultSyncContextFactory();
-        DefaultRepositoryEventDispatcher repositoryEventDispatcher = new DefaultRepositoryEventDispatcher();
-        DefaultVersionResolver versionResolver = new DefaultVersionResolver();
-        DefaultMetadataResolver metadataResolver = new DefaultMetadataResolver();
-        metadataResolver.setSyncContextFactory(syncContextFactory);
-        metadataResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
-        versionResolver.setMetadataResolver(metadataResolver);
-        versionResolver.setSyncContextFactory(syncContextFactory);
-        versionResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
-
-        DefaultRepositorySystem repositorySystem = new DefaultRepositorySystem();
-        repositorySystem.setLocalRepositoryProvider(localRepositoryProvider);
-        repositorySystem.setVersionResolver(versionResolver);
-
-        DefaultRemoteRepositoryManager remoteRepositoryManager = new DefaultRemoteRepositoryManager();
-        metadataResolver.setRemoteRepositoryManager(remoteRepositoryManager);
-
-        DefaultUpdateCheckManager updateCheckManager = new DefaultUpdateCheckManager();
-        updateCheckManager.setUpdatePolicyAnalyzer(new DefaultUpdatePolicyAnalyzer());
-        metadataResolver.setUpdateCheckManager(updateCheckManager);
-
-        remoteRepositoryManager.aggregateRepositories(repositorySystemSession, remoteRepositories, new ArrayList<>(), false);
-        remoteRepositoryManager.setChecksumPolicyProvider(new DefaultChecksumPolicyProvider());
-        remoteRepositoryManager.setUpdatePolicyAnalyzer(new DefaultUpdatePolicyAnalyzer());
-        repositorySystem.setRemoteRepositoryManager(remoteRepositoryManager);
-
-        DefaultVersionRangeResolver versionRangeResolver = new DefaultVersionRangeResolver();
-        versionRangeResolver.setMetadataResolver(metadataResolver);
-        versionRangeResolver.setSyncContextFactory(syncContextFactory);
-        versionRangeResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
-
-        artifactResolver.setVersionResolver(versionResolver);
-        artifactResolver.setSyncContextFactory(syncContextFactory);
-        artifactResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
-
-        DefaultRepositoryConnectorProvider repositoryConnectorProvider = new DefaultRepositoryConnectorProvider();
-        BasicRepositoryConnectorFactory repositoryConnectorFactory = new BasicRepositoryConnectorFactory();
-        DefaultRepositoryLayoutProvider repositoryLayoutProvider = new DefaultRepositoryLayoutProvider();
-        repositoryLayoutProvider.setRepositoryLayoutFactories(Collections.singletonList(new Maven2RepositoryLayoutFactory()));
-        DefaultTransporterProvider transporterProvider = new DefaultTransporterProvider();
-        transporterProvider.addTransporterFactory(new HttpTransporterFactory());
-        repositoryConnectorFactory.setRepositoryLayoutProvider(repositoryLayoutProvider);
-        repositoryConnectorFactory.setTransporterProvider(transporterProvider);
-        repositoryConnectorFactory.setFileProcessor(new DefaultFileProcessor());
-        repositoryConnectorFactory.setChecksumPolicyProvider(new DefaultChecksumPolicyProvider());
-        repositoryConnectorProvider.addRepositoryConnectorFactory(repositoryConnectorFactory);
-        artifactResolver.setRepositoryConnectorProvider(repositoryConnectorProvider);
-        artifactResolver.setRemoteRepositoryManager(remoteRepositoryManager);
-
-        metadataResolver.setRepositoryConnectorProvider(repositoryConnectorProvider);
-
-        repositorySystem.setVersionRangeResolver(versionRangeResolver);
-        repositorySystem.setArtifactResolver(artifactResolver);
-
-        return artifactResolver;
-    }
-
-    private static List<RemoteRepository> getRemoteRepositories() {
-        List<RemoteRepository> remoteRepositories = new ArrayList<>();
-        remoteRepositories.add(new RemoteRepository.Builder("maven-central", "default", "https://repo1.maven.org/maven2").build());
-        return remoteRepositories;
+        return Resolver.getDefault().resolve(uri);
     }
 
-}
\ No newline at end of file
+}
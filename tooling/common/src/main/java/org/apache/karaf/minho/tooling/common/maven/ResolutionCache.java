@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.tooling.common.maven;
+
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent cache of the resolution results: the resolved file, its size, last modified time and SHA-256 checksum per
+ * artifact coordinate. A cached resolution is valid as long as the file is unchanged (same size and last modified
+ * time), so the next builds don't go through the resolver.
+ * The cache is updated in memory, and persisted once per resolution ({@link #save()}).
+ */
+@Log
+class ResolutionCache {
+
+    private final Path file;
+    private final Map<String, String[]> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    ResolutionCache(Path file) {
+        this.file = file;
+        if (Files.isRegularFile(file)) {
+            Properties properties = new Properties();
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                properties.load(inputStream);
+            } catch (IOException e) {
+                log.warning("Can't load resolution cache " + file + ": " + e.getMessage());
+            }
+            properties.forEach((coordinate, value) -> {
+                String[] entry = value.toString().split("\\|");
+                if (entry.length == 4) {
+                    entries.put(coordinate.toString(), entry);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the resolved file of an artifact.
+     *
+     * @param coordinate the artifact coordinate.
+     * @return the resolved file, or null if not in the cache or if the file changed.
+     */
+    File get(String coordinate) {
+        String[] entry = entries.get(coordinate);
+        if (entry == null) {
+            return null;
+        }
+        File resolved = new File(entry[0]);
+        if (resolved.isFile() && resolved.length() == Long.parseLong(entry[1]) && resolved.lastModified() == Long.parseLong(entry[2])) {
+            return resolved;
+        }
+        if (entries.remove(coordinate) != null) {
+            dirty.set(true);
+        }
+        return null;
+    }
+
+    /**
+     * Get the SHA-256 checksum of a cached artifact.
+     */
+    String checksum(String coordinate) {
+        String[] entry = entries.get(coordinate);
+        return (entry != null) ? entry[3] : null;
+    }
+
+    /**
+     * Add a resolution result in the cache.
+     */
+    void put(String coordinate, File resolved) {
+        try {
+            entries.put(coordinate, new String[]{ resolved.getAbsolutePath(), Long.toString(resolved.length()), Long.toString(resolved.lastModified()), sha256(resolved.toPath()) });
+            dirty.set(true);
+        } catch (Exception e) {
+            log.warning("Can't store " + coordinate + " in resolution cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Persist the cache, if changed since the last save.
+     */
+    synchronized void save() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            store();
+        } catch (IOException e) {
+            dirty.set(true);
+            log.warning("Can't save resolution cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void store() throws IOException {
+        Properties properties = new Properties();
+        new TreeMap<>(entries).forEach((coordinate, entry) -> properties.setProperty(coordinate, String.join("|", entry)));
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temp)) {
+            properties.store(outputStream, "Minho resolution cache");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sha256(Path path) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,602 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.minho.tooling.common.maven;
+
+import lombok.extern.java.Log;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Repository;
+import org.apache.maven.model.building.*;
+import org.apache.maven.model.composition.DefaultDependencyManagementImporter;
+import org.apache.maven.model.inheritance.DefaultInheritanceAssembler;
+import org.apache.maven.model.interpolation.DefaultModelVersionProcessor;
+import org.apache.maven.model.interpolation.StringVisitorModelInterpolator;
+import org.apache.maven.model.io.DefaultModelReader;
+import org.apache.maven.model.management.DefaultDependencyManagementInjector;
+import org.apache.maven.model.management.DefaultPluginManagementInjector;
+import org.apache.maven.model.normalization.DefaultModelNormalizer;
+import org.apache.maven.model.path.*;
+import org.apache.maven.model.profile.DefaultProfileInjector;
+import org.apache.maven.model.profile.DefaultProfileSelector;
+import org.apache.maven.model.resolution.InvalidRepositoryException;
+import org.apache.maven.model.resolution.ModelResolver;
+import org.apache.maven.model.resolution.UnresolvableModelException;
+import org.apache.maven.model.superpom.DefaultSuperPomProvider;
+import org.apache.maven.model.validation.DefaultModelValidator;
+import org.apache.maven.project.ProjectBuildingRequest;
+import org.apache.maven.project.ProjectModelResolver;
+import org.apache.maven.repository.internal.DefaultVersionRangeResolver;
+import org.apache.maven.repository.internal.DefaultVersionResolver;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RequestTrace;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
+import org.eclipse.aether.internal.impl.*;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.transport.http.HttpTransporterFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reusable Maven resolver context: the repository session, the artifact resolver and the model builder are created
+ * once and shared by all the resolutions (thread safe).
+ * Artifacts are looked up in the resolution cache first, then in the file repositories (local mirror and {@code file:}
+ * repositories, no network), and finally by the Maven resolver (local repository and remote repositories, unless
+ * offline).
+ * The dependency graph is collected breadth first, resolving the POMs of a graph level in parallel. Each artifact is
+ * visited only once (no duplicate resolution, no cycle), and version conflicts are mediated like Maven does: the
+ * nearest definition wins, the first declaration wins at the same depth.
+ */
+@Log
+public class Resolver {
+
+    private final static String LOCAL_REPOSITORY = System.getProperty("user.home") + "/.m2/repository";
+    private final static String CENTRAL = "https://repo1.maven.org/maven2";
+    private final static String RESOLUTION_CACHE = System.getProperty("user.home") + "/.minho/resolution.properties";
+
+    private final static Map<String, Resolver> resolvers = new ConcurrentHashMap<>();
+    private final static ExecutorService executor = createExecutor();
+
+    private final DefaultRepositorySystemSession session;
+    private final List<RemoteRepository> remoteRepositories;
+    private final List<Path> fileRepositories;
+    private final boolean offline;
+    private final ResolutionCache cache;
+    private final DefaultArtifactResolver artifactResolver;
+    private final DefaultModelBuilder modelBuilder;
+    private final ModelResolver modelResolver;
+
+    public Resolver(String localRepository, List<RemoteRepository> remoteRepositories) {
+        this(localRepository, remoteRepositories, Collections.emptyList(), false, null);
+    }
+
+    /**
+     * @param localRepository the local repository folder.
+     * @param remoteRepositories the remote repositories.
+     * @param fileRepositories the file repositories (Maven 2 layout), looked up before the local and remote repositories.
+     * @param offline true to never use the remote repositories.
+     * @param cache the resolution cache file, null to disable the resolution cache.
+     */
+    public Resolver(String localRepository, List<RemoteRepository> remoteRepositories, List<Path> fileRepositories, boolean offline, Path cache) {
+        this.remoteRepositories = remoteRepositories;
+        this.fileRepositories = fileRepositories;
+        this.offline = offline;
+        this.cache = (cache != null) ? new ResolutionCache(cache) : null;
+        this.session = new DefaultRepositorySystemSession();
+        session.setOffline(offline);
+
+        DefaultLocalRepositoryProvider localRepositoryProvider = new DefaultLocalRepositoryProvider();
+        localRepositoryProvider.setLocalRepositoryManagerFactories(Collections.singletonList(new SimpleLocalRepositoryManagerFactory()));
+        try {
+            session.setLocalRepositoryManager(localRepositoryProvider.newLocalRepositoryManager(session, new LocalRepository(localRepository)));
+        } catch (Exception e) {
+            throw new IllegalStateException("Can't create local repository " + localRepository, e);
+        }
+
+        DefaultSyncContextFactory syncContextFactory = new DefaultSyncContextFactory();
+        DefaultRepositoryEventDispatcher repositoryEventDispatcher = new DefaultRepositoryEventDispatcher();
+        DefaultMetadataResolver metadataResolver = new DefaultMetadataResolver();
+        metadataResolver.setSyncContextFactory(syncContextFactory);
+        metadataResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
+        DefaultVersionResolver versionResolver = new DefaultVersionResolver();
+        versionResolver.setMetadataResolver(metadataResolver);
+        versionResolver.setSyncContextFactory(syncContextFactory);
+        versionResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
+        DefaultVersionRangeResolver versionRangeResolver = new DefaultVersionRangeResolver();
+        versionRangeResolver.setMetadataResolver(metadataResolver);
+        versionRangeResolver.setSyncContextFactory(syncContextFactory);
+        versionRangeResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
+
+        DefaultRemoteRepositoryManager remoteRepositoryManager = new DefaultRemoteRepositoryManager();
+        remoteRepositoryManager.setChecksumPolicyProvider(new DefaultChecksumPolicyProvider());
+        remoteRepositoryManager.setUpdatePolicyAnalyzer(new DefaultUpdatePolicyAnalyzer());
+        DefaultUpdateCheckManager updateCheckManager = new DefaultUpdateCheckManager();
+        updateCheckManager.setUpdatePolicyAnalyzer(new DefaultUpdatePolicyAnalyzer());
+        metadataResolver.setUpdateCheckManager(updateCheckManager);
+        metadataResolver.setRemoteRepositoryManager(remoteRepositoryManager);
+
+        DefaultRepositoryConnectorProvider repositoryConnectorProvider = new DefaultRepositoryConnectorProvider();
+        BasicRepositoryConnectorFactory repositoryConnectorFactory = new BasicRepositoryConnectorFactory();
+        DefaultRepositoryLayoutProvider repositoryLayoutProvider = new DefaultRepositoryLayoutProvider();
+        repositoryLayoutProvider.setRepositoryLayoutFactories(Collections.singletonList(new Maven2RepositoryLayoutFactory()));
+        DefaultTransporterProvider transporterProvider = new DefaultTransporterProvider();
+        transporterProvider.addTransporterFactory(new HttpTransporterFactory());
+        repositoryConnectorFactory.setRepositoryLayoutProvider(repositoryLayoutProvider);
+        repositoryConnectorFactory.setTransporterProvider(transporterProvider);
+        repositoryConnectorFactory.setFileProcessor(new DefaultFileProcessor());
+        repositoryConnectorFactory.setChecksumPolicyProvider(new DefaultChecksumPolicyProvider());
+        repositoryConnectorProvider.addRepositoryConnectorFactory(repositoryConnectorFactory);
+        metadataResolver.setRepositoryConnectorProvider(repositoryConnectorProvider);
+        DefaultOfflineController offlineController = new DefaultOfflineController();
+        metadataResolver.setOfflineController(offlineController);
+
+        artifactResolver = new DefaultArtifactResolver();
+        artifactResolver.setVersionResolver(versionResolver);
+        artifactResolver.setSyncContextFactory(syncContextFactory);
+        artifactResolver.setRepositoryEventDispatcher(repositoryEventDispatcher);
+        artifactResolver.setRepositoryConnectorProvider(repositoryConnectorProvider);
+        artifactResolver.setRemoteRepositoryManager(remoteRepositoryManager);
+        artifactResolver.setOfflineController(offlineController);
+
+        DefaultRepositorySystem repositorySystem = new DefaultRepositorySystem();
+        repositorySystem.setLocalRepositoryProvider(localRepositoryProvider);
+        repositorySystem.setVersionResolver(versionResolver);
+        repositorySystem.setVersionRangeResolver(versionRangeResolver);
+        repositorySystem.setArtifactResolver(artifactResolver);
+        repositorySystem.setRemoteRepositoryManager(remoteRepositoryManager);
+
+        modelBuilder = createModelBuilder();
+        modelResolver = new FileModelResolver(new ProjectModelResolver(
+                session,
+                new RequestTrace(null),
+                repositorySystem,
+                remoteRepositoryManager,
+                remoteRepositories,
+                ProjectBuildingRequest.RepositoryMerging.POM_DOMINANT,
+                null));
+    }
+
+    /**
+     * Thread pool shared by all the resolvers (resolution of the artifacts and POMs in parallel), the idle threads are
+     * released.
+     */
+    private static ExecutorService createExecutor() {
+        int threads = Integer.parseInt(System.getProperty("minho.resolver.threads", Integer.toString(Math.max(4, java.lang.Runtime.getRuntime().availableProcessors() * 2))));
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "minho-resolver-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * The default resolver, configured with the system properties.
+     */
+    public static Resolver getDefault() {
+        return of(null);
+    }
+
+    /**
+     * The resolver for a configuration (the properties, or the system properties if not defined in the properties):
+     * <ul>
+     *     <li>{@code minho.repositories}: comma separated list of repository URLs ({@code http:}, {@code https:}
+     *     or {@code file:}), Maven Central by default.</li>
+     *     <li>{@code minho.mirror}: local mirror folder (Maven 2 layout), looked up first.</li>
+     *     <li>{@code minho.localRepository}: local repository folder, {@code ~/.m2/repository} by default.</li>
+     *     <li>{@code minho.offline}: {@code true} to never use the network.</li>
+     *     <li>{@code minho.resolver.cache}: resolution cache file, {@code ~/.minho/resolution.properties} by
+     *     default ({@code false} to disable).</li>
+     * </ul>
+     * The resolvers are created once per configuration.
+     */
+    public static Resolver of(Map<String, Object> properties) {
+        String repositories = property(properties, "minho.repositories", CENTRAL);
+        String mirror = property(properties, "minho.mirror", null);
+        String localRepository = property(properties, "minho.localRepository", LOCAL_REPOSITORY);
+        boolean offline = Boolean.parseBoolean(property(properties, "minho.offline", "false"));
+        String cache = property(properties, "minho.resolver.cache", RESOLUTION_CACHE);
+        String key = String.join("|", repositories, String.valueOf(mirror), localRepository, Boolean.toString(offline), cache);
+        return resolvers.computeIfAbsent(key, k -> {
+            List<Path> fileRepositories = new ArrayList<>();
+            if (mirror != null) {
+                fileRepositories.add(Paths.get(mirror));
+            }
+            List<RemoteRepository> remoteRepositories = new ArrayList<>();
+            int index = 0;
+            for (String repository : repositories.split(",")) {
+                repository = repository.trim();
+                if (repository.isEmpty()) {
+                    continue;
+                }
+                if (repository.startsWith("file:")) {
+                    fileRepositories.add(Paths.get(URI.create(repository)));
+                } else {
+                    remoteRepositories.add(new RemoteRepository.Builder(repository.equals(CENTRAL) ? "maven-central" : "repository-" + index++, "default", repository).build());
+                }
+            }
+            return new Resolver(localRepository, remoteRepositories, fileRepositories, offline, cache.equalsIgnoreCase("false") ? null : Paths.get(cache));
+        });
+    }
+
+    private static String property(Map<String, Object> properties, String key, String defaultValue) {
+        if (properties != null && properties.get(key) != null) {
+            return properties.get(key).toString();
+        }
+        return System.getProperty(key, defaultValue);
+    }
+
+    private static DefaultModelBuilder createModelBuilder() {
+        DefaultModelBuilder modelBuilder = new DefaultModelBuilder();
+        modelBuilder.setProfileSelector(new DefaultProfileSelector());
+        DefaultModelProcessor modelProcessor = new DefaultModelProcessor();
+        modelProcessor.setModelReader(new DefaultModelReader());
+        modelBuilder.setModelProcessor(modelProcessor);
+        modelBuilder.setModelValidator(new DefaultModelValidator(new DefaultModelVersionProcessor()));
+        DefaultSuperPomProvider superPomProvider = new DefaultSuperPomProvider();
+        superPomProvider.setModelProcessor(modelProcessor);
+        modelBuilder.setSuperPomProvider(superPomProvider);
+        modelBuilder.setModelNormalizer(new DefaultModelNormalizer());
+        modelBuilder.setProfileInjector(new DefaultProfileInjector());
+        ProfileActivationFilePathInterpolator profileActivationFilePathInterpolator = new ProfileActivationFilePathInterpolator();
+        profileActivationFilePathInterpolator.setPathTranslator(new DefaultPathTranslator());
+        modelBuilder.setProfileActivationFilePathInterpolator(profileActivationFilePathInterpolator);
+        modelBuilder.setInheritanceAssembler(new DefaultInheritanceAssembler());
+        StringVisitorModelInterpolator visitorModelInterpolator = new StringVisitorModelInterpolator();
+        visitorModelInterpolator.setVersionPropertiesProcessor(new DefaultModelVersionProcessor());
+        visitorModelInterpolator.setPathTranslator(new DefaultPathTranslator());
+        visitorModelInterpolator.setUrlNormalizer(new DefaultUrlNormalizer());
+        modelBuilder.setModelInterpolator(visitorModelInterpolator);
+        DefaultModelUrlNormalizer modelUrlNormalizer = new DefaultModelUrlNormalizer();
+        modelUrlNormalizer.setUrlNormalizer(new DefaultUrlNormalizer());
+        modelBuilder.setModelUrlNormalizer(modelUrlNormalizer);
+        DefaultModelPathTranslator modelPathTranslator = new DefaultModelPathTranslator();
+        modelPathTranslator.setPathTranslator(new DefaultPathTranslator());
+        modelBuilder.setModelPathTranslator(modelPathTranslator);
+        modelBuilder.setPluginManagementInjector(new DefaultPluginManagementInjector());
+        modelBuilder.setDependencyManagementInjector(new DefaultDependencyManagementInjector());
+        modelBuilder.setDependencyManagementImporter(new DefaultDependencyManagementImporter());
+        return modelBuilder;
+    }
+
+    /**
+     * Resolve an artifact.
+     *
+     * @param uri the artifact mvn URI.
+     * @return the artifact file.
+     */
+    public File resolve(String uri) throws Exception {
+        try {
+            return doResolve(uri);
+        } finally {
+            flush();
+        }
+    }
+
+    private File doResolve(String uri) throws Exception {
+        Parser parser = new Parser(uri);
+        String coordinate = parser.toMvnURI();
+        // the dynamic versions are only cached when offline (they can change remotely)
+        boolean cacheable = cache != null && parser.getRepositoryURL() == null && (offline || !isDynamic(parser.getVersion()));
+        File file = cacheable ? cache.get(coordinate) : null;
+        if (file != null) {
+            return file;
+        }
+        if (parser.getRepositoryURL() != null && parser.getRepositoryURL().startsWith("file:")) {
+            file = find(Paths.get(URI.create(parser.getRepositoryURL())), parser.getGroup(), parser.getArtifact(), parser.getVersion(), parser.getClassifier(), parser.getType());
+            if (file == null) {
+                throw new FileNotFoundException(uri + " not found");
+            }
+            return file;
+        }
+        file = find(parser.getGroup(), parser.getArtifact(), parser.getVersion(), parser.getClassifier(), parser.getType());
+        if (file == null) {
+            Artifact artifact = new DefaultArtifact(parser.getGroup(), parser.getArtifact(), parser.getClassifier(), parser.getType(), parser.getVersion());
+            ArtifactRequest request = new ArtifactRequest();
+            request.setArtifact(artifact);
+            if (parser.getRepositoryURL() != null) {
+                request.setRepositories(Collections.singletonList(new RemoteRepository.Builder("repository", "default", parser.getRepositoryURL()).build()));
+            } else {
+                request.setRepositories(remoteRepositories);
+            }
+            file = artifactResolver.resolveArtifact(session, request).getArtifact().getFile();
+        }
+        if (cacheable) {
+            cache.put(coordinate, file);
+        }
+        return file;
+    }
+
+    /**
+     * Get the SHA-256 checksum of a resolved artifact, if known by the resolution cache.
+     *
+     * @param uri the artifact mvn URI.
+     * @return the checksum, null if unknown.
+     */
+    public String checksum(String uri) throws Exception {
+        return (cache != null) ? cache.checksum(new Parser(uri).toMvnURI()) : null;
+    }
+
+    private static boolean isDynamic(String version) {
+        return version.endsWith(Parser.VERSION_LATEST) || version.equals("RELEASE") || version.endsWith("SNAPSHOT")
+                || version.startsWith("[") || version.startsWith("(");
+    }
+
+    /**
+     * Look up an artifact in the file repositories.
+     */
+    private File find(String group, String artifact, String version, String classifier, String type) {
+        if (isDynamic(version)) {
+            return null;
+        }
+        for (Path repository : fileRepositories) {
+            File file = find(repository, group, artifact, version, classifier, type);
+            if (file != null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static File find(Path repository, String group, String artifact, String version, String classifier, String type) {
+        Path path = repository.resolve(group.replace('.', '/')).resolve(artifact).resolve(version)
+                .resolve(artifact + "-" + version + ((classifier != null && !classifier.isEmpty()) ? "-" + classifier : "") + "." + type);
+        return Files.isRegularFile(path) ? path.toFile() : null;
+    }
+
+    /**
+     * Resolve artifacts in parallel.
+     *
+     * @param uris the artifact mvn URIs.
+     * @return the artifact files by URI, in the URIs order (the artifacts not resolved are logged and not included).
+     */
+    public Map<String, File> resolve(List<String> uris) throws InterruptedException {
+        Map<String, Future<File>> futures = new LinkedHashMap<>();
+        for (String uri : uris) {
+            futures.put(uri, executor.submit(() -> doResolve(uri)));
+        }
+        Map<String, File> files = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<File>> future : futures.entrySet()) {
+            try {
+                files.put(future.getKey(), future.getValue().get());
+            } catch (ExecutionException e) {
+                log.warning("Can't resolve " + future.getKey() + ": " + e.getCause());
+            }
+        }
+        flush();
+        return files;
+    }
+
+    /**
+     * Persist the resolution cache, once per resolution (the cache is updated in memory by each artifact resolution).
+     */
+    private void flush() {
+        if (cache != null) {
+            cache.save();
+        }
+    }
+
+    /**
+     * Build the effective model of a POM.
+     */
+    public Model model(File pom) throws Exception {
+        try {
+            return buildModel(pom);
+        } finally {
+            flush();
+        }
+    }
+
+    private Model buildModel(File pom) throws Exception {
+        ModelBuildingRequest request = new DefaultModelBuildingRequest();
+        request.setModelResolver(modelResolver.newCopy());
+        request.setPomFile(pom);
+        return modelBuilder.build(request).getEffectiveModel();
+    }
+
+    /**
+     * Collect the dependencies of a POM (scope test excluded).
+     *
+     * @param pom the POM file.
+     * @param includeTransitive true to collect the transitive dependencies (optional, provided, and excluded ones are
+     *                          not included), false to only collect the direct dependencies.
+     * @return the dependencies mvn URIs, with the versions mediated (nearest wins).
+     */
+    public List<String> collect(File pom, boolean includeTransitive) throws Exception {
+        try {
+            return doCollect(pom, includeTransitive);
+        } finally {
+            flush();
+        }
+    }
+
+    private List<String> doCollect(File pom, boolean includeTransitive) throws Exception {
+        Map<String, String> selected = new LinkedHashMap<>();
+        List<Node> level = new ArrayList<>();
+        Model root = buildModel(pom);
+        // the root artifact is selected (but not collected), so a cycle back to the root doesn't add it
+        Dependency self = new Dependency();
+        self.setGroupId(root.getGroupId());
+        self.setArtifactId(root.getArtifactId());
+        self.setVersion(root.getVersion());
+        self.setType("pom".equals(root.getPackaging()) ? "pom" : "jar");
+        selected.put(key(self), uri(self));
+        for (Dependency dependency : root.getDependencies()) {
+            if (!"test".equals(dependency.getScope()) && selected.putIfAbsent(key(dependency), uri(dependency)) == null) {
+                level.add(new Node(dependency, exclusions(Collections.emptySet(), dependency)));
+            }
+        }
+        while (includeTransitive && !level.isEmpty()) {
+            // resolve the POMs of the level in parallel
+            List<Future<Model>> models = new ArrayList<>();
+            for (Node node : level) {
+                models.add(executor.submit(() -> buildModel(doResolve("mvn:" + node.dependency.getGroupId() + "/" + node.dependency.getArtifactId() + "/" + node.dependency.getVersion() + "/pom"))));
+            }
+            List<Node> next = new ArrayList<>();
+            IllegalStateException exception = null;
+            for (int i = 0; i < level.size(); i++) {
+                Node node = level.get(i);
+                Model model;
+                try {
+                    model = models.get(i).get();
+                } catch (ExecutionException e) {
+                    if (exception == null) {
+                        exception = new IllegalStateException("Can't collect dependencies of " + pom);
+                    }
+                    exception.addSuppressed(new IllegalStateException("Can't resolve " + uri(node.dependency), e.getCause()));
+                    continue;
+                }
+                // merge in declaration order, the first visit of an artifact wins
+                for (Dependency dependency : model.getDependencies()) {
+                    String scope = dependency.getScope();
+                    if ("test".equals(scope) || "provided".equals(scope) || "system".equals(scope) || dependency.isOptional()
+                            || node.exclusions.contains(dependency.getGroupId() + ":" + dependency.getArtifactId())
+                            || node.exclusions.contains(dependency.getGroupId() + ":*") || node.exclusions.contains("*:*")) {
+                        continue;
+                    }
+                    String key = key(dependency);
+                    String uri = uri(dependency);
+                    String existing = selected.putIfAbsent(key, uri);
+                    if (existing == null) {
+                        next.add(new Node(dependency, exclusions(node.exclusions, dependency)));
+                    } else if (!existing.equals(uri)) {
+                        log.fine("Version conflict: " + uri + " omitted for " + existing);
+                    }
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            level = next;
+        }
+        selected.remove(key(self));
+        return new ArrayList<>(selected.values());
+    }
+
+    private static String key(Dependency dependency) {
+        return dependency.getGroupId() + ":" + dependency.getArtifactId() + ":" + dependency.getType() + ":" + (dependency.getClassifier() != null ? dependency.getClassifier() : "");
+    }
+
+    private static String uri(Dependency dependency) {
+        String uri = "mvn:" + dependency.getGroupId() + "/" + dependency.getArtifactId() + "/" + dependency.getVersion() + "/" + dependency.getType();
+        if (dependency.getClassifier() != null && !dependency.getClassifier().isEmpty()) {
+            uri += "/" + dependency.getClassifier();
+        }
+        return uri;
+    }
+
+    private static Set<String> exclusions(Set<String> parent, Dependency dependency) {
+        if (dependency.getExclusions().isEmpty()) {
+            return parent;
+        }
+        Set<String> exclusions = new HashSet<>(parent);
+        for (Exclusion exclusion : dependency.getExclusions()) {
+            exclusions.add(exclusion.getGroupId() + ":" + exclusion.getArtifactId());
+        }
+        return exclusions;
+    }
+
+    /**
+     * Model resolver looking up the POMs (parents, imports) in the file repositories and the resolution cache first.
+     * The ModelResolver interface of the Maven model builder still uses the deprecated ModelSource type.
+     */
+    @SuppressWarnings("deprecation")
+    private class FileModelResolver implements ModelResolver {
+
+        private final ModelResolver delegate;
+
+        private FileModelResolver(ModelResolver delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ModelSource resolveModel(String groupId, String artifactId, String version) throws UnresolvableModelException {
+            String coordinate = groupId + "/" + artifactId + "/" + version + "/pom";
+            File file = (cache != null && !isDynamic(version)) ? cache.get(coordinate) : null;
+            if (file == null) {
+                file = find(groupId, artifactId, version, null, "pom");
+            }
+            if (file != null) {
+                return new FileModelSource(file);
+            }
+            ModelSource source = delegate.resolveModel(groupId, artifactId, version);
+            if (cache != null && !isDynamic(version) && source instanceof FileModelSource) {
+                cache.put(coordinate, ((FileModelSource) source).getFile());
+            }
+            return source;
+        }
+
+        @Override
+        public ModelSource resolveModel(Parent parent) throws UnresolvableModelException {
+            if (isDynamic(parent.getVersion())) {
+                return delegate.resolveModel(parent);
+            }
+            return resolveModel(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+        }
+
+        @Override
+        public ModelSource resolveModel(Dependency dependency) throws UnresolvableModelException {
+            if (isDynamic(dependency.getVersion())) {
+                return delegate.resolveModel(dependency);
+            }
+            return resolveModel(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+        }
+
+        @Override
+        public void addRepository(Repository repository) throws InvalidRepositoryException {
+            delegate.addRepository(repository);
+        }
+
+        @Override
+        public void addRepository(Repository repository, boolean replace) throws InvalidRepositoryException {
+            delegate.addRepository(repository, replace);
+        }
+
+        @Override
+        public ModelResolver newCopy() {
+            return new FileModelResolver(delegate.newCopy());
+        }
+
+    }
+
+    private static class Node {
+        private final Dependency dependency;
+        private final Set<String> exclusions;
+
+        private Node(Dependency dependency, Set<String> exclusions) {
+            this.dependency = dependency;
+            this.exclusions = exclusions;
+        }
+    }
+
+}
@@ -17,19 +17,41 @@
  */
 package org.apache.karaf.minho.tooling.common;
 
+import com.github.luben.zstd.ZstdInputStream;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class RuntimeTest {
 
+    @BeforeAll
+    public static void buildCache() {
+        System.setProperty("minho.cache", "target/build-cache");
+        System.setProperty("minho.resolver.cache", "target/resolution.properties");
+    }
+
     @Test
     @Disabled("Failing on GH Action")
     public void createPackageTest() throws Exception {
@@ -123,4 +145,342 @@ public class RuntimeTest {
         Assertions.assertTrue(Files.exists(archivePath));
     }
 
+    @Test
+    public void createCdsArchiveTest() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-cds");
+        properties.put("minho.lib", "lib");
+        properties.put("minho.cds", "true");
+        Runtime runtime = new Runtime("test-cds", "1.0-SNAPSHOT", properties);
+        try (DirectoryStream<Path> boot = Files.newDirectoryStream(Paths.get("../../boot/target"), "minho-boot-*.jar")) {
+            boot.forEach(jar -> runtime.getDependencies().add("file:" + jar.toAbsolutePath()));
+        }
+
+        runtime.createPackage();
+        runtime.createArchive();
+
+        Path runtimeFolder = Paths.get("target/runtime/test-cds");
+        Assertions.assertTrue(Files.exists(runtimeFolder.resolve("lib").resolve("test-cds.jsa")));
+        String script = Files.readString(runtimeFolder.resolve("bin").resolve("minho.sh"));
+        Assertions.assertTrue(script.contains("-XX:SharedArchiveFile=test-cds.jsa"));
+        Assertions.assertTrue(script.contains("-jar minho-boot-"));
+
+        // the CDS archive is still valid once the runtime archive is extracted (the jars keep the entries timestamp)
+        Path extracted = Paths.get("target/runtime/test-cds-extracted");
+        try (ZipFile zipFile = new ZipFile(runtimeFolder.resolve("test-cds.zip").toFile())) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                Path file = extracted.resolve(entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(file);
+                    continue;
+                }
+                Files.createDirectories(file.getParent());
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.setLastModifiedTime(file, entry.getLastModifiedTime());
+            }
+        }
+        String bootJar;
+        try (DirectoryStream<Path> boot = Files.newDirectoryStream(extracted.resolve("lib"), "minho-boot-*.jar")) {
+            bootJar = boot.iterator().next().getFileName().toString();
+        }
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-Xshare:on", "-Xlog:cds",
+                "-XX:SharedArchiveFile=test-cds.jsa", "-Dminho.cds.training=true", "-jar", bootJar)
+                .directory(extracted.resolve("lib").toFile()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        Assertions.assertEquals(0, process.waitFor(), output);
+        Assertions.assertFalse(output.contains("Unable to use shared archive"), output);
+
+        // the unchanged jars are not copied again by the next package (their time is the output timestamp)
+        Path packagedBootJar = runtimeFolder.resolve("lib").resolve(bootJar);
+        FileTime trained = Files.getLastModifiedTime(packagedBootJar);
+        runtime.createPackage();
+        Assertions.assertEquals(trained, Files.getLastModifiedTime(packagedBootJar));
+    }
+
+    @Test
+    public void archiveFormatsTest() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-formats");
+        properties.put("minho.lib", "lib");
+        properties.put("minho.archive.format", "zip,tar.gz,tar.zst");
+        properties.put("minho.archive.layered", "true");
+        properties.put("minho.jvm.options", "-Xmx256m -XX:+UseSerialGC");
+        Runtime runtime = new Runtime("test-formats", "1.0-SNAPSHOT", properties);
+        try (DirectoryStream<Path> boot = Files.newDirectoryStream(Paths.get("../../boot/target"), "minho-boot-*.jar")) {
+            boot.forEach(jar -> runtime.getDependencies().add("file:" + jar.toAbsolutePath()));
+        }
+        runtime.getDependencies().add("mvn:commons-lang/commons-lang/2.6");
+
+        runtime.createPackage();
+        runtime.createArchive();
+
+        Path runtimeFolder = Paths.get("target/runtime/test-formats");
+        String script = Files.readString(runtimeFolder.resolve("bin").resolve("minho.sh"));
+        Assertions.assertTrue(script.contains("JAVA_OPTS=\"-Xmx256m -XX:+UseSerialGC $JAVA_OPTS\""));
+        Assertions.assertTrue(script.contains("-jar minho-boot-"));
+
+        // the released third-party jars are in the dependencies layer, the rest in the application layer
+        try (ZipFile dependencies = new ZipFile(runtimeFolder.resolve("test-formats-dependencies.zip").toFile());
+             ZipFile application = new ZipFile(runtimeFolder.resolve("test-formats-application.zip").toFile())) {
+            ZipEntry commonsLang = dependencies.getEntry("lib/commons-lang-2.6.jar");
+            Assertions.assertNotNull(commonsLang);
+            Assertions.assertEquals(ZipEntry.STORED, commonsLang.getMethod());
+            Assertions.assertEquals(Files.size(runtimeFolder.resolve("lib/commons-lang-2.6.jar")), commonsLang.getSize());
+            Assertions.assertNull(dependencies.getEntry("bin/minho.sh"));
+            Assertions.assertNotNull(application.getEntry("bin/minho.sh"));
+            Assertions.assertNull(application.getEntry("lib/commons-lang-2.6.jar"));
+            Assertions.assertTrue(application.stream().anyMatch(entry -> entry.getName().startsWith("lib/minho-boot-")));
+        }
+
+        // the tar archives contain the same entries
+        for (String extension : new String[]{ "tar.gz", "tar.zst" }) {
+            Path archive = runtimeFolder.resolve("test-formats-application." + extension);
+            byte[] tar;
+            try (InputStream inputStream = extension.endsWith("gz") ? new GZIPInputStream(Files.newInputStream(archive)) : new ZstdInputStream(Files.newInputStream(archive))) {
+                tar = inputStream.readAllBytes();
+            }
+            Map<String, Integer> entries = new HashMap<>();
+            for (int offset = 0; offset + 512 <= tar.length && tar[offset] != 0; ) {
+                String name = new String(tar, offset, 100, StandardCharsets.UTF_8).trim().replace("\0", "");
+                int mode = Integer.parseInt(new String(tar, offset + 100, 7, StandardCharsets.US_ASCII), 8);
+                long size = Long.parseLong(new String(tar, offset + 124, 11, StandardCharsets.US_ASCII), 8);
+                entries.put(name, mode);
+                offset += 512 + (int) ((size + 511) / 512) * 512;
+            }
+            Assertions.assertEquals(0755, entries.get("bin/minho.sh"));
+            Assertions.assertTrue(entries.keySet().stream().anyMatch(name -> name.startsWith("lib/minho-boot-")));
+            Assertions.assertFalse(entries.containsKey("lib/commons-lang-2.6.jar"));
+        }
+        try (InputStream inputStream = new ZstdInputStream(Files.newInputStream(runtimeFolder.resolve("test-formats-dependencies.tar.zst")))) {
+            Assertions.assertTrue(new String(inputStream.readAllBytes(), StandardCharsets.ISO_8859_1).contains("lib/commons-lang-2.6.jar"));
+        }
+    }
+
+    @Test
+    public void createNestedJarTest() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-nested");
+        properties.put("minho.lib", "lib");
+        properties.put("minho.jar.layout", "nested");
+        Runtime runtime = new Runtime("test-nested", "1.0-SNAPSHOT", properties);
+        try (DirectoryStream<Path> boot = Files.newDirectoryStream(Paths.get("../../boot/target"), "minho-boot-*.jar")) {
+            boot.forEach(jar -> runtime.getDependencies().add("file:" + jar.toAbsolutePath()));
+        }
+        runtime.getDependencies().add("mvn:commons-lang/commons-lang/2.6");
+
+        runtime.createPackage();
+        runtime.createJar();
+
+        Path uberJar = Paths.get("target/runtime/test-nested/test-nested.jar");
+        try (JarFile jarFile = new JarFile(uberJar.toFile())) {
+            Assertions.assertEquals("nested", jarFile.getManifest().getMainAttributes().getValue("Minho-Layout"));
+            Assertions.assertNotNull(jarFile.getEntry("org/apache/karaf/minho/boot/Main.class"));
+            ZipEntry nested = jarFile.getEntry("lib/commons-lang-2.6.jar");
+            Assertions.assertNotNull(nested);
+            Assertions.assertEquals(ZipEntry.STORED, nested.getMethod());
+        }
+
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-Dminho.cds.training=true", "-jar", uberJar.toString())
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        Assertions.assertEquals(0, process.waitFor(), output);
+        Assertions.assertTrue(output.contains("Starting runtime in nested jar mode"), output);
+    }
+
+    private static void createJar(Path jar, Map<String, String> entries) throws Exception {
+        Files.createDirectories(jar.getParent());
+        try (JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                jarOutputStream.putNextEntry(new JarEntry(entry.getKey()));
+                jarOutputStream.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                jarOutputStream.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    public void createJarTest() throws Exception {
+        Path lib = Paths.get("target/runtime/test-jar/lib");
+        createJar(lib.resolve("a.jar"), Map.of("META-INF/services/test.Service", "# comment\ntest.A\ntest.Common\n", "test/conflict.txt", "a", "test/a.txt", "a".repeat(10000)));
+        createJar(lib.resolve("b.jar"), Map.of("META-INF/services/test.Service", "test.B\ntest.Common", "test/conflict.txt", "b", "META-INF/B.SF", "signature"));
+        Files.writeString(lib.resolve("minho.json"), "{}");
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-jar");
+        properties.put("minho.lib", "lib");
+        Runtime runtime = new Runtime("test-jar", "1.0-SNAPSHOT", properties);
+        try (DirectoryStream<Path> boot = Files.newDirectoryStream(Paths.get("../../boot/target"), "minho-boot-*.jar")) {
+            boot.forEach(jar -> runtime.getDependencies().add("file:" + jar.toAbsolutePath()));
+        }
+        runtime.createPackage();
+        runtime.createJar();
+
+        Path uberJar = Paths.get("target/runtime/test-jar/test-jar.jar");
+        try (JarFile jarFile = new JarFile(uberJar.toFile())) {
+            Assertions.assertEquals("org.apache.karaf.minho.boot.Main", jarFile.getManifest().getMainAttributes().getValue("Main-Class"));
+            Assertions.assertEquals("test.A\ntest.Common\ntest.B\n", new String(jarFile.getInputStream(jarFile.getEntry("META-INF/services/test.Service")).readAllBytes(), StandardCharsets.UTF_8));
+            Assertions.assertEquals("a", new String(jarFile.getInputStream(jarFile.getEntry("test/conflict.txt")).readAllBytes(), StandardCharsets.UTF_8));
+            Assertions.assertEquals("a".repeat(10000), new String(jarFile.getInputStream(jarFile.getEntry("test/a.txt")).readAllBytes(), StandardCharsets.UTF_8));
+            Assertions.assertNotNull(jarFile.getEntry("minho.json"));
+            Assertions.assertNull(jarFile.getEntry("META-INF/B.SF"));
+            Assertions.assertNotNull(jarFile.getEntry("org/apache/karaf/minho/boot/Main.class"));
+        }
+        try (JarInputStream jarInputStream = new JarInputStream(Files.newInputStream(uberJar))) {
+            Assertions.assertNotNull(jarInputStream.getManifest());
+        }
+
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-Dminho.jar=true", "-Dminho.cds.training=true", "-jar", uberJar.toString())
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        Assertions.assertEquals(0, process.waitFor(), output);
+    }
+
+    @Test
+    public void createLargeJarTest() throws Exception {
+        Path lib = Paths.get("target/runtime/test-large-jar/lib");
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 70000; i++) {
+            entries.put("test/entry" + i + ".txt", Integer.toString(i));
+        }
+        createJar(lib.resolve("large.jar"), entries);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-large-jar");
+        properties.put("minho.lib", "lib");
+        Runtime runtime = new Runtime("test-large-jar", "1.0-SNAPSHOT", properties);
+        runtime.createJar();
+
+        try (JarFile jarFile = new JarFile(Paths.get("target/runtime/test-large-jar/test-large-jar.jar").toFile())) {
+            Assertions.assertEquals(70002, jarFile.size());
+            Assertions.assertEquals("69999", new String(jarFile.getInputStream(jarFile.getEntry("test/entry69999.txt")).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void reproducibleBuildTest() throws Exception {
+        Path lib = Paths.get("target/runtime/test-reproducible/lib");
+        createJar(lib.resolve("a.jar"), Map.of("META-INF/services/test.Service", "test.A\n", "test/a.txt", "a"));
+        Files.writeString(lib.resolve("minho.json"), "{}");
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-reproducible");
+        properties.put("minho.lib", "lib");
+        properties.put("minho.cache", "false");
+        Runtime runtime = new Runtime("test-reproducible", "1.0-SNAPSHOT", properties);
+        Path uberJar = Paths.get("target/runtime/test-reproducible/test-reproducible.jar");
+
+        runtime.createJar();
+        byte[] first = Files.readAllBytes(uberJar);
+        Files.setLastModifiedTime(lib.resolve("minho.json"), FileTime.fromMillis(System.currentTimeMillis() - 3600000));
+        Thread.sleep(2000);
+        runtime.createJar();
+        Assertions.assertArrayEquals(first, Files.readAllBytes(uberJar));
+
+        properties.put("minho.jar.layout", "nested");
+        runtime.createJar();
+        first = Files.readAllBytes(uberJar);
+        Thread.sleep(2000);
+        runtime.createJar();
+        Assertions.assertArrayEquals(first, Files.readAllBytes(uberJar));
+    }
+
+    @Test
+    public void buildCacheTest() throws Exception {
+        Path lib = Paths.get("target/runtime/test-cache/lib");
+        createJar(lib.resolve("a.jar"), Map.of("test/a.txt", "a"));
+        Path cache = Paths.get("target/runtime/test-cache-store");
+        if (Files.exists(cache)) {
+            try (Stream<Path> stream = Files.list(cache)) {
+                stream.forEach(file -> file.toFile().delete());
+            }
+        }
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-cache");
+        properties.put("minho.lib", "lib");
+        properties.put("minho.cache", cache.toString());
+        Runtime runtime = new Runtime("test-cache", "1.0-SNAPSHOT", properties);
+        Path uberJar = Paths.get("target/runtime/test-cache/test-cache.jar");
+
+        runtime.createJar();
+        Assertions.assertTrue(Files.exists(uberJar));
+        byte[] built = Files.readAllBytes(uberJar);
+        long cached;
+        try (Stream<Path> stream = Files.list(cache)) {
+            cached = stream.count();
+        }
+        Assertions.assertEquals(1, cached);
+
+        // same inputs: restored from the cache
+        Files.delete(uberJar);
+        runtime.createJar();
+        Assertions.assertArrayEquals(built, Files.readAllBytes(uberJar));
+
+        // changed input: new cache entry
+        createJar(lib.resolve("a.jar"), Map.of("test/a.txt", "b"));
+        runtime.createJar();
+        try (JarFile jarFile = new JarFile(uberJar.toFile())) {
+            Assertions.assertEquals("b", new String(jarFile.getInputStream(jarFile.getEntry("test/a.txt")).readAllBytes(), StandardCharsets.UTF_8));
+        }
+        try (Stream<Path> stream = Files.list(cache)) {
+            cached = stream.count();
+        }
+        Assertions.assertEquals(2, cached);
+
+        // bounded cache: the least recently used outputs are evicted
+        properties.put("minho.cache.maxSize", String.valueOf(Files.size(uberJar)));
+        createJar(lib.resolve("a.jar"), Map.of("test/a.txt", "c"));
+        runtime.createJar();
+        try (Stream<Path> stream = Files.list(cache)) {
+            cached = stream.count();
+        }
+        Assertions.assertEquals(1, cached);
+    }
+
+    @Test
+    public void shrinkJarTest() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("base.directory", "target/runtime/test-shrink");
+        properties.put("minho.lib", "lib");
+        properties.put("minho.cache", "false");
+        Runtime runtime = new Runtime("test-shrink", "1.0-SNAPSHOT", properties);
+        try (DirectoryStream<Path> boot = Files.newDirectoryStream(Paths.get("../../boot/target"), "minho-boot-*.jar")) {
+            boot.forEach(jar -> runtime.getDependencies().add("file:" + jar.toAbsolutePath()));
+        }
+        runtime.getDependencies().add("mvn:commons-lang/commons-lang/2.6");
+        runtime.createPackage();
+        Path uberJar = Paths.get("target/runtime/test-shrink/test-shrink.jar");
+        runtime.createJar();
+        long size = Files.size(uberJar);
+
+        Path rules = Paths.get("target/runtime/test-shrink/keep.rules");
+        Files.writeString(rules, "# keep rules\norg.apache.commons.lang.StringUtils\n");
+        properties.put("minho.shrink", "true");
+        properties.put("minho.shrink.rules", rules.toString());
+        runtime.createJar();
+
+        Assertions.assertTrue(Files.size(uberJar) < size);
+        try (JarFile jarFile = new JarFile(uberJar.toFile())) {
+            Assertions.assertNotNull(jarFile.getEntry("org/apache/karaf/minho/boot/Main.class"));
+            Assertions.assertNotNull(jarFile.getEntry("org/apache/karaf/minho/boot/service/ConfigService.class"));
+            Assertions.assertNotNull(jarFile.getEntry("META-INF/services/org.apache.karaf.minho.boot.spi.Service"));
+            // kept by rule, and its references
+            Assertions.assertNotNull(jarFile.getEntry("org/apache/commons/lang/StringUtils.class"));
+            Assertions.assertNotNull(jarFile.getEntry("org/apache/commons/lang/ArrayUtils.class"));
+            // unreachable
+            Assertions.assertNull(jarFile.getEntry("org/apache/commons/lang/time/DateUtils.class"));
+            Assertions.assertNull(jarFile.getEntry("org/apache/commons/lang/math/Range.class"));
+            Assertions.assertNull(jarFile.getEntry("org/apache/commons/lang/time/"));
+        }
+
+        // smoke test: the runtime still boots
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-Dminho.jar=true", "-Dminho.cds.training=true", "-jar", uberJar.toString())
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        Assertions.assertEquals(0, process.waitFor(), output);
+        Assertions.assertFalse(output.contains("ClassNotFoundException") || output.contains("NoClassDefFoundError"), output);
+    }
+
 }
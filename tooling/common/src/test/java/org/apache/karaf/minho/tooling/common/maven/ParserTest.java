@@ -17,13 +17,20 @@
  */
 package org.apache.karaf.minho.tooling.common.maven;
 
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ParserTest {
@@ -105,4 +112,81 @@ public class ParserTest {
         Assertions.assertEquals("1.0-SNAPSHOT", parser.getVersion());
     }
 
+    private static void pom(Path repository, String artifactId, String version, String... dependencies) throws Exception {
+        Path folder = repository.resolve("test").resolve(artifactId).resolve(version);
+        Files.createDirectories(folder);
+        StringBuilder builder = new StringBuilder();
+        builder.append("<project><modelVersion>4.0.0</modelVersion><groupId>test</groupId><artifactId>").append(artifactId)
+                .append("</artifactId><version>").append(version).append("</version><dependencies>");
+        for (String dependency : dependencies) {
+            String[] gav = dependency.split(":");
+            builder.append("<dependency><groupId>test</groupId><artifactId>").append(gav[0]).append("</artifactId><version>").append(gav[1]).append("</version>");
+            if (gav.length > 2) {
+                builder.append("<scope>").append(gav[2]).append("</scope>");
+            }
+            builder.append("</dependency>");
+        }
+        builder.append("</dependencies></project>");
+        Files.writeString(folder.resolve(artifactId + "-" + version + ".pom"), builder.toString());
+        Files.writeString(folder.resolve(artifactId + "-" + version + ".jar"), artifactId);
+    }
+
+    @Test
+    public void collectTest() throws Exception {
+        Path repository = Paths.get("target/test-repository");
+        pom(repository, "a", "1.0", "b:1.0", "c:1.0", "t:1.0:test");
+        pom(repository, "b", "1.0", "c:2.0", "d:1.0", "a:1.0");
+        pom(repository, "c", "1.0");
+        pom(repository, "c", "2.0");
+        pom(repository, "d", "1.0", "b:1.0", "p:1.0:provided");
+        Resolver resolver = new Resolver(repository.toAbsolutePath().toString(), Collections.emptyList());
+
+        // cycle (a -> b -> a, b -> d -> b) and version conflict (nearest c wins), the root is not its own dependency
+        List<String> dependencies = resolver.collect(repository.resolve("test/a/1.0/a-1.0.pom").toFile(), true);
+        Assertions.assertEquals(List.of("mvn:test/b/1.0/jar", "mvn:test/c/1.0/jar", "mvn:test/d/1.0/jar"), dependencies);
+
+        dependencies = resolver.collect(repository.resolve("test/a/1.0/a-1.0.pom").toFile(), false);
+        Assertions.assertEquals(List.of("mvn:test/b/1.0/jar", "mvn:test/c/1.0/jar"), dependencies);
+
+        Map<String, File> files = resolver.resolve(List.of("mvn:test/c/2.0", "mvn:test/d/1.0", "mvn:test/missing/1.0"));
+        Assertions.assertEquals(2, files.size());
+        Assertions.assertEquals("c-2.0.jar", files.get("mvn:test/c/2.0").getName());
+        Assertions.assertEquals("d-1.0.jar", files.get("mvn:test/d/1.0").getName());
+    }
+
+    @Test
+    public void offlineTest() throws Exception {
+        Path repository = Paths.get("target/test-file-repository");
+        pom(repository, "f", "1.0", "g:1.0");
+        pom(repository, "g", "1.0");
+        Files.createDirectories(repository.resolve("test/parent/1.0"));
+        Files.writeString(repository.resolve("test/parent/1.0/parent-1.0.pom"), "<project><modelVersion>4.0.0</modelVersion><groupId>test</groupId><artifactId>parent</artifactId><version>1.0</version><packaging>pom</packaging>"
+                + "<dependencyManagement><dependencies><dependency><groupId>test</groupId><artifactId>g</artifactId><version>1.0</version></dependency></dependencies></dependencyManagement></project>");
+        Files.createDirectories(repository.resolve("test/child/1.0"));
+        Files.writeString(repository.resolve("test/child/1.0/child-1.0.pom"), "<project><modelVersion>4.0.0</modelVersion><parent><groupId>test</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"
+                + "<artifactId>child</artifactId><dependencies><dependency><groupId>test</groupId><artifactId>f</artifactId><version>1.0</version></dependency><dependency><groupId>test</groupId><artifactId>g</artifactId></dependency></dependencies></project>");
+        Path cache = Paths.get("target/test-resolution.properties");
+        Files.deleteIfExists(cache);
+        List<RemoteRepository> central = List.of(new RemoteRepository.Builder("maven-central", "default", "https://repo1.maven.org/maven2").build());
+
+        Resolver resolver = new Resolver("target/test-empty-repository", central, List.of(repository), true, cache);
+        Assertions.assertEquals(List.of("mvn:test/f/1.0/jar", "mvn:test/g/1.0/jar"), resolver.collect(repository.resolve("test/child/1.0/child-1.0.pom").toFile(), true));
+        // the resolution cache is persisted once the collect is done
+        Assertions.assertTrue(Files.readString(cache).contains("test/f/1.0/pom"));
+        File file = resolver.resolve("mvn:test/g/1.0");
+        Assertions.assertEquals(repository.resolve("test/g/1.0/g-1.0.jar").toFile().getAbsolutePath(), file.getAbsolutePath());
+        Assertions.assertNotNull(resolver.checksum("mvn:test/g/1.0"));
+        Assertions.assertEquals(file.getAbsolutePath(), resolver.resolve("mvn:file:" + repository.toAbsolutePath() + "!test/g/1.0").getAbsolutePath());
+        // offline: no network access
+        long begin = System.currentTimeMillis();
+        Assertions.assertThrows(ArtifactResolutionException.class, () -> resolver.resolve("mvn:commons-lang/commons-lang/0.0.1"));
+        Assertions.assertTrue(System.currentTimeMillis() - begin < 5000);
+
+        // resolution cache: resolved without the file repository
+        Assertions.assertTrue(Files.exists(cache));
+        Resolver cached = new Resolver("target/test-empty-repository", central, Collections.emptyList(), true, cache);
+        Assertions.assertEquals(file.getAbsolutePath(), cached.resolve("mvn:test/g/1.0").getAbsolutePath());
+        Assertions.assertEquals(resolver.checksum("mvn:test/g/1.0"), cached.checksum("mvn:test/g/1.0"));
+    }
+
 }
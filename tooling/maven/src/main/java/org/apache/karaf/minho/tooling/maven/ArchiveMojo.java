@@ -23,30 +23,18 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 
-import java.io.FileInputStream;
-
 @Mojo(name = "archive", defaultPhase = LifecyclePhase.PACKAGE)
 public class ArchiveMojo extends MojoSupport {
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         getLog().info("Creating Minho runtime archive");
-        if (name != null && version != null) {
-            try {
-                Runtime runtime = new Runtime(name, version, properties);
-                dependencies.forEach(dependency -> {
-                    runtime.getDependencies().add(dependency);
-                });
-                runtime.createArchive();
-            } catch (Exception e) {
-                throw new MojoExecutionException("Can't create runtime archive", e);
-            }
-        } else {
-            try {
-                Runtime.createArchive(new FileInputStream(minhoBuild));
-            } catch (Exception e) {
-                throw new MojoExecutionException("Can't create runtime archive", e);
-            }
+        try {
+            Runtime runtime = runtime();
+            runtime.createPackage();
+            runtime.createArchive();
+        } catch (Exception e) {
+            throw new MojoExecutionException("Can't create runtime archive", e);
         }
     }
 
@@ -23,30 +23,18 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 
-import java.io.FileInputStream;
-
 @Mojo(name = "jar", defaultPhase = LifecyclePhase.PACKAGE)
 public class JarMojo extends MojoSupport {
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         getLog().info("Creating Minho runtime uber jar");
-        if (name != null && version != null) {
-            try {
-                Runtime runtime = new Runtime(name, version, properties);
-                dependencies.forEach(dependency -> {
-                    runtime.getDependencies().add(dependency);
-                });
-                runtime.createJar();
-            } catch (Exception e) {
-                throw new MojoExecutionException("Can't create runtime uber jar", e);
-            }
-        } else {
-            try {
-                Runtime.createJar(new FileInputStream(minhoBuild));
-            } catch (Exception e) {
-                throw new MojoExecutionException("Can't create runtime uber jar", e);
-            }
+        try {
+            Runtime runtime = runtime();
+            runtime.createPackage();
+            runtime.createJar();
+        } catch (Exception e) {
+            throw new MojoExecutionException("Can't create runtime uber jar", e);
         }
     }
 
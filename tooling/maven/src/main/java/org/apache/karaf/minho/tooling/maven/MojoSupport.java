@@ -17,10 +17,13 @@
  */
 package org.apache.karaf.minho.tooling.maven;
 
+import org.apache.karaf.minho.tooling.common.Runtime;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -37,5 +40,34 @@ public abstract class MojoSupport extends AbstractMojo {
     protected Map<String, Object> properties;
     @Parameter
     protected List<String> dependencies;
+    @Parameter(defaultValue = "false")
+    protected boolean cds;
+    @Parameter(defaultValue = "${settings.offline}")
+    protected boolean offline;
+
+    /**
+     * Create the runtime from the plugin configuration, or from the minho-build.json file if name and version are not
+     * defined in the plugin configuration.
+     */
+    protected Runtime runtime() throws Exception {
+        Runtime runtime;
+        if (name != null && version != null) {
+            runtime = new Runtime(name, version, (properties != null) ? properties : new HashMap<>());
+            if (dependencies != null) {
+                runtime.getDependencies().addAll(dependencies);
+            }
+        } else {
+            try (FileInputStream inputStream = new FileInputStream(minhoBuild)) {
+                runtime = Runtime.load(inputStream);
+            }
+        }
+        if (cds) {
+            runtime.getProperties().put("minho.cds", "true");
+        }
+        if (offline) {
+            runtime.getProperties().putIfAbsent("minho.offline", "true");
+        }
+        return runtime;
+    }
 
 }
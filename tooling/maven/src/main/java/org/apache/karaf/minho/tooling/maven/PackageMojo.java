@@ -23,30 +23,20 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 
-import java.io.FileInputStream;
-
 @Mojo(name = "package", defaultPhase = LifecyclePhase.PACKAGE)
 public class PackageMojo extends MojoSupport {
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         getLog().info("Creating Minho runtime package");
-        if (name != null && version != null) {
-            try {
-                Runtime runtime = new Runtime(name, version, properties);
-                dependencies.forEach(dependency -> {
-                    runtime.getDependencies().add(dependency);
-                });
-                runtime.createPackage();
-            } catch (Exception e) {
-                throw new MojoExecutionException("Can't create runtime package", e);
-            }
-        } else {
-            try {
-                Runtime.createPackage(new FileInputStream(minhoBuild));
-            } catch (Exception e) {
-                throw new MojoExecutionException("Can't create runtime package", e);
+        try {
+            Runtime runtime = runtime();
+            runtime.createPackage();
+            if (cds) {
+                runtime.createCdsArchive();
             }
+        } catch (Exception e) {
+            throw new MojoExecutionException("Can't create runtime package", e);
         }
     }
 